@@ -1,29 +1,88 @@
 package App;
 
 import IO.FileManager;
+import Util.FixedRecordSize;
 import storage.HeapFile;
+import storage.Superblock;
+import Bplustree.BPlusTree;
 import Bplustree.BulkLoader;
+import Bplustree.KeyDescriptor;
 import Bplustree.PageLayout;
 
-import java.util.Arrays;
-
 public class BulkBuild {
     public static void main(String[] args) throws Exception {
+        String db = "db.data";
+        int frames = FileManager.DEFAULT_POOL_FRAMES;
+        int runEntries = BulkLoader.DEFAULT_RUN_ENTRIES;
+        int threads = 0;
+        int[] cols = {FixedRecordSize.COL_FT_PCT_HOME}, include = {};
+        String name = null, drop = null;
+        boolean postings = false, wal = false;
+        int leafFill = 100, internalFill = 100;
+        long writerMillis = 0, checkpointMillis = 1000;
+        for (String a : args) {
+            if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.startsWith("--frames=")) frames = Integer.parseInt(a.substring(9));
+            else if (a.startsWith("--run-entries=")) runEntries = Integer.parseInt(a.substring(14)); // sort memory
+            else if (a.startsWith("--threads=")) threads = Integer.parseInt(a.substring(10));  // parallel build
+            else if (a.startsWith("--col=")) cols = columns(a.substring(6));        // key column(s), e.g. TEAM_ID_home,GAME_DATE_EST
+            else if (a.startsWith("--include=")) include = columns(a.substring(10)); // columns stored in the leaves
+            else if (a.startsWith("--name=")) name = a.substring(7);                        // default: column names joined by +
+            else if (a.startsWith("--drop=")) drop = a.substring(7);                        // remove an index
+            else if (a.equals("--postings")) postings = true;                               // one RID list per distinct key
+            else if (a.startsWith("--fill=")) leafFill = Integer.parseInt(a.substring(7));           // percent of each leaf filled
+            else if (a.startsWith("--internal-fill=")) internalFill = Integer.parseInt(a.substring(16)); // same for internal nodes
+            else if (a.equals("--wal")) wal = true;                                         // build through the write-ahead log
+            else if (a.startsWith("--writer=")) writerMillis = Long.parseLong(a.substring(9));   // background page writer period
+            else if (a.startsWith("--checkpoint-every=")) checkpointMillis = Long.parseLong(a.substring(19)); // its checkpoints, with --wal
+        }
+        if (name == null) {
+            StringBuilder sb = new StringBuilder();
+            for (int c : cols) sb.append(sb.length() == 0 ? "" : "+").append(FixedRecordSize.COLUMN_NAMES[c]);
+            name = sb.toString();
+        }
+
         // No reset
-        try (FileManager fm = new FileManager("db.data", false)) {
+        try (FileManager fm = new FileManager(db, false, frames, wal)) {
+            if (writerMillis > 0) fm.startWriter(writerMillis, checkpointMillis);
+            if (drop != null) {
+                System.out.println(BulkLoader.drop(fm, drop) ? "Dropped index " + drop : "No index " + drop);
+                System.out.println("Indexes: " + Superblock.read(fm).indexes);
+                return;
+            }
             HeapFile heap = new HeapFile(fm);
+            KeyDescriptor key = KeyDescriptor.of(cols, include, postings);
+            BulkLoader.Fill fill = new BulkLoader.Fill(leafFill, internalFill);
 
-            BulkLoader.Stats s = BulkLoader.build(fm, heap);
+            BulkLoader.Stats s = threads > 0
+                    ? BulkLoader.buildParallel(fm, heap, name, key, threads, fill)
+                    : BulkLoader.build(fm, heap, name, key, runEntries, fill);
 
-            int n = PageLayout.internalCapacity() + 1;     // n = max children per internal node
+            int n = PageLayout.internalCapacity(key.width) + 1;     // n = max children per internal node
             int totalNodes = s.leafCount + s.internalCount;
 
-            System.out.println("Parameter n of the B+ tree: " + n);
+            System.out.println("Index " + name + " on " + key);
+            System.out.println("Parameter n of the B+ tree: " + n + " (full-width separators, " + FileManager.PAGE_SIZE + "-byte pages)");
+            System.out.printf("Separator bytes stored per key: %.2f of %d; fill factor: %s%n", s.separatorBytes, key.width, fill);
+            if (include.length > 0 || key.isComposite())
+                System.out.println("Leaf entries: " + PageLayout.leafEntryBytes(key.width, key.include.length) + " bytes, "
+                        + PageLayout.leafCapacity(key.width, key.include.length) + " per leaf");
             System.out.println("Number of nodes of the B+ tree: " + totalNodes);
+            if (postings) System.out.println("Overflow posting pages: " + s.postingCount);
             System.out.println("Number of levels of the B+ tree: " + s.height);
-            System.out.println("Content of the root node (only the keys): " + Arrays.toString(s.rootKeys));
+            System.out.println("Content of the root node (only the keys): " + key.formatSeparators(s.rootKeys));
+            System.out.println("Indexes: " + Superblock.read(fm).indexes);
+            if (fm.pool() != null) System.out.println("Buffer pool: " + fm.pool());
+            if (fm.writer() != null) System.out.println("Page writer: " + fm.writer());
+            if (fm.wal() != null) System.out.println("Write-ahead log: " + fm.wal());
         }
     }
-}
-
 
+    private static int[] columns(String list) {
+        if (list.isEmpty()) return new int[0];
+        String[] names = list.split(",");
+        int[] cols = new int[names.length];
+        for (int i = 0; i < names.length; i++) cols[i] = FixedRecordSize.columnOf(names[i].trim());
+        return cols;
+    }
+}
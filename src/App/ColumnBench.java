@@ -0,0 +1,116 @@
+package App;
+
+import IO.FileManager;
+import Util.FixedRecordSize;
+import storage.HeapCursor;
+import storage.HeapFile;
+import storage.Superblock;
+
+import java.io.File;
+
+// Column-sum throughput, row pages vs. PAX pages: the same scaled copy of the heap is
+// written once per layout, then each layout is scanned summing 1, 2, 3 and all 9 columns,
+// record at a time through the cursor and page at a time through readInt/FloatColumn.
+// Reports rows/sec, MB/sec of column data summed and heap pages read.
+public class ColumnBench {
+
+    private static final int[][] COLUMN_SETS = {
+            {FixedRecordSize.COL_PTS_HOME},
+            {FixedRecordSize.COL_PTS_HOME, FixedRecordSize.COL_FG_PCT_HOME},
+            {FixedRecordSize.COL_PTS_HOME, FixedRecordSize.COL_FG_PCT_HOME, FixedRecordSize.COL_HOME_TEAM_WINS},
+            {0, 1, 2, 3, 4, 5, 6, 7, 8},
+    };
+
+    private static void copy(String src, String db, int scale, HeapFile.Layout layout) throws Exception {
+        byte[] rec = new byte[FixedRecordSize.RECORD_SIZE];
+        try (FileManager in = new FileManager(src);
+             FileManager out = new FileManager(db, true)) {
+            HeapFile.createTable(out, layout);
+            HeapFile heap = new HeapFile(in);
+            try (HeapFile.Appender app = new HeapFile.Appender(out)) {
+                for (int k = 0; k < scale; k++) {
+                    HeapCursor c = heap.cursor();
+                    while (c.next()) {
+                        c.copyRecord(rec, 0);
+                        app.addEncoded(rec, 0);
+                    }
+                }
+            }
+        }
+    }
+
+    // Record at a time: the cursor reads each requested column of each record
+    private static double sumRecords(HeapFile heap, int[] cols) throws Exception {
+        double sum = 0;
+        HeapCursor c = heap.cursor();
+        while (c.next()) {
+            for (int col : cols) sum += FixedRecordSize.isFloat(col) ? c.getFloat(col) : c.getInt(col);
+        }
+        return sum;
+    }
+
+    // Page at a time: each requested column of a page is pulled into an array, then summed
+    private static double sumPages(HeapFile heap, int[] cols) throws Exception {
+        int[] ints = new int[HeapFile.MAX_RECORDS_PER_PAGE];
+        float[] floats = new float[HeapFile.MAX_RECORDS_PER_PAGE];
+        double sum = 0;
+        HeapCursor c = heap.cursor();
+        while (c.nextPage()) {
+            for (int col : cols) {
+                if (FixedRecordSize.isFloat(col)) {
+                    int n = HeapFile.readFloatColumn(c.page(), col, floats);
+                    for (int i = 0; i < n; i++) sum += floats[i];
+                } else {
+                    int n = HeapFile.readIntColumn(c.page(), col, ints);
+                    long s = 0;
+                    for (int i = 0; i < n; i++) s += ints[i];
+                    sum += s;
+                }
+            }
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String src = "db.data";
+        int scale = 100;
+        boolean keep = false;
+
+        // Optional args: [--src=path] [--scale=N] [--keep]
+        for (String a : args) {
+            if (a.startsWith("--src=")) src = a.substring(6);
+            else if (a.startsWith("--scale=")) scale = Integer.parseInt(a.substring(8));
+            else if (a.equals("--keep")) keep = true;
+        }
+
+        for (HeapFile.Layout layout : HeapFile.Layout.values()) {
+            String db = "col-" + layout.name().toLowerCase() + ".data";
+            if (!keep || !new File(db).exists()) copy(src, db, scale, layout);
+
+            try (FileManager fm = new FileManager(db, false, 0)) {   // no pool: readahead goes to the channel
+                HeapFile heap = new HeapFile(fm);
+                Superblock sb = Superblock.read(fm);
+                System.out.printf("%s: %d records, %d per page, file %d pages%n",
+                        layout, sb.recordCount, layout.recordsPerPage, fm.pageCount());
+
+                for (int[] cols : COLUMN_SETS) {
+                    for (boolean batch : new boolean[]{false, true}) {
+                        double sum = 0;
+                        long rows = 0, reads0 = 0, nanos = Long.MAX_VALUE;
+                        for (int round = 0; round < 5; round++) {     // best of 5, the first ones warm up
+                            long t0 = System.nanoTime();
+                            reads0 = fm.physicalReads();
+                            sum = batch ? sumPages(heap, cols) : sumRecords(heap, cols);
+                            rows = sb.recordCount;
+                            nanos = Math.min(nanos, System.nanoTime() - t0);
+                        }
+                        double secs = nanos / 1e9;
+                        System.out.printf("  %d column(s), %-7s %7.1f ms | %6.1f M rows/s | %7.1f MB/s | pages read %d | sum %.1f%n",
+                                cols.length, batch ? "pages:" : "cursor:", nanos / 1e6, rows / secs / 1e6,
+                                rows * cols.length * 4 / secs / 1e6, fm.physicalReads() - reads0, sum);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package App;
+
+import Bplustree.BPlusTree;
+import Bplustree.BulkLoader;
+import Bplustree.KeyDescriptor;
+import IO.FileManager;
+import Util.FixedRecordSize;
+import storage.HeapCursor;
+import storage.HeapFile;
+import storage.Superblock;
+
+// "Games of team X between dates A and B: PTS_home and HOME_TEAM_WINS", three ways:
+// full heap scan, composite (TEAM_ID_home, GAME_DATE_EST) index + heap fetch, and an
+// index-only scan of the same index, whose leaves also carry PTS_home and HOME_TEAM_WINS.
+// The index is (re)built on first use.
+public class CoveringQuery {
+    static final String INDEX = "team_date";
+
+    private static void print(String label, int hits, long pts, int wins, String stats) {
+        System.out.printf("  %-11s games=%d, avg PTS_home=%.2f, wins=%d | %s%n", label, hits,
+                hits == 0 ? 0 : (double) pts / hits, wins, stats);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String db = "db.data";
+        String team = "1610612747", from = "2010-01-01", to = "2012-12-31";
+        boolean rebuild = false;
+
+        // Optional args: [--db=path] [--team=id] [--from=date] [--to=date] [--rebuild]
+        for (String a : args) {
+            if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.startsWith("--team=")) team = a.substring(7);
+            else if (a.startsWith("--from=")) from = a.substring(7);
+            else if (a.startsWith("--to=")) to = a.substring(5);
+            else if (a.equals("--rebuild")) rebuild = true;
+        }
+        int teamId = Integer.parseInt(team);
+        int lo = FixedRecordSize.parseDateToInt(from), hi = FixedRecordSize.parseDateToInt(to);
+
+        try (FileManager fm = new FileManager(db, false)) {
+            HeapFile heap = new HeapFile(fm);
+            KeyDescriptor key = KeyDescriptor.of(
+                    new int[]{FixedRecordSize.COL_TEAM_ID_HOME, FixedRecordSize.COL_GAME_DATE},
+                    new int[]{FixedRecordSize.COL_PTS_HOME, FixedRecordSize.COL_HOME_TEAM_WINS});
+            Superblock sb = Superblock.read(fm);
+            Superblock.IndexMeta m = sb.index(INDEX);
+            if (rebuild || m == null || sb.isStale(m)) {
+                long t0 = System.nanoTime();
+                BulkLoader.Stats s = BulkLoader.build(fm, heap, INDEX, key, BulkLoader.DEFAULT_RUN_ENTRIES);
+                System.out.printf("Built %s on %s in %.3f ms (%d leaves, %d internal)%n", INDEX, key,
+                        (System.nanoTime() - t0) / 1e6, s.leafCount, s.internalCount);
+            }
+            BPlusTree tree = BPlusTree.open(fm, INDEX);
+            int pts = tree.key().includeIndex(FixedRecordSize.COL_PTS_HOME);
+            int wins = tree.key().includeIndex(FixedRecordSize.COL_HOME_TEAM_WINS);
+            if (pts < 0 || wins < 0) throw new IllegalStateException("Index " + INDEX + " does not cover the query: " + tree.key());
+            long kLo = tree.key().compose(teamId, lo), kHi = tree.key().compose(teamId, hi);
+
+            System.out.println("TEAM_ID_home = " + teamId + ", GAME_DATE_EST in [" + from + ", " + to + "]");
+            for (int round = 0; round < 2; round++) {         // second round: JIT warm, pages cached
+                // 1) full scan
+                long t0 = System.nanoTime();
+                int hits = 0, w = 0;
+                long sum = 0;
+                HeapCursor c = heap.cursor();
+                while (c.next()) {
+                    int d = c.getInt(FixedRecordSize.COL_GAME_DATE);
+                    if (c.getInt(FixedRecordSize.COL_TEAM_ID_HOME) != teamId || d < lo || d > hi) continue;
+                    hits++;
+                    sum += c.getInt(FixedRecordSize.COL_PTS_HOME);
+                    w += c.getInt(FixedRecordSize.COL_HOME_TEAM_WINS);
+                }
+                print("Full scan:", hits, sum, w,
+                        String.format("heap pages=%d, time=%.3f ms", c.pagesRead(), (System.nanoTime() - t0) / 1e6));
+
+                // 2) index + heap fetch
+                int[] n = {0, 0};
+                long[] s = {0};
+                BPlusTree.QueryStats st = tree.rangeScan(kLo, kHi, (rec, rid) -> {
+                    n[0]++;
+                    s[0] += rec.getPtsHome();
+                    n[1] += rec.getHomeTeamWins();
+                });
+                print("Index:", n[0], s[0], n[1], st.toString());
+
+                // 3) index only
+                int[] n2 = {0, 0};
+                long[] s2 = {0};
+                BPlusTree.QueryStats st2 = tree.scanEntries(kLo, kHi, (k, inc) -> {
+                    n2[0]++;
+                    s2[0] += inc[pts];
+                    n2[1] += inc[wins];
+                });
+                print("Index-only:", n2[0], s2[0], n2[1], st2.toString());
+                System.out.println("  Heap page fetches avoided: " + (st.heapPages - st2.heapPages));
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package App;
+
+import Bplustree.BPlusTree;
+import Bplustree.BulkLoader;
+import IO.FileManager;
+import storage.HeapFile;
+import storage.Superblock;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Delete every game with FT_PCT_home below a threshold through the index + heap, and
+// compare the pages touched with what a full index rebuild costs afterwards.
+public class DeleteGames {
+    public static void main(String[] args) throws Exception {
+        String db = "db.data";
+        float below = 0.5f;
+        boolean wal = false;
+
+        // Optional args: [--db=path] [--below=x] [--wal]
+        for (String a : args) {
+            if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.startsWith("--below=")) below = Float.parseFloat(a.substring(8));
+            else if (a.equals("--wal")) wal = true;
+        }
+
+        try (FileManager fm = new FileManager(db, false, FileManager.DEFAULT_POOL_FRAMES, wal)) {
+            HeapFile heap = new HeapFile(fm);
+            BPlusTree tree = BPlusTree.open(fm);
+            List<BPlusTree> others = BPlusTree.openAll(fm);          // kept in step with the heap too
+            others.removeIf(t -> t.name().equals(tree.name()));
+            Superblock before = Superblock.read(fm);
+            System.out.println("Before: " + before);
+
+            // 1) incremental delete
+            fm.flush();
+            long r0 = fm.physicalReads(), w0 = fm.physicalWrites();
+            long t0 = System.nanoTime();
+
+            BPlusTree.Result victims = tree.rangeScan(Long.MIN_VALUE, tree.key().ofFloat(below) - 1);
+            Set<Integer> heapPages = new HashSet<>();
+            int deleted = 0;
+            for (var rw : victims.records) {
+                if (!heap.delete(rw.rid)) continue;
+                if (!tree.delete(rw.rec, rw.rid))
+                    throw new IllegalStateException("Index entry missing for " + rw.rid);
+                for (BPlusTree t : others) {
+                    if (!t.delete(rw.rec, rw.rid))
+                        throw new IllegalStateException("Index " + t.name() + " entry missing for " + rw.rid);
+                }
+                heapPages.add(rw.rid.pageId);
+                deleted++;
+            }
+            fm.commit();   // heap and index deletes are durable together
+            long nanos = System.nanoTime() - t0;
+
+            Superblock after = Superblock.read(fm);
+            System.out.println("After:  " + after);
+            System.out.printf("Delete FT_PCT_home < %s: %d rows in %.3f ms%n", below, deleted, nanos / 1e6);
+            System.out.printf("  index: lookup %s, maintenance reads=%d writes=%d%n",
+                    victims.stats, tree.pageReads(), tree.pageWrites());
+            for (BPlusTree t : others)
+                System.out.printf("  index %s: maintenance reads=%d writes=%d%n", t.name(), t.pageReads(), t.pageWrites());
+            System.out.printf("  heap pages updated=%d | physical I/O reads=%d writes=%d%n",
+                    heapPages.size(), fm.physicalReads() - r0, fm.physicalWrites() - w0);
+
+            // 2) what a rebuild of the same final state costs
+            r0 = fm.physicalReads(); w0 = fm.physicalWrites();
+            t0 = System.nanoTime();
+            BulkLoader.Stats s = BulkLoader.build(fm, heap);
+            fm.flush();
+            nanos = System.nanoTime() - t0;
+            System.out.printf("Rebuild instead: %.3f ms, heap pages scanned=%d, index pages written=%d | physical I/O reads=%d writes=%d%n",
+                    nanos / 1e6, after.heapLastPid - after.heapFirstPid + 1, s.leafCount + s.internalCount,
+                    fm.physicalReads() - r0, fm.physicalWrites() - w0);
+            if (fm.wal() != null) System.out.println("Write-ahead log: " + fm.wal());
+        }
+    }
+}
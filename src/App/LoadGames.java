@@ -1,7 +1,12 @@
 package App;
 
+import Bplustree.BPlusTree;
 import IO.FileManager;
+import storage.CsvIngest;
+import storage.FreeSpaceMap;
 import storage.HeapFile;
+import storage.Superblock;
+import storage.ZoneMap;
 import storage.HeapFile.RecordId;
 import model.GameRecord;
 
@@ -9,6 +14,7 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class LoadGames {
@@ -34,19 +40,72 @@ public class LoadGames {
         String csv = "games.txt";
         String db  = "db.data";
         boolean reset = true;   // reset every run by default
-
-        // Optional args: [csv] [--db=path] [--keep]
+        int frames = FileManager.DEFAULT_POOL_FRAMES;
+        int threads = 0;        // > 0 = parallel mmap loader
+        HeapFile.Layout layout = null;   // new tables default to ROW
+        boolean wal = false;    // page writes go through the write-ahead log
+        long writerMillis = 0, checkpointMillis = 1000;   // > 0 = background page writer
+
+        // Optional args: [csv] [--db=path] [--keep] [--frames=N] [--threads=N] [--layout=row|pax|packed] [--wal]
+        //                [--writer=ms] [--checkpoint-every=ms]
         for (String a : args) {
             if (a.equals("--keep")) reset = false;            // keep existing file if passed
             else if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.startsWith("--frames=")) frames = Integer.parseInt(a.substring(9));
+            else if (a.startsWith("--threads=")) threads = Integer.parseInt(a.substring(10));
+            else if (a.startsWith("--layout=")) layout = HeapFile.Layout.valueOf(a.substring(9).toUpperCase());
+            else if (a.equals("--wal")) wal = true;
+            else if (a.startsWith("--writer=")) writerMillis = Long.parseLong(a.substring(9));
+            else if (a.startsWith("--checkpoint-every=")) checkpointMillis = Long.parseLong(a.substring(19));
             else csv = a;                                     // positional arg = CSV path
         }
 
         System.out.println("Working dir = " + System.getProperty("user.dir"));
         System.out.println("DB = " + db + " | reset = " + reset + " | csv = " + csv);
 
-        try (FileManager fm = new FileManager(db, reset);
-             HeapFile.Appender app = new HeapFile.Appender(fm);
+        try (FileManager fm = new FileManager(db, reset, frames, wal)) {
+            if (writerMillis > 0) fm.startWriter(writerMillis, checkpointMillis);
+            if (layout != null) HeapFile.createTable(fm, layout);   // only on an empty table
+
+            // with --keep, up-to-date indexes are maintained incrementally instead of rebuilt
+            List<BPlusTree> indexes = BPlusTree.openAll(fm);
+
+            long t0 = System.nanoTime();
+            long count = threads > 0
+                    ? CsvIngest.load(fm, csv, threads, indexes.isEmpty() ? null : (rec, off, page, slot) -> {
+                        for (BPlusTree t : indexes) t.insert(rec, off, new RecordId(page, slot));
+                    })
+                    : loadLines(fm, csv, indexes);
+            double secs = (System.nanoTime() - t0) / 1e9;
+
+            // Task 1 stats
+            long totalPages = fm.pageCount();
+            Superblock end = Superblock.read(fm);
+            int recordsPerBlock = end.heapLayout.recordsPerPage;
+            long dataPages = Math.max(0, totalPages - 1 - end.indexPageCount()            // exclude superblock + indexes
+                    - FreeSpaceMap.pageCount(fm) - ZoneMap.pageCount(fm));                // + free-space and zone maps
+            System.out.println("Loaded records: " + count);
+            System.out.printf("Load time: %.3f s (%.0f rows/sec, %s)%n", secs, count / secs,
+                    threads > 0 ? "mmap, " + threads + " threads" : "BufferedReader");
+            System.out.println("Record size: " + Util.FixedRecordSize.RECORD_SIZE + " bytes");
+            System.out.println("Records per block: " + (end.heapLayout == HeapFile.Layout.PACKED ? "up to " : "")
+                    + recordsPerBlock + " (" + end.heapLayout + " pages)");
+            System.out.println("Blocks used (data pages): " + dataPages);
+            for (BPlusTree t : indexes) {
+                System.out.println("Index " + t.name() + " maintained: " + count + " inserts, " + t.pageWrites()
+                        + " node page writes (a rebuild writes all " + end.index(t.name()).pageCount() + ")");
+            }
+            fm.flush();
+            System.out.println("Physical page I/O: reads=" + fm.physicalReads() + ", writes=" + fm.physicalWrites());
+            if (fm.pool() != null) System.out.println("Buffer pool: " + fm.pool());
+            if (fm.writer() != null) System.out.println("Page writer: " + fm.writer());
+            if (fm.wal() != null) System.out.println("Write-ahead log: " + fm.wal());
+        }
+    }
+
+    // Original loader: BufferedReader + split + GameRecord per row
+    private static long loadLines(FileManager fm, String csv, List<BPlusTree> indexes) throws Exception {
+        try (HeapFile.Appender app = new HeapFile.Appender(fm);
              BufferedReader br = new BufferedReader(new FileReader(csv))) {
 
             // header
@@ -98,6 +157,7 @@ public class LoadGames {
                             ftPctHome, fg3PctHome, astHome, rebHome, homeWins
                     );
                     RecordId rid = app.add(r); // buffered: one write per page
+                    for (BPlusTree index : indexes) index.insert(r, rid);
                     count++;
 
                 } catch (Exception ex) {
@@ -106,16 +166,7 @@ public class LoadGames {
                     throw ex; // change to 'continue;' if you prefer to skip bad lines
                 }
             }
-
-            // Task 1 stats
-            int recordsPerBlock = (FileManager.PAGE_SIZE - HeapFile.HEADER_BYTES) / Util.FixedRecordSize.RECORD_SIZE;
-            long totalPages = fm.pageCount();
-            long dataPages = Math.max(0, totalPages - 1); // exclude superblock
-            System.out.println("Loaded records: " + count);
-            System.out.println("Record size: " + Util.FixedRecordSize.RECORD_SIZE + " bytes");
-            System.out.println("Records per block: " + recordsPerBlock);
-            System.out.println("Blocks used (data pages): " + dataPages);
+            return count;
         }
     }
 }
-
@@ -0,0 +1,145 @@
+package App;
+
+import Bplustree.BPlusTree;
+import IO.FileManager;
+import storage.HeapFile;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Point lookups (BPlusTree.searchRids) on one index from 1..N threads sharing a tree, once per
+// FileManager mode: readers take no latch, so throughput should grow with threads up to the
+// cores there are. --writers=N adds threads that keep inserting and deleting entries (on a
+// copy of the file) to show what concurrent writers cost the readers. Run BulkBuild first.
+public class LookupBench {
+
+    public static void main(String[] args) throws Exception {
+        String db = "db.data";
+        String index = BPlusTree.DEFAULT_INDEX;
+        int lookups = 200_000;   // per thread
+        int writers = 0;
+        int[] threadCounts = {1, 2, 4, 8};
+
+        // Optional args: [--db=path] [--index=name] [--lookups=N] [--writers=N] [--threads=1,4,16]
+        for (String a : args) {
+            if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.startsWith("--index=")) index = a.substring(8);
+            else if (a.startsWith("--lookups=")) lookups = Integer.parseInt(a.substring(10));
+            else if (a.startsWith("--writers=")) writers = Integer.parseInt(a.substring(10));
+            else if (a.startsWith("--threads=")) {
+                String[] parts = a.substring(10).split(",");
+                threadCounts = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) threadCounts[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+
+        // writers change the index, so they get a scratch copy
+        String file = db;
+        if (writers > 0) {
+            file = "lookup_bench.data";
+            Files.copy(new File(db).toPath(), new File(file).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // the keys to look up: every entry's key, so frequent keys come up as often as they occur
+        long[] keys;
+        try (FileManager fm = new FileManager(file)) {
+            BPlusTree tree = BPlusTree.open(fm, index);
+            long[][] buf = {new long[1024]};
+            int[] n = {0};
+            tree.scanEntries(Long.MIN_VALUE, Long.MAX_VALUE, (k, inc) -> {
+                if (n[0] == buf[0].length) buf[0] = Arrays.copyOf(buf[0], n[0] * 2);
+                buf[0][n[0]++] = k;
+            });
+            keys = Arrays.copyOf(buf[0], n[0]);
+        }
+        System.out.printf("Index %s: %d entries | %d lookups per thread | %d writer(s) | %d core(s)%n",
+                index, keys.length, lookups, writers, Runtime.getRuntime().availableProcessors());
+
+        for (FileManager.Mode mode : FileManager.Mode.values()) {
+            System.out.println(mode + ":");
+            try (FileManager fm = FileManager.open(file, false, mode)) {
+                BPlusTree tree = BPlusTree.open(fm, index);
+                run(fm, tree, keys, 1, lookups / 4, 0, false);   // warm-up (JIT + page cache)
+                double base = 0;
+                for (int threads : threadCounts) {
+                    double rate = run(fm, tree, keys, threads, lookups, writers, true);
+                    if (base == 0) base = rate;
+                    System.out.printf("    -> %.2fx the first row%n", rate / base);
+                }
+            }
+        }
+        if (writers > 0) new File(file).delete();
+    }
+
+    // Returns lookups per second over all reader threads
+    private static double run(FileManager fm, BPlusTree tree, long[] keys, int threads, int lookups, int writers, boolean report) throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        Exception[] failed = {null};
+        long[] found = new long[threads];
+        long[] writes = new long[writers];
+        List<Thread> readers = new ArrayList<>(), writing = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            readers.add(new Thread(() -> {
+                Random rnd = new Random(id);
+                BPlusTree.QueryStats st = new BPlusTree.QueryStats();
+                try {
+                    for (int i = 0; i < lookups; i++) {
+                        long k = keys[rnd.nextInt(keys.length)];
+                        found[id] += tree.searchRids(k, k, st).size();
+                    }
+                } catch (Exception e) {
+                    synchronized (failed) { failed[0] = e; }
+                }
+            }));
+        }
+        // each writer adds an entry under an existing key, with a RID past the end of the file
+        // (lookups never fetch it), and takes it out again
+        int firstFake = (int) fm.pageCount();
+        for (int w = 0; w < writers; w++) {
+            final int id = w;
+            writing.add(new Thread(() -> {
+                Random rnd = new Random(1000 + id);
+                try {
+                    for (int i = 0; !stop.get(); i++) {
+                        long k = keys[rnd.nextInt(keys.length)];
+                        HeapFile.RecordId rid = new HeapFile.RecordId(firstFake + id, i & 63);
+                        tree.insert(k, new int[tree.key().include.length], rid);
+                        if (!tree.delete(k, rid)) throw new IllegalStateException("Entry just inserted is gone");
+                        writes[id] += 2;
+                    }
+                } catch (Exception e) {
+                    synchronized (failed) { failed[0] = e; }
+                }
+            }));
+        }
+        long t0 = System.nanoTime();
+        for (Thread th : writing) th.start();
+        for (Thread th : readers) th.start();
+        for (Thread th : readers) th.join();
+        double secs = (System.nanoTime() - t0) / 1e9;
+        stop.set(true);
+        for (Thread th : writing) th.join();
+        if (failed[0] != null) throw failed[0];
+
+        long total = (long) threads * lookups, rids = 0, w = 0;
+        for (long f : found) rids += f;
+        for (long x : writes) w += x;
+        double rate = total / secs;
+        if (!report) return rate;
+        if (writers == 0) {
+            System.out.printf("  threads=%2d: %8d lookups in %.3f s = %10.0f lookups/s (%.1f RIDs each)%n",
+                    threads, total, secs, rate, (double) rids / total);
+        } else {
+            System.out.printf("  threads=%2d: %8d lookups in %.3f s = %10.0f lookups/s (%.1f RIDs each), %.0f index writes/s%n",
+                    threads, total, secs, rate, (double) rids / total, w / secs);
+        }
+        return rate;
+    }
+}
@@ -0,0 +1,119 @@
+package App;
+
+import IO.FileManager;
+import Util.FixedRecordSize;
+import storage.HeapCursor;
+import storage.HeapFile;
+import storage.Superblock;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+// Random record lookups against the games heap scaled up N times, once per FileManager mode.
+// Run LoadGames first (it produces the source db.data).
+public class MmapBench {
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+        return n;
+    }
+    private static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionTime());
+        return n;
+    }
+    private static long allocatedBytes() {
+        var mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws Exception {
+        String src = "db.data";
+        String db = "bench.data";
+        int scale = 100;
+        int lookups = 1_000_000;
+        boolean keep = false;
+
+        // Optional args: [--src=path] [--db=path] [--scale=N] [--lookups=N] [--keep]
+        for (String a : args) {
+            if (a.startsWith("--src=")) src = a.substring(6);
+            else if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.startsWith("--scale=")) scale = Integer.parseInt(a.substring(8));
+            else if (a.startsWith("--lookups=")) lookups = Integer.parseInt(a.substring(10));
+            else if (a.equals("--keep")) keep = true;
+        }
+
+        // 1) scaled copy of the heap
+        long records;
+        if (!keep || !new File(db).exists()) {
+            records = 0;
+            byte[] rec = new byte[FixedRecordSize.RECORD_SIZE];
+            try (FileManager in = new FileManager(src);
+                 FileManager out = new FileManager(db, true);
+                 HeapFile.Appender app = new HeapFile.Appender(out)) {
+                HeapFile heap = new HeapFile(in);
+                for (int k = 0; k < scale; k++) {
+                    HeapCursor c = heap.cursor();
+                    while (c.next()) {
+                        c.copyRecord(rec, 0);
+                        app.addEncoded(rec, 0);
+                        records++;
+                    }
+                }
+            }
+        } else {
+            try (FileManager fm = new FileManager(db)) {
+                records = Superblock.read(fm).recordCount;
+            }
+        }
+        int rpb;
+        int[] heapPages;                 // record r lives on heapPages[r / rpb] (the copy is dense)
+        try (FileManager fm = new FileManager(db)) {
+            Superblock sb = Superblock.read(fm);
+            rpb = sb.heapLayout.recordsPerPage;
+            int[] pids = new int[sb.heapLastPid - sb.heapFirstPid + 1];
+            int n = 0;
+            for (int pid = sb.heapFirstPid; pid <= sb.heapLastPid; pid++) {
+                if (HeapFile.isHeapPage(fm.readPage(pid))) pids[n++] = pid;
+            }
+            heapPages = Arrays.copyOf(pids, n);
+        }
+        System.out.println("Records: " + records + " | heap pages: " + heapPages.length + " | lookups: " + lookups);
+
+        // 2) same random RID sequence per mode
+        for (FileManager.Mode mode : FileManager.Mode.values()) {
+            try (FileManager fm = FileManager.open(db, false, mode)) {
+                run(fm, heapPages, records, rpb, lookups / 10, null);   // warm-up (JIT + page cache)
+                if (fm.pool() != null) fm.pool().resetStats();
+                run(fm, heapPages, records, rpb, lookups, mode);
+                if (fm.pool() != null) System.out.println("    pool: " + fm.pool());
+            }
+        }
+    }
+
+    private static void run(FileManager fm, int[] heapPages, long records, int rpb, int lookups, FileManager.Mode label) throws Exception {
+        Random rnd = new Random(42);
+        long gc0 = gcCount(), gcMs0 = gcMillis(), alloc0 = allocatedBytes();
+        long t0 = System.nanoTime();
+
+        double sum = 0;
+        for (int i = 0; i < lookups; i++) {
+            long r = (long) (rnd.nextDouble() * records);
+            int pid = heapPages[(int) (r / rpb)];
+            int slot = (int) (r % rpb);
+            ByteBuffer page = fm.readPage(pid);
+            sum += page.getFloat(HeapFile.recordOffset(page, slot) + FixedRecordSize.COL_FT_PCT_HOME * HeapFile.columnStride(page));
+        }
+
+        long nanos = System.nanoTime() - t0;
+        if (label == null) return;
+        System.out.printf("%-10s %8.1f ns/lookup | GCs %d (%d ms) | allocated %.1f MB | checksum %.1f%n",
+                label, (double) nanos / lookups, gcCount() - gc0, gcMillis() - gcMs0,
+                (allocatedBytes() - alloc0) / 1e6, sum);
+    }
+}
@@ -0,0 +1,84 @@
+package App;
+
+import Bplustree.BPlusTree;
+import Bplustree.BulkLoader;
+import IO.FileManager;
+import Util.FixedRecordSize;
+import model.GameRecordView;
+import storage.HeapCursor;
+import storage.HeapFile;
+import storage.Superblock;
+
+// Point / range queries on FT_PCT_HOME through a B+ tree vs. a full heap scan. --index picks
+// another index on the column, e.g. a postings one (BulkBuild --postings --name=...).
+public class QueryIndex {
+
+    private static void report(String label, int count, double sumFg3, String io) {
+        System.out.printf("  %-11s records=%d, avg FG3_PCT_home=%.4f | %s%n", label, count, count == 0 ? 0 : sumFg3 / count, io);
+    }
+
+    private static void query(BPlusTree tree, HeapFile heap, long heapPages, float lo, float hi) throws Exception {
+        System.out.println("FT_PCT_home in [" + lo + ", " + hi + "]");
+
+        // zero-copy lookup: matches are read through a view, no GameRecord per row
+        int[] matches = {0};
+        double[] fg3 = {0};
+        BPlusTree.QueryStats st = tree.rangeScan(tree.key().ofFloat(lo), tree.key().ofFloat(hi), (rec, rid) -> {
+            matches[0]++;
+            fg3[0] += rec.getFg3PctHome();
+        });
+        report("B+ tree:", matches[0], fg3[0], st.toString());
+
+        // streaming scan: nothing materialized, one readahead buffer
+        long t0 = System.nanoTime();
+        int hits = 0;
+        double sum = 0;
+        HeapCursor c = heap.cursor();
+        while (c.next()) {
+            GameRecordView rec = c.view();
+            float k = rec.getFtPctHome();
+            if (k >= lo && k <= hi) {
+                hits++;
+                sum += rec.getFg3PctHome();
+            }
+        }
+        long nanos = System.nanoTime() - t0;
+        report("Full scan:", hits, sum, String.format("heap pages=%d, time=%.3f ms", heapPages, nanos / 1e6));
+    }
+
+    public static void main(String[] args) throws Exception {
+        String db = "db.data";
+        float lo = 0.6f, hi = 0.9f, point = 0.5f;
+        boolean rebuild = false;
+        String index = BPlusTree.DEFAULT_INDEX;
+
+        // Optional args: [--db=path] [--lo=x] [--hi=y] [--key=k] [--rebuild] [--index=name]
+        for (String a : args) {
+            if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.equals("--rebuild")) rebuild = true;
+            else if (a.startsWith("--lo=")) lo = Float.parseFloat(a.substring(5));
+            else if (a.startsWith("--hi=")) hi = Float.parseFloat(a.substring(5));
+            else if (a.startsWith("--key=")) point = Float.parseFloat(a.substring(6));
+            else if (a.startsWith("--index=")) index = a.substring(8);
+        }
+
+        try (FileManager fm = new FileManager(db, false)) {
+            HeapFile heap = new HeapFile(fm);
+            long t0 = System.nanoTime();
+            Superblock sb = Superblock.read(fm);
+            if (rebuild || sb.index(BPlusTree.DEFAULT_INDEX) == null) {
+                BulkLoader.build(fm, heap);
+                sb = Superblock.read(fm);
+            }
+            BPlusTree tree = BPlusTree.open(fm, index);
+            if (tree.key().isComposite() || tree.key().columns[0] != FixedRecordSize.COL_FT_PCT_HOME)
+                throw new IllegalArgumentException("Index " + index + " is not on FT_PCT_home: " + tree.key());
+            System.out.printf("Opened index in %.3f ms: %s%n", (System.nanoTime() - t0) / 1e6, sb);
+            long heapPages = sb.heapLastPid - sb.heapFirstPid + 1;
+
+            query(tree, heap, heapPages, point, point);
+            query(tree, heap, heapPages, lo, hi);
+            query(tree, heap, heapPages, 0.9f, 0.91f);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package App;
+
+import Bplustree.BPlusTree;
+import IO.FileManager;
+import Util.FixedRecordSize;
+import storage.HeapCursor;
+import storage.HeapFile;
+import storage.Superblock;
+import storage.ZoneMap;
+
+// Range predicate on any column: full heap scan vs. a scan pruned by the zone map vs. a
+// B+ tree on the column, if one is up to date (BulkBuild --col=NAME builds it).
+// Dates are given as yyyy-mm-dd (or any form LoadGames accepts).
+public class RangeScan {
+
+    private static double bound(int col, String s) {
+        return col == FixedRecordSize.COL_GAME_DATE ? FixedRecordSize.parseDateToInt(s) : Double.parseDouble(s);
+    }
+
+    private static void scan(String label, HeapCursor c, int col, double lo, double hi) throws Exception {
+        long t0 = System.nanoTime();
+        int hits = 0;
+        double sumPts = 0;
+        while (c.next()) {
+            double v = FixedRecordSize.isFloat(col) ? c.getFloat(col) : c.getInt(col);
+            if (v >= lo && v <= hi) {
+                hits++;
+                sumPts += c.getInt(FixedRecordSize.COL_PTS_HOME);
+            }
+        }
+        System.out.printf("  %-11s records=%d, avg PTS_home=%.2f | pages read=%d, time=%.3f ms%n", label, hits,
+                hits == 0 ? 0 : sumPts / hits, c.pagesRead(), (System.nanoTime() - t0) / 1e6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String db = "db.data";
+        String colName = "GAME_DATE_EST", lo = "2010-01-01", hi = "2010-12-31";
+        boolean rebuild = false;
+
+        // Optional args: [--db=path] [--col=NAME] [--lo=x] [--hi=y] [--rebuild-zones]
+        for (String a : args) {
+            if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.startsWith("--col=")) colName = a.substring(6);
+            else if (a.startsWith("--lo=")) lo = a.substring(5);
+            else if (a.startsWith("--hi=")) hi = a.substring(5);
+            else if (a.equals("--rebuild-zones")) rebuild = true;
+        }
+        int col = FixedRecordSize.columnOf(colName);
+        double loV = bound(col, lo), hiV = bound(col, hi);
+
+        try (FileManager fm = new FileManager(db, false)) {
+            HeapFile heap = new HeapFile(fm);
+            if (rebuild || Superblock.read(fm).zoneHead == 0) {
+                long t0 = System.nanoTime();
+                ZoneMap.rebuild(fm);
+                System.out.printf("Zone map built in %.3f ms (%d pages)%n", (System.nanoTime() - t0) / 1e6, ZoneMap.pageCount(fm));
+            }
+
+            Superblock sb = Superblock.read(fm);
+            Superblock.IndexMeta m = sb.indexOn(col);
+            BPlusTree tree = m != null && !sb.isStale(m) ? BPlusTree.open(fm, m.name) : null;
+            if (tree == null) System.out.println("No up-to-date index on " + FixedRecordSize.COLUMN_NAMES[col]);
+
+            System.out.println(FixedRecordSize.COLUMN_NAMES[col] + " in [" + lo + ", " + hi + "]");
+            for (int round = 0; round < 2; round++) {         // second round: JIT warm, pages cached
+                scan("Full scan:", heap.cursor(), col, loV, hiV);
+                scan("Zone map:", heap.cursor(col, loV, hiV), col, loV, hiV);
+                if (tree != null) {
+                    int[] hits = {0};
+                    double[] sumPts = {0};
+                    BPlusTree.QueryStats st = tree.rangeScan(tree.key().parse(lo), tree.key().parse(hi), (rec, rid) -> {
+                        hits[0]++;
+                        sumPts[0] += rec.getPtsHome();
+                    });
+                    System.out.printf("  %-11s records=%d, avg PTS_home=%.2f | %s%n", "Index " + tree.name() + ":",
+                            hits[0], hits[0] == 0 ? 0 : sumPts[0] / hits[0], st);
+                }
+            }
+        }
+    }
+}
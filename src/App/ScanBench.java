@@ -0,0 +1,112 @@
+package App;
+
+import IO.FileManager;
+import Util.FixedRecordSize;
+import storage.HeapCursor;
+import storage.HeapFile;
+
+import model.GameRecord;
+import model.GameRecordView;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+// Full-table aggregate (avg FT_PCT_home) four ways: scanAll's materialized list, the
+// streaming cursor, and sequential / parallel streams. Then a filtered aggregate (avg
+// PTS_home of home wins since 2010) decoding a GameRecord per row vs. reading through the
+// zero-copy GameRecordView. Reports time, bytes allocated by the calling thread, GCs and
+// peak heap. Run MmapBench first for a big bench.data, or pass --db.
+public class ScanBench {
+
+    private static long allocatedBytes() {
+        var mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+        return n;
+    }
+
+    private static long peakHeap() {
+        long n = 0;
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (p.getType() == MemoryType.HEAP && p.getPeakUsage() != null) n += p.getPeakUsage().getUsed();
+        }
+        return n;
+    }
+
+    private static void resetPeak() {
+        System.gc();
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans()) p.resetPeakUsage();
+    }
+
+    private interface Scan { double run() throws Exception; }
+
+    private static void measure(String label, Scan scan) throws Exception {
+        resetPeak();
+        long a0 = allocatedBytes(), g0 = gcCount(), t0 = System.nanoTime();
+        double avg = scan.run();
+        System.out.printf("%-18s %9.1f ms | allocated %8.1f MB | GCs %3d | peak heap %7.1f MB | avg %.5f%n", label,
+                (System.nanoTime() - t0) / 1e6, (allocatedBytes() - a0) / 1e6, gcCount() - g0, peakHeap() / 1e6, avg);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String db = "bench.data";
+        boolean skipList = false;
+
+        // Optional args: [--db=path] [--no-list]
+        for (String a : args) {
+            if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.equals("--no-list")) skipList = true;   // scanAll may not fit the heap
+        }
+
+        try (FileManager fm = new FileManager(db, false, 0)) {  // no pool: readahead goes to the channel
+            HeapFile heap = new HeapFile(fm);
+            int col = FixedRecordSize.COL_FT_PCT_HOME;
+
+            for (int round = 0; round < 2; round++) {     // first round warms up the JIT
+                System.out.println(round == 0 ? "-- warm-up" : "-- measured");
+                if (!skipList) measure("scanAll list", () -> {
+                    double sum = 0;
+                    var all = heap.scanAll();
+                    for (var rw : all) sum += rw.rec.getFtPctHome();
+                    return sum / all.size();
+                });
+                measure("cursor", () -> {
+                    double sum = 0;
+                    long n = 0;
+                    HeapCursor c = heap.cursor();
+                    while (c.next()) { sum += c.getFloat(col); n++; }
+                    return sum / n;
+                });
+                measure("stream", () -> heap.stream(false).mapToDouble(c -> c.getFloat(col)).average().orElse(0));
+                measure("parallel stream", () -> heap.stream(true).mapToDouble(c -> c.getFloat(col)).average().orElse(0));
+
+                measure("GameRecord rows", () -> {
+                    double sum = 0;
+                    long n = 0;
+                    HeapCursor c = heap.cursor();
+                    while (c.next()) {
+                        GameRecord r = c.toRecord();
+                        if (r.getHomeTeamWins() == 1 && r.getGameDate().compareTo("2010-01-01") >= 0) { sum += r.getPtsHome(); n++; }
+                    }
+                    return sum / n;
+                });
+                measure("view rows", () -> {
+                    double sum = 0;
+                    long n = 0;
+                    HeapCursor c = heap.cursor();
+                    while (c.next()) {
+                        GameRecordView r = c.view();
+                        if (r.getHomeTeamWins() == 1 && r.getGameDateInt() >= 20100101) { sum += r.getPtsHome(); n++; }
+                    }
+                    return sum / n;
+                });
+            }
+        }
+    }
+}
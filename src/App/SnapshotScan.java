@@ -0,0 +1,146 @@
+package App;
+
+import IO.FileManager;
+import Util.FixedRecordSize;
+import storage.HeapCursor;
+import storage.HeapFile;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Full-heap scans while an ingest thread keeps appending batches of games (one Appender =
+// one commit per batch), on a copy of the file, once per FileManager mode. Every snapshot
+// scan must see a whole number of batches and the checksum that goes with it; plain cursor
+// scans are run in between to count how often they catch a batch half written. Reports
+// ingest rows/s alone and with the scans running (writers never wait for a scan), and
+// scanned rows/s.
+public class SnapshotScan {
+
+    public static void main(String[] args) throws Exception {
+        String db = "db.data";
+        int batch = 1000;
+        int scanners = 1;
+        double seconds = 3;
+
+        // Optional args: [--db=path] [--batch=N] [--scanners=N] [--seconds=S]
+        for (String a : args) {
+            if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.startsWith("--batch=")) batch = Integer.parseInt(a.substring(8));
+            else if (a.startsWith("--scanners=")) scanners = Integer.parseInt(a.substring(11));
+            else if (a.startsWith("--seconds=")) seconds = Double.parseDouble(a.substring(10));
+        }
+
+        // what the ingest appends: the first batch of records, over and over
+        byte[] payload = new byte[batch * FixedRecordSize.RECORD_SIZE];
+        try (FileManager fm = new FileManager(db)) {
+            HeapCursor c = new HeapFile(fm).cursor();
+            for (int i = 0; i < batch; i++) {
+                if (!c.next()) throw new IllegalStateException(db + " has fewer than " + batch + " records");
+                c.copyRecord(payload, i * FixedRecordSize.RECORD_SIZE);
+            }
+        }
+        long payloadSum = 0;
+        ByteBuffer p = ByteBuffer.wrap(payload);
+        for (int i = 0; i < payload.length; i += 4) payloadSum += p.getInt(i);
+
+        String file = "snapshot_scan.data";
+        System.out.printf("%s: batches of %d | %d scanner(s) | %.1f s per phase | %d core(s)%n",
+                db, batch, scanners, seconds, Runtime.getRuntime().availableProcessors());
+        for (FileManager.Mode mode : FileManager.Mode.values()) {
+            Files.copy(new File(db).toPath(), new File(file).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            System.out.println(mode + ":");
+            try (FileManager fm = FileManager.open(file, false, mode)) {
+                run(fm, payload, payloadSum, batch, scanners, seconds);
+            }
+        }
+        new File(file).delete();
+    }
+
+    private static void run(FileManager fm, byte[] payload, long payloadSum, int batch, int scanners, double seconds) throws Exception {
+        HeapFile heap = new HeapFile(fm);
+        long[] base;
+        try (HeapFile.Snapshot s = heap.snapshot()) {
+            base = scan(s.cursor());
+        }
+
+        double alone = ingest(fm, payload, batch, seconds, new AtomicBoolean());
+        System.out.printf("  ingest alone:      %10.0f rows/s%n", alone);
+        try (HeapFile.Snapshot s = heap.snapshot()) {
+            base = scan(s.cursor());   // the new starting point
+        }
+
+        final long[] start = base;
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong snapshotScans = new AtomicLong(), plainScans = new AtomicLong(), torn = new AtomicLong(), rows = new AtomicLong();
+        Exception[] failed = {null};
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < scanners; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    long seen = start[0];
+                    while (!stop.get()) {
+                        long[] got;
+                        try (HeapFile.Snapshot s = heap.snapshot()) {
+                            got = scan(s.cursor());
+                        }
+                        long added = got[0] - start[0];
+                        if (added < 0 || added % batch != 0 || got[1] != start[1] + added / batch * payloadSum)
+                            throw new IllegalStateException("Snapshot saw " + got[0] + " records, checksum " + got[1]);
+                        if (got[0] < seen) throw new IllegalStateException("Snapshot went back from " + seen + " to " + got[0]);
+                        seen = got[0];
+                        snapshotScans.incrementAndGet();
+                        rows.addAndGet(got[0]);
+
+                        got = scan(heap.cursor());
+                        if ((got[0] - start[0]) % batch != 0) torn.incrementAndGet();
+                        plainScans.incrementAndGet();
+                        rows.addAndGet(got[0]);
+                    }
+                } catch (Exception e) {
+                    synchronized (failed) { failed[0] = e; }
+                    stop.set(true);
+                }
+            }));
+        }
+        long t0 = System.nanoTime();
+        for (Thread th : threads) th.start();
+        double withScans = ingest(fm, payload, batch, seconds, stop);
+        stop.set(true);
+        for (Thread th : threads) th.join();
+        double secs = (System.nanoTime() - t0) / 1e9;
+        if (failed[0] != null) throw failed[0];
+
+        System.out.printf("  ingest with scans: %10.0f rows/s (%.2fx alone)%n", withScans, withScans / alone);
+        System.out.printf("  scans: %d snapshot, all consistent | %d plain, %d saw part of a batch | %.0f rows/s scanned%n",
+                snapshotScans.get(), plainScans.get(), torn.get(), rows.get() / secs);
+        System.out.printf("  pages with old versions kept after the scans: %d%n", fm.versions().chainCount());
+    }
+
+    // Appends whole batches for about seconds (or until stop); returns rows per second
+    private static double ingest(FileManager fm, byte[] payload, int batch, double seconds, AtomicBoolean stop) throws Exception {
+        long rows = 0, t0 = System.nanoTime(), end = t0 + (long) (seconds * 1e9);
+        while (System.nanoTime() < end && !stop.get()) {
+            try (HeapFile.Appender app = new HeapFile.Appender(fm)) {
+                for (int i = 0; i < batch; i++) app.addEncoded(payload, i * FixedRecordSize.RECORD_SIZE);
+            }
+            rows += batch;
+        }
+        return rows / ((System.nanoTime() - t0) / 1e9);
+    }
+
+    // {records, sum of every column's raw int bits}
+    private static long[] scan(HeapCursor c) throws Exception {
+        long n = 0, sum = 0;
+        while (c.next()) {
+            n++;
+            for (int col = 0; col < FixedRecordSize.RECORD_SIZE / 4; col++) sum += c.getInt(col);
+        }
+        return new long[]{n, sum};
+    }
+}
@@ -0,0 +1,93 @@
+package App;
+
+import Bplustree.BulkLoader;
+import IO.FileManager;
+import model.GameRecord;
+import storage.HeapFile;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+// Index build time and allocation on a synthetic games table (default 10M rows):
+// the old boxed scanAll + KeyRid + Comparator sort vs. BulkLoader's packed long sort,
+// and with --threads=N the parallel build at 1, 2, 4 .. N workers.
+public class SortBench {
+
+    private static long allocatedBytes() {
+        var mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // what BulkLoader did before: one object per row at every step
+    private static final class KeyRid {
+        final float key;
+        final HeapFile.RecordId rid;
+        KeyRid(float key, HeapFile.RecordId rid) { this.key = key; this.rid = rid; }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String db = "sort.data";
+        int rows = 10_000_000;
+        int threads = 0;
+        boolean keep = false, legacy = false;
+
+        // Optional args: [--db=path] [--rows=N] [--keep] [--legacy] [--threads=N]
+        for (String a : args) {
+            if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.startsWith("--rows=")) rows = Integer.parseInt(a.substring(7));
+            else if (a.equals("--keep")) keep = true;
+            else if (a.equals("--legacy")) legacy = true;
+            else if (a.startsWith("--threads=")) threads = Integer.parseInt(a.substring(10));
+        }
+
+        if (!keep || !new File(db).exists()) {
+            Random rnd = new Random(1);
+            try (FileManager fm = new FileManager(db, true);
+                 HeapFile.Appender app = new HeapFile.Appender(fm)) {
+                for (int i = 0; i < rows; i++) {
+                    app.add(new GameRecord("2022-12-22", 1610612737 + rnd.nextInt(30), 80 + rnd.nextInt(70),
+                            rnd.nextInt(1001) / 1000f, rnd.nextInt(1001) / 1000f, rnd.nextInt(1001) / 1000f,
+                            rnd.nextInt(40), rnd.nextInt(60), rnd.nextInt(2)));
+                }
+            }
+            System.out.println("Generated " + rows + " rows into " + db);
+        }
+
+        try (FileManager fm = new FileManager(db, false)) {
+            HeapFile heap = new HeapFile(fm);
+
+            if (legacy) {
+                long a0 = allocatedBytes(), t0 = System.nanoTime();
+                try {
+                    var all = heap.scanAll();
+                    List<KeyRid> pairs = new ArrayList<>(all.size());
+                    for (var rw : all) pairs.add(new KeyRid(rw.rec.getFtPctHome(), rw.rid));
+                    pairs.sort(Comparator.comparingDouble(p -> p.key));
+                    System.out.printf("Boxed scan+sort (old):  %8.1f ms | allocated %8.1f MB | %d pairs%n",
+                            (System.nanoTime() - t0) / 1e6, (allocatedBytes() - a0) / 1e6, pairs.size());
+                } catch (OutOfMemoryError e) {
+                    System.out.printf("Boxed scan+sort (old):  OutOfMemoryError after %.1f ms%n", (System.nanoTime() - t0) / 1e6);
+                }
+            }
+
+            long a0 = allocatedBytes(), t0 = System.nanoTime();
+            BulkLoader.Stats s = BulkLoader.build(fm, heap);
+            System.out.printf("Packed sort + build:    %8.1f ms | allocated %8.1f MB | leaves=%d height=%d%n",
+                    (System.nanoTime() - t0) / 1e6, (allocatedBytes() - a0) / 1e6, s.leafCount, s.height);
+
+            double base = 0;
+            for (int t = 1; t <= threads; t *= 2) {
+                t0 = System.nanoTime();
+                s = BulkLoader.buildParallel(fm, heap, t);
+                double ms = (System.nanoTime() - t0) / 1e6;
+                if (t == 1) base = ms;
+                System.out.printf("Parallel build, %2d thr: %8.1f ms | speedup %.2fx | leaves=%d height=%d%n",
+                        t, ms, base / ms, s.leafCount, s.height);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package App;
+
+import IO.FileManager;
+import Util.FixedRecordSize;
+import model.GameRecord;
+import query.Aggregate;
+import query.Filter;
+import query.Operator;
+import query.Predicate;
+import query.Scan;
+import storage.HeapCursor;
+import storage.HeapFile;
+import storage.Superblock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+// One grouped aggregate three ways:
+//   SELECT TEAM_ID_home, COUNT(*), AVG(PTS_home), AVG(FG_PCT_home), MAX(AST_home)
+//   WHERE PTS_home > 120 AND HOME_TEAM_WINS = 1 GROUP BY TEAM_ID_home
+// a row at a time decoding a GameRecord per row (the hand-written loops over scanAll()),
+// a row at a time reading the cursor's columns in place, and through the query package's
+// vectorized Scan -> Filter -> Aggregate plan, on 1 and --threads threads (page ranges,
+// results merged). Reports rows/s and rows/s per core, best of 20 rounds; the three must
+// agree. Run MmapBench first for a big bench.data, or pass --db.
+public class VectorBench {
+    private static final String WHERE = "PTS_home > 120 AND HOME_TEAM_WINS = 1";
+    private static final int GROUP = FixedRecordSize.COL_TEAM_ID_HOME;
+
+    private static Aggregate.Spec[] specs() {
+        return new Aggregate.Spec[]{Aggregate.count(), Aggregate.avg(FixedRecordSize.COL_PTS_HOME),
+                Aggregate.avg(FixedRecordSize.COL_FG_PCT_HOME), Aggregate.max(FixedRecordSize.COL_AST_HOME)};
+    }
+
+    // Row-at-a-time accumulators per team: count, sum PTS, sum FG_PCT, max AST
+    private static final class Groups {
+        final TreeMap<Integer, double[]> byTeam = new TreeMap<>();
+        void add(int team, int pts, float fgPct, int ast) {
+            double[] a = byTeam.computeIfAbsent(team, t -> new double[]{0, 0, 0, Double.NEGATIVE_INFINITY});
+            a[0]++;
+            a[1] += pts;
+            a[2] += fgPct;
+            a[3] = Math.max(a[3], ast);
+        }
+    }
+
+    private static Groups records(HeapFile heap) throws Exception {
+        Groups g = new Groups();
+        HeapCursor c = heap.cursor();
+        while (c.next()) {
+            GameRecord r = c.toRecord();
+            if (r.getPtsHome() > 120 && r.getHomeTeamWins() == 1)
+                g.add(r.getTeamIdHome(), r.getPtsHome(), r.getFgPctHome(), r.getAstHome());
+        }
+        return g;
+    }
+
+    private static Groups cursorRows(HeapFile heap) throws Exception {
+        Groups g = new Groups();
+        HeapCursor c = heap.cursor();
+        while (c.next()) {
+            int pts = c.getInt(FixedRecordSize.COL_PTS_HOME);
+            if (pts > 120 && c.getInt(FixedRecordSize.COL_HOME_TEAM_WINS) == 1)
+                g.add(c.getInt(GROUP), pts, c.getFloat(FixedRecordSize.COL_FG_PCT_HOME), c.getInt(FixedRecordSize.COL_AST_HOME));
+        }
+        return g;
+    }
+
+    private static Aggregate.Result vectorized(HeapFile heap, int from, int to) throws Exception {
+        Operator plan = new Filter(new Scan(heap.cursor(from, to, true),
+                FixedRecordSize.COL_TEAM_ID_HOME, FixedRecordSize.COL_PTS_HOME, FixedRecordSize.COL_FG_PCT_HOME,
+                FixedRecordSize.COL_AST_HOME, FixedRecordSize.COL_HOME_TEAM_WINS), Predicate.parse(WHERE));
+        return new Aggregate(plan, GROUP, specs()).run();
+    }
+
+    // The heap split into threads page ranges, one plan each, results merged
+    private static Aggregate.Result vectorized(HeapFile heap, int first, int end, int threads) throws Exception {
+        if (threads == 1) return vectorized(heap, first, end);
+        Aggregate.Result[] parts = new Aggregate.Result[threads];
+        Exception[] failed = {null};
+        List<Thread> running = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            final int from = first + (int) ((long) (end - first) * t / threads);
+            final int to = first + (int) ((long) (end - first) * (t + 1) / threads);
+            Thread th = new Thread(() -> {
+                try {
+                    parts[id] = vectorized(heap, from, to);
+                } catch (Exception e) {
+                    synchronized (failed) { failed[0] = e; }
+                }
+            });
+            running.add(th);
+            th.start();
+        }
+        for (Thread th : running) th.join();
+        if (failed[0] != null) throw failed[0];
+        Aggregate.Result r = parts[0];
+        for (int t = 1; t < threads; t++) r = r.merge(parts[t]);
+        return r;
+    }
+
+    private interface Run { Object run() throws Exception; }
+
+    private static Object measure(String label, long rows, int threads, Run run) throws Exception {
+        Object out = null;
+        long nanos = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {      // best of 20, the first ones warm up
+            long t0 = System.nanoTime();
+            out = run.run();
+            nanos = Math.min(nanos, System.nanoTime() - t0);
+        }
+        double rate = rows / (nanos / 1e9);
+        System.out.printf("  %-26s %8.1f ms | %7.2f M rows/s | %7.2f M rows/s per core%n",
+                label, nanos / 1e6, rate / 1e6, rate / 1e6 / threads);
+        return out;
+    }
+
+    private static void check(String label, Groups g, Aggregate.Result r) {
+        boolean same = g.byTeam.size() == r.groups();
+        int i = 0;
+        for (var e : g.byTeam.entrySet()) {
+            if (!same) break;
+            double[] a = e.getValue();
+            same = r.key(i) == e.getKey() && r.count(i) == (long) a[0]
+                    && Math.abs(r.value(i, 1) - a[1] / a[0]) < 1e-9
+                    && Math.abs(r.value(i, 2) - a[2] / a[0]) < 1e-6
+                    && r.value(i, 3) == a[3];
+            i++;
+        }
+        if (!same) throw new IllegalStateException(label + " disagrees with the row-at-a-time result");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String db = "bench.data";
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        // Optional args: [--db=path] [--threads=N]
+        for (String a : args) {
+            if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.startsWith("--threads=")) threads = Integer.parseInt(a.substring(10));
+        }
+
+        try (FileManager fm = new FileManager(db, false, 0)) {   // no pool: threads read the channel
+            HeapFile heap = new HeapFile(fm);
+            Superblock sb = Superblock.read(fm);
+            int first = sb.heapFirstPid, end = sb.heapFirstPid == 0 ? 0 : sb.heapLastPid + 1;
+            long rows = sb.recordCount;
+            System.out.printf("%s: %d records, layout %s, batches of %d | WHERE %s GROUP BY %s%n",
+                    db, rows, sb.heapLayout, query.Batch.CAPACITY, WHERE, FixedRecordSize.COLUMN_NAMES[GROUP]);
+
+            Groups g = (Groups) measure("rows, GameRecord each:", rows, 1, () -> records(heap));
+            Groups c = (Groups) measure("rows, cursor columns:", rows, 1, () -> cursorRows(heap));
+            if (c.byTeam.size() != g.byTeam.size() || !c.byTeam.keySet().stream().allMatch(k -> Arrays.equals(c.byTeam.get(k), g.byTeam.get(k))))
+                throw new IllegalStateException("cursor disagrees with the GameRecord result");
+            Aggregate.Result r = (Aggregate.Result) measure("vectorized, 1 thread:", rows, 1, () -> vectorized(heap, first, end, 1));
+            check("vectorized", g, r);
+            if (threads > 1) {
+                final int n = threads;
+                check("parallel", g, (Aggregate.Result) measure("vectorized, " + n + " threads:", rows, n, () -> vectorized(heap, first, end, n)));
+            }
+            System.out.println(r.format(5));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package App;
+
+import IO.FileManager;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Small durable updates (a few random pages, then a commit) from N threads: written in place
+// and fsynced per update (FileManager.sync) vs. appended to the write-ahead log and committed
+// (FileManager.commit), where concurrent commits share one log fsync.
+public class WalBench {
+
+    private static double run(String db, boolean wal, int threads, int txns, int pagesPerTxn, int filePages) throws Exception {
+        try (FileManager fm = new FileManager(db, false, 0, wal)) {   // unbuffered: page writes are thread-safe
+            long t0 = System.nanoTime();
+            List<Thread> workers = new ArrayList<>();
+            Exception[] failed = {null};
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                Thread th = new Thread(() -> {
+                    Random rnd = new Random(id);
+                    ByteBuffer page = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+                    int span = (filePages - 1) / threads, base = 1 + id * span;   // own pages, after the superblock
+                    try {
+                        for (int i = 0; i < txns; i++) {
+                            for (int p = 0; p < pagesPerTxn; p++) {
+                                page.putInt(0, id).putInt(4, i).putInt(8, p);
+                                fm.writePageConcurrent(base + rnd.nextInt(span), page);
+                            }
+                            if (wal) fm.commit();
+                            else fm.sync();
+                        }
+                    } catch (Exception e) {
+                        synchronized (failed) { failed[0] = e; }
+                    }
+                });
+                workers.add(th);
+                th.start();
+            }
+            for (Thread th : workers) th.join();
+            if (failed[0] != null) throw failed[0];
+            double secs = (System.nanoTime() - t0) / 1e9;
+            long total = (long) threads * txns;
+            long syncs = wal ? fm.wal().syncs() : total;
+            System.out.printf("  %-8s threads=%2d: %6d commits in %.3f s = %8.0f commits/s, fsyncs=%d (%.1f commits per fsync)%n",
+                    wal ? "log" : "in place", threads, total, secs, total / secs, syncs, (double) total / syncs);
+            return total / secs;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String db = "wal_bench.data";
+        int filePages = 4096;
+        int txns = 200;          // per thread
+        int pagesPerTxn = 2;     // e.g. a heap page and a leaf
+        int[] threadCounts = {1, 2, 4, 8, 16};
+
+        // Optional args: [--db=path] [--pages=N] [--txns=N] [--pages-per-txn=N] [--threads=1,4,16]
+        for (String a : args) {
+            if (a.startsWith("--db=")) db = a.substring(5);
+            else if (a.startsWith("--pages=")) filePages = Integer.parseInt(a.substring(8));
+            else if (a.startsWith("--txns=")) txns = Integer.parseInt(a.substring(7));
+            else if (a.startsWith("--pages-per-txn=")) pagesPerTxn = Integer.parseInt(a.substring(16));
+            else if (a.startsWith("--threads=")) {
+                String[] parts = a.substring(10).split(",");
+                threadCounts = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) threadCounts[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+
+        // a file of filePages zeroed pages to update
+        try (FileManager fm = new FileManager(db, true, 0)) {
+            fm.reservePages(filePages - (int) fm.pageCount());
+            fm.writePage(filePages - 1, ByteBuffer.allocate(FileManager.PAGE_SIZE));
+            fm.sync();
+        }
+        System.out.printf("%d commits per thread, %d random pages each, %d-page file%n", txns, pagesPerTxn, filePages);
+        for (int threads : threadCounts) {
+            double inPlace = run(db, false, threads, txns, pagesPerTxn, filePages);
+            double logged = run(db, true, threads, txns, pagesPerTxn, filePages);
+            System.out.printf("  -> log is %.1fx%n", logged / inPlace);
+        }
+        new File(db).delete();
+    }
+}
@@ -0,0 +1,847 @@
+package Bplustree;
+
+import IO.FileManager;
+import IO.PageLatches;
+import Util.FixedRecordSize;
+import model.GameRecord;
+import model.GameRecordView;
+import storage.HeapFile;
+import storage.Superblock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One named on-disk B+ tree over a heap column. Keys are normalized longs (see
+// KeyDescriptor); key() converts column values and query bounds.
+//
+// Threads may share one BPlusTree per index (the root pid lives in it). Access is
+// optimistic lock coupling over the FileManager's PageLatches: readers take no latch, they
+// note a page's version, read the page and check the version is unchanged before trusting
+// it, going back to the root when a writer got in between. An insert or delete that
+// changes one leaf and nothing else upgrades that leaf's version to a write latch and is
+// done; splits, merges and posting lists take the file's structure lock, one at a time,
+// and latch the pages they read or write. An insert crabs down, letting go of everything
+// above a node with room for one more separator; a delete keeps its whole path.
+public class BPlusTree {
+    // The index BulkBuild / QueryIndex work with when none is named
+    public static final String DEFAULT_INDEX = FixedRecordSize.COLUMN_NAMES[FixedRecordSize.COL_FT_PCT_HOME];
+
+    private final FileManager fm;
+    private final String name;
+    private final KeyDescriptor key;
+    private volatile int rootPid;
+    private final PageLatches latches;
+    private final LongAdder pageReads = new LongAdder();   // node pages read by insert/delete
+    private final LongAdder pageWrites = new LongAdder();  // node pages written by insert/delete
+    private static final int FAST_ATTEMPTS = 8;  // one-leaf changes retried before taking the structure lock
+
+    // Structure change in progress; only touched under the structure lock
+    private final PageLatches.Held held;
+    private final RidList rids = new RidList();   // posting list being changed
+    private int postingDelta;  // overflow posting pages allocated - freed by this insert/delete
+
+    // Overflow posting pages come off and go back on the free list
+    private final PostingPage.Pages postingPages = new PostingPage.Pages() {
+        @Override public int allocate() throws IOException { postingDelta++; return Superblock.allocatePage(fm); }
+        @Override public void free(int pid) throws IOException { postingDelta--; Superblock.freePage(fm, pid); }
+    };
+
+    // Per-query I/O accounting
+    public static final class QueryStats {
+        public int indexNodes;   // internal + leaf pages visited
+        public int heapPages;    // distinct heap pages fetched
+        public long nanos;       // wall time of the whole query
+        @Override public String toString() {
+            return String.format("index nodes=%d, heap pages=%d, time=%.3f ms", indexNodes, heapPages, nanos / 1e6);
+        }
+    }
+
+    public static final class Result {
+        public final List<HeapFile.RecordWithId> records; // in heap (page, slot) order
+        public final QueryStats stats;
+        Result(List<HeapFile.RecordWithId> records, QueryStats stats) { this.records = records; this.stats = stats; }
+    }
+
+    // Receives each match of a zero-copy range scan; rec is only valid during the call
+    public interface RecordVisitor {
+        void accept(GameRecordView rec, HeapFile.RecordId rid) throws IOException;
+    }
+
+    // Receives each entry of an index-only scan: the key and the included columns (raw
+    // bytes in key().include order); included is reused for the next entry
+    public interface EntryVisitor {
+        void accept(long key, int[] included) throws IOException;
+    }
+
+    private BPlusTree(FileManager fm, Superblock.IndexMeta m) {
+        this.fm = fm; this.name = m.name; this.rootPid = m.rootPid;
+        this.key = KeyDescriptor.of(m.keyColumns, m.includeColumns, m.postings);
+        this.latches = fm.latches();
+        this.held = latches.held();
+    }
+
+    public static BPlusTree open(FileManager fm) throws IOException {
+        return open(fm, DEFAULT_INDEX);
+    }
+
+    // O(1) reopen from the metadata BulkLoader.build left in the superblock
+    public static BPlusTree open(FileManager fm, String name) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        Superblock.IndexMeta m = sb.index(name);
+        if (m == null) throw new IllegalStateException("No index " + name + " in file; run BulkBuild first");
+        if (sb.isStale(m))
+            throw new IllegalStateException("Index " + name + " is stale (" + m.indexedCount + " of " + sb.recordCount
+                    + " rows indexed); run BulkBuild first");
+        return new BPlusTree(fm, m);
+    }
+
+    // Every index that is up to date, e.g. to maintain them all on insert/delete
+    public static List<BPlusTree> openAll(FileManager fm) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        List<BPlusTree> out = new ArrayList<>();
+        for (Superblock.IndexMeta m : sb.indexes) if (!sb.isStale(m)) out.add(new BPlusTree(fm, m));
+        return out;
+    }
+
+    public String name() { return name; }
+    public KeyDescriptor key() { return key; }
+    public int rootPid() { return rootPid; }
+    public long pageReads() { return pageReads.sum(); }
+    public long pageWrites() { return pageWrites.sum(); }
+
+    public Result search(long key) throws IOException {
+        return rangeScan(key, key);
+    }
+
+    // All records with lo <= key <= hi
+    public Result rangeScan(long lo, long hi) throws IOException {
+        QueryStats st = new QueryStats();
+        long t0 = System.nanoTime();
+
+        List<HeapFile.RecordId> rids = searchRids(lo, hi, st);
+        List<HeapFile.RecordWithId> out = new ArrayList<>(rids.size());
+        fetch(rids, st, (rec, rid) -> out.add(new HeapFile.RecordWithId(rec.toRecord(), rid)));
+
+        st.nanos = System.nanoTime() - t0;
+        return new Result(out, st);
+    }
+
+    // Same matches without materializing them: v sees a view over the heap page, in
+    // (page, slot) order. For aggregations that read a few columns of many rows.
+    public QueryStats rangeScan(long lo, long hi, RecordVisitor v) throws IOException {
+        QueryStats st = new QueryStats();
+        long t0 = System.nanoTime();
+        fetch(searchRids(lo, hi, st), st, v);
+        st.nanos = System.nanoTime() - t0;
+        return st;
+    }
+
+    // Index-only scan for covering indexes: every entry with lo <= key <= hi in key order,
+    // straight from the leaves. No heap page is read (stats.heapPages stays 0).
+    public QueryStats scanEntries(long lo, long hi, EntryVisitor v) throws IOException {
+        QueryStats st = new QueryStats();
+        long t0 = System.nanoTime();
+        if (lo <= hi && key.postings) scanPostings(lo, hi, st, v);
+        else if (lo <= hi) {
+            int width = key.include.length;
+            int[] included = new int[width];
+            new LeafWalk<LeafPage>() {
+                long[] keys = new long[64];
+                int[] cols = new int[64 * width];
+                int n;
+                @Override void stage(LeafPage leaf, int i) {
+                    if (n == keys.length) {
+                        keys = Arrays.copyOf(keys, n * 2);
+                        cols = Arrays.copyOf(cols, n * 2 * width);
+                    }
+                    keys[n] = leaf.keyAt(i);
+                    for (int j = 0; j < width; j++) cols[n * width + j] = leaf.includedAt(i, j);
+                    n++;
+                }
+                @Override void publish() throws IOException {
+                    for (int e = 0; e < n; e++) {
+                        System.arraycopy(cols, e * width, included, 0, width);
+                        v.accept(keys[e], included);
+                    }
+                    n = 0;
+                }
+                @Override void discard() { n = 0; }
+            }.run(lo, hi, st, LeafPage::new);
+        }
+        st.nanos = System.nanoTime() - t0;
+        return st;
+    }
+
+    // Postings index: each key once per RID, counts from the list headers
+    private void scanPostings(long lo, long hi, QueryStats st, EntryVisitor v) throws IOException {
+        int[] none = new int[0];
+        new LeafWalk<PostingLeafPage>() {
+            long[] keys = new long[64];
+            int[] counts = new int[64];
+            int n;
+            @Override void stage(PostingLeafPage leaf, int i) throws IOException {
+                if (n == keys.length) {
+                    keys = Arrays.copyOf(keys, n * 2);
+                    counts = Arrays.copyOf(counts, n * 2);
+                }
+                keys[n] = leaf.keyAt(i);
+                counts[n++] = leaf.isOverflow(i) ? PostingPage.size(fm, leaf.overflowHead(i), st) : leaf.ridCount(i);
+            }
+            @Override void publish() throws IOException {
+                for (int e = 0; e < n; e++) for (int r = 0; r < counts[e]; r++) v.accept(keys[e], none);
+                n = 0;
+            }
+            @Override void discard() { n = 0; }
+        }.run(lo, hi, st, PostingLeafPage::new);
+    }
+
+    // Index-only part: RIDs for lo <= key <= hi in key order
+    public List<HeapFile.RecordId> searchRids(long lo, long hi, QueryStats st) throws IOException {
+        List<HeapFile.RecordId> rids = new ArrayList<>();
+        if (lo <= hi && key.postings) collectPostings(lo, hi, rids, st);
+        else if (lo <= hi) collectRids(lo, hi, rids, st);
+        return rids;
+    }
+
+    // Equal keys share one entry, so a point lookup reads one leaf plus the key's overflow
+    // pages, if any
+    private void collectPostings(long lo, long hi, List<HeapFile.RecordId> out, QueryStats st) throws IOException {
+        RidList list = new RidList();
+        new CollectWalk<PostingLeafPage>(out) {
+            @Override void stage(PostingLeafPage leaf, int i) throws IOException {
+                list.clear();
+                if (leaf.isOverflow(i)) st.indexNodes += PostingPage.read(fm, leaf.overflowHead(i), list);
+                else leaf.rids(i, list);
+                for (int r = 0; r < list.size(); r++) out.add(LeafPage.unpackRid(list.get(r)));
+            }
+        }.run(lo, hi, st, PostingLeafPage::new);
+    }
+
+    private void collectRids(long lo, long hi, List<HeapFile.RecordId> out, QueryStats st) throws IOException {
+        new CollectWalk<LeafPage>(out) {
+            @Override void stage(LeafPage leaf, int i) { out.add(leaf.ridAt(i)); }
+        }.run(lo, hi, st, LeafPage::new);
+    }
+
+    // LeafPage::new or PostingLeafPage::new, depending on the index
+    private interface LeafFactory<L> {
+        L wrap(FileManager fm, int pid, ByteBuffer b);
+    }
+
+    // A leaf reached by an optimistic descent and the version it was read at
+    private static final class LeafAt<L> {
+        final L leaf;
+        final int pid;
+        final long version;
+        LeafAt(L leaf, int pid, long version) { this.leaf = leaf; this.pid = pid; this.version = version; }
+    }
+
+    // Descend from the root to the leftmost leaf that can contain key (the rightmost with
+    // after, where an insert puts it). Each page is read between taking its version and
+    // validating it, and a child's version is taken before its parent is validated, so the
+    // child pointer followed was current. Restarts from the root if any check fails; a
+    // page read mid-change may also be nonsense and throw, which counts as a failed check.
+    private <L> LeafAt<L> findLeaf(long key, boolean after, QueryStats st, LeafFactory<L> leaf) throws IOException {
+        restart:
+        while (true) {
+            int pid = rootPid;
+            long version = latches.readVersion(pid);
+            try {
+                ByteBuffer b = fm.readPage(pid);
+                if (pid != rootPid) continue;   // the root moved on
+                while (true) {
+                    st.indexNodes++;
+                    byte type = b.get(PageLayout.OFF_TYPE);
+                    if (type == PageLayout.TYPE_LEAF || type == PageLayout.TYPE_POSTING_LEAF) {
+                        if (!latches.validate(pid, version)) continue restart;
+                        return new LeafAt<>(leaf.wrap(fm, pid, b), pid, version);
+                    }
+                    if (type != PageLayout.TYPE_INTERNAL) {
+                        if (!latches.validate(pid, version)) continue restart;
+                        throw new IllegalStateException("Page " + pid + " is not a B+ tree node (type " + type + ")");
+                    }
+                    InternalPage node = new InternalPage(fm, pid, b);
+                    int child = node.childAt(after ? node.childIndexAfter(key) : node.childIndexFor(key));
+                    long childVersion = latches.readVersion(child);
+                    if (!latches.validate(pid, version)) continue restart;
+                    b = fm.readPage(child);
+                    pid = child;
+                    version = childVersion;
+                }
+            } catch (RuntimeException e) {
+                if (latches.validate(pid, version)) throw e;
+            }
+        }
+    }
+
+    // One optimistic pass over the leaves holding lo..hi. A leaf's entries are staged, and
+    // only passed on once the leaf validates (after the next leaf's version is taken); if a
+    // writer got in the way, the walk goes back to the root for the first entry not yet
+    // passed on: resume key, skipping the entries with that key already taken.
+    private abstract class LeafWalk<L extends LeafNode> {
+        abstract void stage(L leaf, int i) throws IOException;   // copy entry i aside
+        abstract void publish() throws IOException;              // pass the staged entries on
+        abstract void discard();                                 // the leaf changed under them
+
+        final void run(long lo, long hi, QueryStats st, LeafFactory<L> factory) throws IOException {
+            long from = lo;
+            int skip = 0;
+            while (true) {
+                LeafAt<L> at = findLeaf(from, false, st, factory);
+                L leaf = at.leaf;
+                int pid = at.pid;
+                long version = at.version;
+                long start = from, nextFrom = from;
+                int toSkip = skip, nextSkip = skip, skipped = 0;
+                try {
+                    int i = leaf.lowerBound(start);
+                    while (true) {
+                        boolean end = false;
+                        for (int n = leaf.keyCount(); i < n; i++) {
+                            long k = leaf.keyAt(i);
+                            if (k > hi) { end = true; break; }
+                            if (k == start && skipped < toSkip) { skipped++; continue; }
+                            stage(leaf, i);
+                            if (k == nextFrom) nextSkip++;
+                            else { nextFrom = k; nextSkip = 1; }
+                        }
+                        int next = end ? -1 : leaf.next();
+                        long nextVersion = next < 0 ? 0 : latches.readVersion(next);
+                        if (!latches.validate(pid, version)) break;
+                        publish();
+                        from = nextFrom;
+                        skip = nextSkip;
+                        if (next < 0) return;
+                        leaf = factory.wrap(fm, next, fm.readPage(next));
+                        st.indexNodes++;
+                        pid = next;
+                        version = nextVersion;
+                        i = 0;
+                    }
+                } catch (RuntimeException e) {
+                    if (latches.validate(pid, version)) throw e;
+                }
+                discard();
+            }
+        }
+    }
+
+    // Walk that appends to a list: a leaf's entries go straight on and come off again if
+    // the leaf turns out to have changed
+    private abstract class CollectWalk<L extends LeafNode> extends LeafWalk<L> {
+        private final List<HeapFile.RecordId> out;
+        private int mark;
+        CollectWalk(List<HeapFile.RecordId> out) { this.out = out; }
+        @Override void publish() { mark = out.size(); }
+        @Override void discard() { out.subList(mark, out.size()).clear(); }
+    }
+
+    // ---- insert ----
+
+    // Separator + new right sibling produced by a split, to be added to the parent
+    private static final class Split {
+        final long key;
+        final int rightPid;
+        Split(long key, int rightPid) { this.key = key; this.rightPid = rightPid; }
+    }
+
+    // Add the entry for a record just appended to the heap (key and included columns taken
+    // from it)
+    public void insert(GameRecord r, HeapFile.RecordId rid) throws IOException {
+        insert(key.of(r), key.included(r, new int[key.include.length]), rid);
+    }
+
+    // Same, for a record in the row encoding at rec[off]
+    public void insert(byte[] rec, int off, HeapFile.RecordId rid) throws IOException {
+        insert(key.of(rec, off), key.included(rec, off, new int[key.include.length]), rid);
+    }
+
+    // Add one (key, RID, included columns). Only the pages on the root-to-leaf path (plus
+    // new siblings on splits) are written, and the superblock is updated to match.
+    public void insert(long key, int[] included, HeapFile.RecordId rid) throws IOException {
+        if (!this.key.postings && insertInLeaf(key, included, rid)) return;
+        ReentrantLock structure = latches.structureLock();
+        structure.lock();
+        try {
+            insertLocked(key, included, rid);
+        } finally {
+            held.unlockAll();
+            structure.unlock();
+        }
+    }
+
+    // Fast path: the entry fits its leaf. The leaf's version from the descent is upgraded to
+    // the write latch, so the copy in hand is still current. False if the leaf is full or
+    // other writers keep getting there first.
+    private boolean insertInLeaf(long key, int[] included, HeapFile.RecordId rid) throws IOException {
+        QueryStats st = new QueryStats();
+        for (int attempt = 0; attempt < FAST_ATTEMPTS; attempt++) {
+            LeafAt<LeafPage> at = findLeaf(key, true, st, LeafPage::new);
+            LeafPage leaf = at.leaf;
+            if (leaf.isFull()) return false;
+            if (!latches.tryUpgrade(at.pid, at.version)) continue;
+            try {
+                leaf.insertAt(leaf.upperBound(key), key, rid, included);
+                leaf.flush();
+            } finally {
+                latches.unlock(at.pid);
+            }
+            pageReads.add(st.indexNodes);
+            pageWrites.increment();
+            Superblock.update(fm, sb -> sb.index(name).indexedCount++);
+            return true;
+        }
+        return false;
+    }
+
+    private void insertLocked(long key, int[] included, HeapFile.RecordId rid) throws IOException {
+        List<InternalPage> path = new ArrayList<>();
+        List<Integer> childIdx = new ArrayList<>();
+
+        // descend to the rightmost leaf that can hold key, remembering the path. Crabbing:
+        // a split stops at a node with room at the latest, so the latches above it go.
+        int pid = rootPid;
+        ByteBuffer b;
+        while (true) {
+            b = readNode(pid);
+            if (b.get(PageLayout.OFF_TYPE) != PageLayout.TYPE_INTERNAL) break;
+            InternalPage node = new InternalPage(fm, pid, b);
+            if (node.isSafe()) held.unlockAllBut(pid);
+            int c = node.childIndexAfter(key);
+            path.add(node);
+            childIdx.add(c);
+            pid = node.childAt(c);
+        }
+
+        int newInternals = 0, grew = 0;
+        postingDelta = 0;
+        Split split = this.key.postings ? insertPosting(new PostingLeafPage(fm, pid, b), key, rid)
+                : insertEntry(new LeafPage(fm, pid, b), key, included, rid);
+        int newLeaves = split != null ? 1 : 0;
+
+        // propagate splits upwards
+        for (int level = path.size() - 1; level >= 0 && split != null; level--) {
+            InternalPage parent = path.get(level);
+            int c = childIdx.get(level);
+            if (parent.canInsert(split.key)) {
+                parent.insertAt(c, split.key, split.rightPid);
+                flush(parent);
+                split = null;
+            } else {
+                InternalPage right = InternalPage.create(fm, Superblock.allocatePage(fm), this.key.width);
+                long up = parent.splitInsert(c, split.key, split.rightPid, right);
+                flush(parent);
+                flush(right);
+                newInternals++;
+                split = new Split(up, right.pageId());
+            }
+        }
+
+        // root split: grow the tree by one level
+        if (split != null) {
+            InternalPage root = InternalPage.create(fm, Superblock.allocatePage(fm), this.key.width);
+            root.setFirstChild(rootPid);
+            root.append(split.key, split.rightPid);
+            flush(root);
+            newInternals++;
+            grew = 1;
+            rootPid = root.pageId();
+        }
+
+        final int dl = newLeaves, di = newInternals, dh = grew, dp = postingDelta;
+        Superblock.update(fm, sb -> {
+            Superblock.IndexMeta m = sb.index(name);
+            m.rootPid = rootPid;
+            m.height += dh;
+            m.leafCount += dl;
+            m.internalCount += di;
+            m.postingCount += dp;
+            m.indexedCount++;
+        });
+    }
+
+    // Leaf step of insert; returns the split to post to the parent, if any
+    private Split insertEntry(LeafPage leaf, long key, int[] included, HeapFile.RecordId rid) throws IOException {
+        int pos = leaf.upperBound(key);
+        if (!leaf.isFull()) {
+            leaf.insertAt(pos, key, rid, included);
+            flush(leaf);
+            return null;
+        }
+        LeafPage right = LeafPage.create(fm, Superblock.allocatePage(fm), this.key);
+        leaf.splitInsert(pos, key, rid, included, right);
+        flush(leaf);
+        flush(right);
+        return new Split(this.key.separator(leaf.keyAt(leaf.keyCount() - 1), right.keyAt(0)), right.pageId());
+    }
+
+    // Same for a postings index: add the RID to its key's list, or add the key. A leaf out of
+    // room is split by bytes and the change retried on the half that holds the key.
+    private Split insertPosting(PostingLeafPage leaf, long key, HeapFile.RecordId rid) throws IOException {
+        int packed = LeafPage.packRid(rid.pageId, rid.slot);
+        if (addPosting(leaf, key, packed)) {
+            flush(leaf);
+            return null;
+        }
+        PostingLeafPage right = PostingLeafPage.create(fm, Superblock.allocatePage(fm), this.key);
+        leaf.splitInto(right);
+        if (!addPosting(key < right.keyAt(0) ? leaf : right, key, packed))
+            throw new IllegalStateException("Posting entry does not fit an empty half leaf");
+        flush(leaf);
+        flush(right);
+        return new Split(this.key.separator(leaf.keyAt(leaf.keyCount() - 1), right.keyAt(0)), right.pageId());
+    }
+
+    // False (leaf unchanged) if the leaf has no room; lists that outgrow INLINE_MAX move to
+    // overflow pages, which always fits
+    private boolean addPosting(PostingLeafPage leaf, long key, int packed) throws IOException {
+        int i = leaf.lowerBound(key);
+        rids.clear();
+        if (i == leaf.keyCount() || leaf.keyAt(i) != key) {
+            rids.add(packed);
+            return leaf.insertList(i, key, rids);
+        }
+        if (leaf.isOverflow(i)) {
+            PostingPage.add(fm, leaf.overflowHead(i), packed, postingPages);
+            return true;
+        }
+        leaf.rids(i, rids);
+        rids.insert(packed);
+        if (PostingLeafPage.inlineBytes(rids) <= PostingLeafPage.INLINE_MAX) return leaf.setList(i, rids);
+        leaf.setOverflow(i, PostingPage.write(fm, rids, new int[0], postingPages));
+        return true;
+    }
+
+    // ---- delete ----
+
+    // Structural changes made by one delete, applied to the superblock at the end
+    private static final class Shrink {
+        int leaves, internals, height;
+    }
+
+    public boolean delete(GameRecord r, HeapFile.RecordId rid) throws IOException {
+        return delete(key.of(r), rid);
+    }
+
+    // Remove the entry (key, rid). Underfull nodes borrow from or merge with a sibling,
+    // freed pages go on the free list, and a root left with one child is collapsed.
+    // Returns false if the entry is not in the tree.
+    public boolean delete(long key, HeapFile.RecordId rid) throws IOException {
+        if (!this.key.postings) {
+            int r = deleteInLeaf(key, rid);
+            if (r != RETRY_LOCKED) return r == REMOVED;
+        }
+        ReentrantLock structure = latches.structureLock();
+        structure.lock();
+        try {
+            return deleteLocked(key, rid);
+        } finally {
+            held.unlockAll();
+            structure.unlock();
+        }
+    }
+
+    private static final int ABSENT = 0, REMOVED = 1, RETRY_LOCKED = 2;
+
+    // Fast path for delete, like insertInLeaf: the entry is in the leftmost leaf for its key
+    // and taking it leaves the leaf at least half full (or the leaf is the root)
+    private int deleteInLeaf(long key, HeapFile.RecordId rid) throws IOException {
+        QueryStats st = new QueryStats();
+        for (int attempt = 0; attempt < FAST_ATTEMPTS; attempt++) {
+            LeafAt<LeafPage> at = findLeaf(key, false, st, LeafPage::new);
+            LeafPage leaf = at.leaf;
+            int i = leaf.lowerBound(key), n = leaf.keyCount();
+            while (i < n && leaf.keyAt(i) == key && !leaf.ridAt(i).equals(rid)) i++;
+            if (i == n) return RETRY_LOCKED;     // equal keys may go on in the next leaf
+            if (leaf.keyAt(i) != key) {
+                if (latches.validate(at.pid, at.version)) return ABSENT;
+                continue;
+            }
+            if (at.pid != rootPid && n - 1 < leaf.minKeys()) return RETRY_LOCKED;
+            if (!latches.tryUpgrade(at.pid, at.version)) continue;
+            try {
+                leaf.removeAt(i);
+                leaf.flush();
+            } finally {
+                latches.unlock(at.pid);
+            }
+            pageReads.add(st.indexNodes);
+            pageWrites.increment();
+            Superblock.update(fm, sb -> sb.index(name).indexedCount--);
+            return REMOVED;
+        }
+        return RETRY_LOCKED;
+    }
+
+    private boolean deleteLocked(long key, HeapFile.RecordId rid) throws IOException {
+        Shrink d = new Shrink();
+        postingDelta = 0;
+        ByteBuffer b = readNode(rootPid);
+        boolean found;
+        if (b.get(PageLayout.OFF_TYPE) == PageLayout.TYPE_LEAF) {
+            LeafPage root = new LeafPage(fm, rootPid, b);
+            found = removeEntry(root, key, rid);
+            if (found) flush(root);  // a root leaf may run empty
+        } else if (b.get(PageLayout.OFF_TYPE) == PageLayout.TYPE_POSTING_LEAF) {
+            PostingLeafPage root = new PostingLeafPage(fm, rootPid, b);
+            found = removePosting(root, key, rid);
+            if (found) flush(root);
+        } else {
+            InternalPage root = new InternalPage(fm, rootPid, b);
+            found = deleteBelow(root, key, rid, d);
+            if (found && root.keyCount() == 0) {
+                // child first: a mapped root page is overwritten by freePage
+                int old = rootPid;
+                rootPid = root.childAt(0);
+                Superblock.freePage(fm, old);
+                d.internals++;
+                d.height++;
+            }
+        }
+        if (!found) return false;
+
+        final int dp = postingDelta;
+        Superblock.update(fm, sb -> {
+            Superblock.IndexMeta m = sb.index(name);
+            m.rootPid = rootPid;
+            m.height -= d.height;
+            m.leafCount -= d.leaves;
+            m.internalCount -= d.internals;
+            m.postingCount += dp;
+            m.indexedCount--;
+        });
+        return true;
+    }
+
+    // Try every child whose range can hold key (equal keys may span several children),
+    // then repair the child if the delete left it underfull. The caller writes node.
+    private boolean deleteBelow(InternalPage node, long key, HeapFile.RecordId rid, Shrink d) throws IOException {
+        int last = node.childIndexAfter(key);
+        for (int c = node.childIndexFor(key); c <= last; c++) {
+            int pid = node.childAt(c);
+            ByteBuffer b = readNode(pid);
+            if (b.get(PageLayout.OFF_TYPE) == PageLayout.TYPE_LEAF) {
+                LeafPage leaf = new LeafPage(fm, pid, b);
+                if (!removeEntry(leaf, key, rid)) continue;
+                if (leaf.keyCount() < leaf.minKeys() && node.keyCount() > 0) fixLeaf(node, c, leaf, d);
+                else flush(leaf);
+            } else if (b.get(PageLayout.OFF_TYPE) == PageLayout.TYPE_POSTING_LEAF) {
+                PostingLeafPage leaf = new PostingLeafPage(fm, pid, b);
+                if (!removePosting(leaf, key, rid)) continue;
+                if (leaf.isUnderfull() && node.keyCount() > 0) fixPostingLeaf(node, c, leaf, d);
+                else flush(leaf);
+            } else {
+                InternalPage child = new InternalPage(fm, pid, b);
+                if (!deleteBelow(child, key, rid, d)) continue;
+                // child was only modified (and written) if one of its own children was repaired
+                if (child.keyCount() < child.minKeys() && node.keyCount() > 0) fixInternal(node, c, child, d);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean removeEntry(LeafPage leaf, long key, HeapFile.RecordId rid) {
+        for (int i = leaf.lowerBound(key); i < leaf.keyCount() && leaf.keyAt(i) == key; i++) {
+            if (leaf.ridAt(i).equals(rid)) {
+                leaf.removeAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Take rid off its key's list; the key goes when its list runs empty, and an overflow
+    // list short enough to fit the leaf again comes back inline
+    private boolean removePosting(PostingLeafPage leaf, long key, HeapFile.RecordId rid) throws IOException {
+        int i = leaf.lowerBound(key);
+        if (i == leaf.keyCount() || leaf.keyAt(i) != key) return false;
+        int packed = LeafPage.packRid(rid.pageId, rid.slot);
+        rids.clear();
+        if (!leaf.isOverflow(i)) {
+            leaf.rids(i, rids);
+            if (!rids.remove(packed)) return false;
+            if (rids.size() == 0) leaf.removeAt(i);
+            else leaf.setList(i, rids);           // shorter, always fits
+            return true;
+        }
+        int head = leaf.overflowHead(i);
+        PostingPage.read(fm, head, rids);
+        if (!rids.remove(packed)) return false;
+        int[] chain = PostingPage.pages(fm, head);
+        boolean inline = rids.size() > 0 && PostingLeafPage.inlineBytes(rids) <= PostingLeafPage.INLINE_MAX / 2
+                && leaf.setList(i, rids);
+        if (rids.size() > 0 && !inline) {
+            PostingPage.write(fm, rids, chain, postingPages);
+            return true;
+        }
+        if (rids.size() == 0) leaf.removeAt(i);
+        for (int pid : chain) postingPages.free(pid);   // list gone or back inline
+        return true;
+    }
+
+    // Posting leaf child c of parent is underfull: merge with a sibling if both fit one
+    // page, else move entries over from the sibling until it is not
+    private void fixPostingLeaf(InternalPage parent, int c, PostingLeafPage leaf, Shrink d) throws IOException {
+        int sep = c > 0 ? c - 1 : 0;
+        PostingLeafPage left = c > 0 ? new PostingLeafPage(fm, parent.childAt(c - 1), readNode(parent.childAt(c - 1))) : leaf;
+        PostingLeafPage right = c > 0 ? leaf : new PostingLeafPage(fm, parent.childAt(1), readNode(parent.childAt(1)));
+        if (left.usedBytes() + right.usedBytes() <= PostingLeafPage.BODY_BYTES) {
+            left.absorb(right);
+            parent.removeAt(sep);
+            flush(left); flush(parent);
+            Superblock.freePage(fm, right.pageId());
+            d.leaves++;
+            return;
+        }
+        // the two hold more than a page, so the sibling stays above a quarter page. Count
+        // the entries to move first: the new separator must fit the parent, else leave the
+        // leaf underfull.
+        int moved = 0;
+        if (left == leaf) {
+            for (int used = left.usedBytes(); used < PostingLeafPage.BODY_BYTES / 4 && moved < right.keyCount() - 1; moved++)
+                used += right.entryBytes(moved);
+        } else {
+            for (int used = right.usedBytes(); used < PostingLeafPage.BODY_BYTES / 4 && moved < left.keyCount() - 1; moved++)
+                used += left.entryBytes(left.keyCount() - 1 - moved);
+        }
+        if (moved == 0) {
+            flush(leaf);
+            return;
+        }
+        long newSep = left == leaf ? this.key.separator(right.keyAt(moved - 1), right.keyAt(moved))
+                : this.key.separator(left.keyAt(left.keyCount() - 1 - moved), left.keyAt(left.keyCount() - moved));
+        if (!parent.fits(newSep, parent.keyCount())) {
+            flush(leaf);
+            return;
+        }
+        for (int k = 0; k < moved; k++) {
+            boolean ok = left == leaf ? left.insertCopy(left.keyCount(), right, 0) : right.insertCopy(0, left, left.keyCount() - 1);
+            if (!ok) throw new IllegalStateException("Posting entry does not fit an underfull leaf");
+            if (left == leaf) right.removeAt(0);
+            else left.removeAt(left.keyCount() - 1);
+        }
+        parent.setKeyAt(sep, newSep);
+        flush(left); flush(right); flush(parent);
+    }
+
+    // Leaf child c of parent is underfull: borrow one entry from a sibling, else merge. A
+    // borrow whose new separator does not fit the parent is skipped (the leaf stays underfull).
+    private void fixLeaf(InternalPage parent, int c, LeafPage leaf, Shrink d) throws IOException {
+        if (c > 0) {
+            LeafPage left = new LeafPage(fm, parent.childAt(c - 1), readNode(parent.childAt(c - 1)));
+            if (left.keyCount() > left.minKeys()) {
+                int last = left.keyCount() - 1;
+                long sep = key.separator(left.keyAt(last - 1), left.keyAt(last));
+                if (!parent.fits(sep, parent.keyCount())) {
+                    flush(leaf);
+                    return;
+                }
+                leaf.insertCopy(0, left, last);
+                left.removeAt(last);
+                parent.setKeyAt(c - 1, sep);
+                flush(left); flush(leaf); flush(parent);
+            } else {
+                left.absorb(leaf);
+                parent.removeAt(c - 1);
+                flush(left); flush(parent);
+                Superblock.freePage(fm, leaf.pageId());
+                d.leaves++;
+            }
+        } else {
+            LeafPage right = new LeafPage(fm, parent.childAt(1), readNode(parent.childAt(1)));
+            if (right.keyCount() > right.minKeys()) {
+                long sep = key.separator(right.keyAt(0), right.keyAt(1));
+                if (!parent.fits(sep, parent.keyCount())) {
+                    flush(leaf);
+                    return;
+                }
+                leaf.insertCopy(leaf.keyCount(), right, 0);
+                right.removeAt(0);
+                parent.setKeyAt(0, sep);
+                flush(leaf); flush(right); flush(parent);
+            } else {
+                leaf.absorb(right);
+                parent.removeAt(0);
+                flush(leaf); flush(parent);
+                Superblock.freePage(fm, right.pageId());
+                d.leaves++;
+            }
+        }
+    }
+
+    // Internal child c of parent is underfull: rotate a key through the parent, else merge
+    // (pulling the parent separator down between the two halves). Either is skipped if the
+    // truncated separators no longer fit; node is already written.
+    private void fixInternal(InternalPage parent, int c, InternalPage node, Shrink d) throws IOException {
+        if (c > 0) {
+            InternalPage left = new InternalPage(fm, parent.childAt(c - 1), readNode(parent.childAt(c - 1)));
+            if (left.keyCount() > left.minKeys()) {
+                int last = left.keyCount() - 1;
+                if (!parent.fits(left.keyAt(last), parent.keyCount()) || !node.canInsert(parent.keyAt(c - 1))) return;
+                node.insertFirst(parent.keyAt(c - 1), left.childAt(last + 1));
+                parent.setKeyAt(c - 1, left.keyAt(last));
+                left.removeAt(last);
+                flush(left); flush(node); flush(parent);
+            } else {
+                if (!left.absorb(parent.keyAt(c - 1), node)) return;
+                parent.removeAt(c - 1);
+                flush(left); flush(parent);
+                Superblock.freePage(fm, node.pageId());
+                d.internals++;
+            }
+        } else {
+            InternalPage right = new InternalPage(fm, parent.childAt(1), readNode(parent.childAt(1)));
+            if (right.keyCount() > right.minKeys()) {
+                if (!parent.fits(right.keyAt(0), parent.keyCount()) || !node.canInsert(parent.keyAt(0))) return;
+                node.append(parent.keyAt(0), right.childAt(0));
+                parent.setKeyAt(0, right.keyAt(0));
+                right.removeFirst();
+                flush(node); flush(right); flush(parent);
+            } else {
+                if (!node.absorb(parent.keyAt(0), right)) return;
+                parent.removeAt(0);
+                flush(node); flush(parent);
+                Superblock.freePage(fm, right.pageId());
+                d.internals++;
+            }
+        }
+    }
+
+    // Page access of a structure change: latched on first touch, released when it ends
+    private ByteBuffer readNode(int pid) throws IOException {
+        held.lock(pid);
+        pageReads.increment();
+        return fm.readPage(pid);
+    }
+    private void flush(LeafPage p) throws IOException { held.lock(p.pageId()); p.flush(); pageWrites.increment(); }
+    private void flush(PostingLeafPage p) throws IOException { held.lock(p.pageId()); p.flush(); pageWrites.increment(); }
+    private void flush(InternalPage p) throws IOException { held.lock(p.pageId()); p.flush(); pageWrites.increment(); }
+
+    // Visit heap records, reading each heap page once; RIDs of deleted records are skipped
+    private void fetch(List<HeapFile.RecordId> rids, QueryStats st, RecordVisitor v) throws IOException {
+        rids.sort(Comparator.<HeapFile.RecordId>comparingInt(r -> r.pageId).thenComparingInt(r -> r.slot));
+        GameRecordView view = new GameRecordView();
+        ByteBuffer decodeBuf = null;
+        int curPid = -1;
+        ByteBuffer page = null, data = null;
+        for (HeapFile.RecordId rid : rids) {
+            if (rid.pageId != curPid) {
+                curPid = rid.pageId;
+                page = fm.readPage(curPid);
+                if (HeapFile.isPacked(page) && decodeBuf == null) decodeBuf = HeapFile.newDecodeBuffer();
+                data = HeapFile.decoded(page, decodeBuf);
+                st.heapPages++;
+            }
+            int off = HeapFile.recordOffset(page, rid.slot);
+            if (off < 0) continue;   // deleted after the index entry was read (heap row goes first)
+            v.accept(view.wrap(data, off, HeapFile.columnStride(page)), rid);
+        }
+    }
+}
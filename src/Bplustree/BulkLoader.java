@@ -1,104 +1,381 @@
 package Bplustree;
 
 import IO.FileManager;
+import storage.HeapCursor;
 import storage.HeapFile;
+import storage.Superblock;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
 public final class BulkLoader {
 
-    // Pair of (key, RID) for sorting and leaf fill
-    public static final class KeyRid {
-        public final float key;
-        public final HeapFile.RecordId rid;
-        public KeyRid(float key, HeapFile.RecordId rid) { this.key = key; this.rid = rid; }
+    // Most entries buffered in memory per sorted run (8 bytes each, plus the radix scratch):
+    // 4M = 64 MB at most; smaller inputs only take what they need
+    public static final int DEFAULT_RUN_ENTRIES = 4 << 20;
+
+    // Build-time fill factor, percent of each page filled, for the leaves and the internal
+    // levels. FULL packs pages for read-only data; less leaves room for inserts, so the first
+    // ones after a build do not split every node they touch.
+    public static final class Fill {
+        public final int leaf, internal;
+        public Fill(int leaf, int internal) {
+            if (leaf < 10 || leaf > 100 || internal < 10 || internal > 100)
+                throw new IllegalArgumentException("Fill factors are 10 to 100 percent");
+            this.leaf = leaf; this.internal = internal;
+        }
+        int leafEntries(int capacity) { return Math.max(1, capacity * leaf / 100); }
+        @Override public String toString() { return "leaves " + leaf + "%, internal nodes " + internal + "%"; }
     }
 
+    public static final Fill FULL = new Fill(100, 100);
+
     // Minimal info per child to build parents
     private static final class NodeRef {
         final int pageId;
-        final float minKey;
-        NodeRef(int pageId, float minKey) { this.pageId = pageId; this.minKey = minKey; }
+        final long sep;   // separator from the node before it (shortest, KeyDescriptor.separator)
+        NodeRef(int pageId, long sep) { this.pageId = pageId; this.sep = sep; }
     }
 
     public static final class Stats {
+        public final KeyDescriptor key;
         public final int rootPid, height, leafCount, internalCount;
-        public final float[] rootKeys;  // separator keys in the root (empty if root is a leaf)
-        public Stats(int rootPid, int height, int leafCount, int internalCount, float[] rootKeys) {
-            this.rootPid = rootPid; this.height = height; this.leafCount = leafCount;
-            this.internalCount = internalCount; this.rootKeys = rootKeys;
+        public final int postingCount;  // overflow posting pages (postings indexes)
+        public final long[] rootKeys;   // separator keys in the root (empty if root is a leaf), see key.formatSeparator
+        public final double separatorBytes;  // average key bytes stored per separator (of key.width)
+        public Stats(KeyDescriptor key, int rootPid, int height, int leafCount, int internalCount, int postingCount,
+                     long[] rootKeys, double separatorBytes) {
+            this.key = key; this.rootPid = rootPid; this.height = height; this.leafCount = leafCount;
+            this.internalCount = internalCount; this.postingCount = postingCount; this.rootKeys = rootKeys;
+            this.separatorBytes = separatorBytes;
         }
     }
 
-    // Read all records from heap, build (key, rid) list, sort by key
-    private static List<KeyRid> readAllPairs(HeapFile heap) throws IOException {
-        var rows = heap.scanAll(); // returns List<HeapFile.RecordWithId>
-        List<KeyRid> out = new ArrayList<>(rows.size());
-        for (var rw : rows) out.add(new KeyRid(rw.rec.getFtPctHome(), rw.rid));
-        out.sort(Comparator.comparingDouble(p -> p.key));
-        return out;
-    }
-
     // Helper: read separator keys from an internal page
-    private static float[] readInternalKeys(FileManager fm, int pageId) throws IOException {
+    private static long[] readInternalKeys(FileManager fm, int pageId) throws IOException {
         ByteBuffer b = fm.readPage(pageId);
-        if (b.get(PageLayout.OFF_TYPE) != PageLayout.TYPE_INTERNAL) return new float[0];
-        int k = Short.toUnsignedInt(b.getShort(PageLayout.OFF_KEYCOUNT));
-        float[] keys = new float[k];
-        int base = PageLayout.HEADER_BYTES + PageLayout.INTERNAL_FIRST_CHILD_BYTES;
-        for (int i = 0; i < k; i++) {
-            keys[i] = b.getFloat(base + i * PageLayout.INTERNAL_ENTRY_BYTES);
-        }
+        if (b.get(PageLayout.OFF_TYPE) != PageLayout.TYPE_INTERNAL) return new long[0];
+        InternalPage node = new InternalPage(fm, pageId, b);
+        long[] keys = new long[node.keyCount()];
+        for (int i = 0; i < keys.length; i++) keys[i] = node.keyAt(i);
         return keys;
     }
 
+    // Collect every page of the tree rooted at pid (children before parents, overflow
+    // posting pages before their leaf)
+    private static void collectTree(FileManager fm, int pid, PageSource out) throws IOException {
+        ByteBuffer b = fm.readPage(pid);
+        if (b.get(PageLayout.OFF_TYPE) == PageLayout.TYPE_INTERNAL) {
+            InternalPage node = new InternalPage(fm, pid, b);
+            for (int i = 0; i <= node.keyCount(); i++) collectTree(fm, node.childAt(i), out);
+        } else if (b.get(PageLayout.OFF_TYPE) == PageLayout.TYPE_POSTING_LEAF) {
+            PostingLeafPage leaf = new PostingLeafPage(fm, pid, b);
+            for (int i = 0; i < leaf.keyCount(); i++)
+                if (leaf.isOverflow(i)) out.offerAll(PostingPage.pages(fm, leaf.overflowHead(i)));
+        }
+        out.offer(pid);
+    }
+
+    // Pages for the new tree: pages of the old tree and the free list first, then EOF.
+    // Keeps the superblock out of the per-node path; leftovers go back on the free list once.
+    private static final class PageSource {
+        private final FileManager fm;
+        private int[] pids = new int[64];
+        private int n, next;
+
+        PageSource(FileManager fm) { this.fm = fm; }
+
+        void offer(int pid) {
+            if (n == pids.length) pids = Arrays.copyOf(pids, n * 2);
+            pids[n++] = pid;
+        }
+        void offerAll(int[] more) { for (int pid : more) offer(pid); }
+
+        int take() throws IOException { return next < n ? pids[next++] : fm.allocatePage(); }
+
+        // k pages at once for concurrent writers: reused pages, then a reserved run at EOF
+        // (reserved pages bypass the buffer pool, so every one must be written)
+        int[] take(int k) throws IOException {
+            int[] out = new int[k];
+            int i = 0;
+            while (i < k && next < n) out[i++] = pids[next++];
+            if (i < k) {
+                int first = fm.reservePages(k - i);
+                while (i < k) out[i++] = first++;
+            }
+            return out;
+        }
+
+        void releaseUnused() throws IOException { Superblock.freePages(fm, pids, next, n); }
+    }
+
+    // Drop the previous tree of that name so we don't append forever; its pages are reused first
+    private static PageSource dropIndex(FileManager fm, String name) throws IOException {
+        Superblock.IndexMeta old = Superblock.read(fm).index(name);
+        PageSource pages = new PageSource(fm);
+        if (old != null && old.rootPid > 0) collectTree(fm, old.rootPid, pages);   // may be interleaved with heap pages after inserts
+        pages.offerAll(Superblock.takeFreeList(fm));
+        return pages;
+    }
+
+    // Remove an index: its pages go on the free list and its entry leaves the superblock
+    public static boolean drop(FileManager fm, String name) throws IOException {
+        if (Superblock.read(fm).index(name) == null) return false;
+        dropIndex(fm, name).releaseUnused();
+        Superblock.update(fm, s -> s.indexes.remove(s.index(name)));
+        fm.commit();
+        return true;
+    }
+
+    // The default index (FT_PCT_home)
     public static Stats build(FileManager fm, HeapFile heap) throws IOException {
-        List<KeyRid> pairs = readAllPairs(heap);
+        return build(fm, heap, DEFAULT_RUN_ENTRIES);
+    }
+
+    public static Stats build(FileManager fm, HeapFile heap, int runEntries) throws IOException {
+        return build(fm, heap, BPlusTree.DEFAULT_INDEX, KeyDescriptor.of(Util.FixedRecordSize.COL_FT_PCT_HOME), runEntries);
+    }
+
+    // (Re)build index name on key. runEntries bounds sort memory; larger inputs are sorted
+    // externally in temp runs.
+    public static Stats build(FileManager fm, HeapFile heap, String name, KeyDescriptor key, int runEntries) throws IOException {
+        return build(fm, heap, name, key, runEntries, FULL);
+    }
+
+    public static Stats build(FileManager fm, HeapFile heap, String name, KeyDescriptor key, int runEntries, Fill fill) throws IOException {
+        checkName(fm, name);
+        try (ExternalSort sorter = new ExternalSort(runEntries, key.width, key.include.length)) {
+            if (key.isComposite() || key.include.length > 0) {
+                int[] inc = new int[key.include.length];
+                HeapCursor c = heap.cursor();
+                while (c.next()) sorter.add(key.of(c.view()), c.pageId(), c.slot(), key.included(c.view(), inc));
+            } else {
+                int col = key.columns[0];
+                heap.scanColumn(col, (bits, page, slot) -> sorter.add(KeyDescriptor.normalize(col, bits), page, slot));
+            }
+            return key.postings ? buildPostings(fm, name, key, fill, sorter.finish(), sorter.size())
+                    : build(fm, name, key, fill, sorter.finish(), sorter.size());
+        }
+    }
+
+    // Fail before any page is touched if the superblock has no room for a new index
+    private static void checkName(FileManager fm, String name) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        if (sb.index(name) == null) sb.addIndex(name, new int[1], new int[0]);   // checks name and room; this copy is not written
+    }
+
+    public static Stats buildParallel(FileManager fm, HeapFile heap, int threads) throws IOException {
+        return buildParallel(fm, heap, BPlusTree.DEFAULT_INDEX, KeyDescriptor.of(Util.FixedRecordSize.COL_FT_PCT_HOME), threads);
+    }
+
+    // Same tree as build(), using `threads` workers: key extraction over heap page ranges,
+    // a parallel sort, and leaves filled and written concurrently into pre-assigned pages.
+    // Every leaf's page id is known before any is written, so sibling pointers across
+    // partition boundaries are set directly instead of patched afterwards. Keys are sorted
+    // in memory (8 bytes per record); the few internal levels are built serially.
+    // Composite, covering and postings indexes do not fit the one-long entries and use build().
+    public static Stats buildParallel(FileManager fm, HeapFile heap, String name, KeyDescriptor key, int threads) throws IOException {
+        return buildParallel(fm, heap, name, key, threads, FULL);
+    }
+
+    public static Stats buildParallel(FileManager fm, HeapFile heap, String name, KeyDescriptor key, int threads, Fill fill) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1");
+        if (key.postings || ExternalSort.strideFor(key.width, key.include.length) != 1)
+            return build(fm, heap, name, key, DEFAULT_RUN_ENTRIES, fill);
+        checkName(fm, name);
+        Superblock sb = Superblock.read(fm);
+        PageSource pages = dropIndex(fm, name);
+        fm.dropCache();                    // workers go around the pool from here on
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // 1) keys: one task per heap page range, each packing into its own array
+            int first = sb.heapFirstPid, end = first == 0 ? 0 : sb.heapLastPid + 1;
+            int parts = Math.max(1, Math.min(end - first, threads * 4));
+            List<Callable<long[]>> scans = new ArrayList<>();
+            for (int t = 0; t < parts; t++) {
+                int from = first + (int) ((long) (end - first) * t / parts);
+                int to = first + (int) ((long) (end - first) * (t + 1) / parts);
+                scans.add(() -> {
+                    long[] out = new long[(to - from) * HeapFile.MAX_RECORDS_PER_PAGE];
+                    int[] n = {0};
+                    heap.scanColumn(key.columns[0], from, to, true,
+                            (bits, page, slot) -> out[n[0]++] = ExternalSort.pack(KeyDescriptor.normalize(key.columns[0], bits), page, slot));
+                    return Arrays.copyOf(out, n[0]);
+                });
+            }
+            List<long[]> slices = new ArrayList<>();
+            for (Future<long[]> f : pool.invokeAll(scans)) slices.add(get(f));
+
+            int total = 0;
+            for (long[] sl : slices) total = Math.addExact(total, sl.length);
+            int count = total;
+            long[] entries = new long[count];
+            int at = 0;
+            for (long[] sl : slices) {
+                System.arraycopy(sl, 0, entries, at, sl.length);
+                at += sl.length;
+            }
+
+            // 2) sort (parallelSort forks into the pool it is invoked from)
+            pool.invoke(ForkJoinTask.adapt(() -> Arrays.parallelSort(entries)));
+
+            // 3) leaves: leaf i holds entries [i*cap, (i+1)*cap), same split as build()
+            int cap = fill.leafEntries(PageLayout.leafCapacity(key.width, 0));
+            int leafCount = Math.max(1, (count + cap - 1) / cap);
+            int[] leafPids = pages.take(leafCount);
+            int chunks = Math.min(leafCount, threads * 4);
+            List<Callable<Void>> writes = new ArrayList<>();
+            for (int t = 0; t < chunks; t++) {
+                int from = (int) ((long) leafCount * t / chunks);
+                int to = (int) ((long) leafCount * (t + 1) / chunks);
+                writes.add(() -> {
+                    ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+                    for (int i = from; i < to; i++) {
+                        int next = i + 1 < leafCount ? leafPids[i + 1] : -1;
+                        LeafPage.format(b, entries, i * cap, Math.min(count, (i + 1) * cap), next);
+                        fm.writePageConcurrent(leafPids[i], b);
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> f : pool.invokeAll(writes)) get(f);
+
+            List<NodeRef> leaves = new ArrayList<>(leafCount);
+            for (int i = 0; i < leafCount; i++) {
+                long sep = i == 0 ? Long.MIN_VALUE : key.separator(ExternalSort.keyOf(entries[i * cap - 1]), ExternalSort.keyOf(entries[i * cap]));
+                leaves.add(new NodeRef(leafPids[i], sep));
+            }
+            return finish(fm, name, key, fill, pages, leaves, leafCount, 0, count);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static <T> T get(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during parallel build", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
 
-        // drop previous index so we don't append forever
-        int rpb = (IO.FileManager.PAGE_SIZE - storage.HeapFile.HEADER_BYTES) / Util.FixedRecordSize.RECORD_SIZE;
-        long dataPages = (long) Math.ceil((double) pairs.size() / rpb);
-        long keepPages = 1 + Math.max(0, dataPages); // superblock + heap data pages
-        fm.truncateToPages(keepPages);
+    // Build the tree from (key, RID) entries already in key order
+    private static Stats build(FileManager fm, String name, KeyDescriptor kd, Fill fill, ExternalSort.Cursor pairs, long count) throws IOException {
 
-        // 1) Build leaves (linked list), collecting NodeRefs with minKey
+        PageSource pages = dropIndex(fm, name);
+
+        // 1) Build leaves (linked list), collecting NodeRefs with the separator before each
         List<NodeRef> current = new ArrayList<>();
         LeafPage leaf = null;
         int leafCount = 0;
-        float currentMin = 0;
+        long currentSep = Long.MIN_VALUE, last = 0;
+        int[] inc = new int[kd.include.length];
+        int perLeaf = fill.leafEntries(PageLayout.leafCapacity(kd.width, kd.include.length));
 
-        for (KeyRid p : pairs) {
+        while (pairs.next()) {
+            long key = pairs.key();
             if (leaf == null) {
-                leaf = LeafPage.create(fm);
-                currentMin = p.key;
+                leaf = LeafPage.create(fm, pages.take(), kd);
                 leafCount++;
             }
-            if (leaf.isFull()) {
-                LeafPage next = LeafPage.create(fm);
+            if (leaf.keyCount() >= perLeaf) {
+                LeafPage next = LeafPage.create(fm, pages.take(), kd);
                 leaf.setNext(next.pageId());
                 leaf.flush();
-                current.add(new NodeRef(leaf.pageId(), currentMin));
+                current.add(new NodeRef(leaf.pageId(), currentSep));
 
                 leaf = next;
                 leafCount++;
-                currentMin = p.key;
+                currentSep = kd.separator(last, key);
             }
-            leaf.add(p.key, p.rid);
+            pairs.included(inc);
+            leaf.add(key, pairs.page(), pairs.slot(), inc);
+            last = key;
         }
         if (leaf == null) { // empty dataset -> one empty leaf
-            leaf = LeafPage.create(fm);
+            leaf = LeafPage.create(fm, pages.take(), kd);
             leafCount = 1;
-            currentMin = Float.NEGATIVE_INFINITY;
         }
         leaf.flush();
-        current.add(new NodeRef(leaf.pageId(), currentMin));
+        current.add(new NodeRef(leaf.pageId(), currentSep));
+
+        return finish(fm, name, kd, fill, pages, current, leafCount, 0, count);
+    }
+
+    // Posting-list leaves from (key, RID) entries in key order: the RIDs of one key arrive
+    // together and in RID order, ready to delta-code. Lists over INLINE_MAX go to overflow
+    // posting pages written as they are met.
+    private static Stats buildPostings(FileManager fm, String name, KeyDescriptor kd, Fill fill, ExternalSort.Cursor pairs, long count) throws IOException {
+        PageSource pages = dropIndex(fm, name);
+        int[] postingCount = {0};
+        PostingPage.Pages overflow = new PostingPage.Pages() {
+            @Override public int allocate() throws IOException { postingCount[0]++; return pages.take(); }
+            @Override public void free(int pid) { throw new IllegalStateException("Nothing is rewritten during a build"); }
+        };
+
+        List<NodeRef> current = new ArrayList<>();
+        PostingLeafPage leaf = PostingLeafPage.create(fm, pages.take(), kd);
+        int leafCount = 1;
+        long currentSep = Long.MIN_VALUE, last = 0;
+        int fillBytes = PostingLeafPage.BODY_BYTES * fill.leaf / 100;
+        RidList rids = new RidList();
+
+        boolean more = pairs.next();
+        while (more) {
+            long key = pairs.key();
+            rids.clear();
+            do {
+                rids.add(LeafPage.packRid(pairs.page(), pairs.slot()));
+            } while ((more = pairs.next()) && pairs.key() == key);
+
+            int head = PostingLeafPage.inlineBytes(rids) > PostingLeafPage.INLINE_MAX
+                    ? PostingPage.write(fm, rids, new int[0], overflow) : -1;
+            boolean room = leaf.keyCount() == 0 || leaf.usedBytes() < fillBytes;
+            if (room && append(leaf, key, rids, head)) {
+                last = key;
+                continue;
+            }
+
+            PostingLeafPage next = PostingLeafPage.create(fm, pages.take(), kd);
+            leaf.setNext(next.pageId());
+            leaf.flush();
+            current.add(new NodeRef(leaf.pageId(), currentSep));
+            leaf = next;
+            leafCount++;
+            currentSep = kd.separator(last, key);
+            if (!append(leaf, key, rids, head)) throw new IllegalStateException("Posting entry does not fit an empty leaf");
+            last = key;
+        }
+        leaf.flush();
+        current.add(new NodeRef(leaf.pageId(), currentSep));
+
+        return finish(fm, name, kd, fill, pages, current, leafCount, postingCount[0], count);
+    }
 
+    private static boolean append(PostingLeafPage leaf, long key, RidList rids, int overflowHead) {
+        return overflowHead >= 0 ? leaf.insertOverflow(leaf.keyCount(), key, overflowHead)
+                : leaf.insertList(leaf.keyCount(), key, rids);
+    }
+
+    // Build parents level-by-level over the leaves, then persist the new tree
+    private static Stats finish(FileManager fm, String name, KeyDescriptor key, Fill fill, PageSource pages, List<NodeRef> current,
+                                int leafCount, int postingCount, long count) throws IOException {
         int height = 1;
         int internalCount = 0;
+        long separators = 0, separatorBytes = 0;
 
         // 2) Build parents level-by-level until one root remains
         while (current.size() > 1) {
@@ -106,33 +383,54 @@ public final class BulkLoader {
 
             int i = 0;
             while (i < current.size()) {
-                InternalPage parent = InternalPage.create(fm);
+                InternalPage parent = InternalPage.create(fm, pages.take(), key.width);
                 internalCount++;
 
-                // group up to (capacity + 1) children per internal node
-                int cap = parent.capacity();
-                int start = i;
+                // group children while the separators fit the internal fill factor of the
+                // page; truncated separators fit more of them than full-width ones
                 parent.setFirstChild(current.get(i).pageId);
-                float parentMinKey = current.get(i).minKey;
+                long parentSep = current.get(i).sep;
                 i++;
 
-                int appended = 0;
-                while (i < current.size() && appended < cap) {
-                    parent.append(current.get(i).minKey, current.get(i).pageId);
-                    i++; appended++;
+                while (i < current.size() && parent.fits(current.get(i).sep, (parent.keyCount() + 1) * 100 / fill.internal)) {
+                    parent.append(current.get(i).sep, current.get(i).pageId);
+                    i++;
                 }
                 parent.flush();
+                separators += parent.keyCount();
+                separatorBytes += (long) parent.keyCount() * parent.storedBytes();
 
-                nextLevel.add(new NodeRef(parent.pageId(), parentMinKey));
+                nextLevel.add(new NodeRef(parent.pageId(), parentSep));
             }
 
             current = nextLevel;
             height++;
         }
 
+        pages.releaseUnused();
+
         int rootPid = current.get(0).pageId;
-        float[] rootKeys = (height == 1) ? new float[0] : readInternalKeys(fm, rootPid);
-        return new Stats(rootPid, height, leafCount, internalCount, rootKeys);
+        long[] rootKeys = (height == 1) ? new long[0] : readInternalKeys(fm, rootPid);
+
+        // persist so later processes can open the tree without a rebuild
+        final int h = height, leaves = leafCount, internals = internalCount;
+        Superblock.update(fm, s -> {
+            Superblock.IndexMeta m = s.index(name);
+            if (m == null) m = s.addIndex(name, key.columns, key.include);
+            s.recordCount = count;
+            m.keyColumns = key.columns;
+            m.includeColumns = key.include;
+            m.postings = key.postings;
+            m.postingCount = postingCount;
+            m.indexedCount = count;
+            m.rootPid = rootPid;
+            m.height = h;
+            m.leafCount = leaves;
+            m.internalCount = internals;
+        });
+        fm.commit();   // with a log, a crash mid-build leaves the old index and free list as they were
+        return new Stats(key, rootPid, height, leafCount, internalCount, postingCount, rootKeys,
+                separators == 0 ? 0 : (double) separatorBytes / separators);
     }
 }
 
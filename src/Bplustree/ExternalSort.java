@@ -0,0 +1,279 @@
+package Bplustree;
+
+import IO.FileManager;
+import storage.HeapFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Bounded-memory sort of (key, int page, int slot) entries for BulkLoader.
+// A 4-byte normalized key (KeyDescriptor) without included columns is packed with its RID
+// into one long: key in the high half, RID (page << SLOT_BITS | slot) in the low half, so
+// sorting the longs sorts by (key, page, slot). Wider keys and covering indexes take
+// `stride` longs per entry: [key][rid << 32 | inc0][inc1 << 32 | inc2]...; those are sorted
+// on the key word alone, stably, so entries must be added in RID order (a heap scan is).
+// Entries are buffered in a long[], grown on demand up to runEntries, and LSD radix sorted;
+// each time the buffer is full at that size it is spilled as a run of temp pages. finish()
+// k-way merges the runs with a binary heap of run cursors (one page buffer per run) and
+// streams the result in order.
+final class ExternalSort implements AutoCloseable {
+    static final int RUN_HEADER_BYTES = 4;  // entry count per run page
+    static final int INITIAL_ENTRIES = 1 << 16;   // first buffer size, doubled as entries come in
+
+    // RID packing: enough low bits for every slot of a heap page, the rest for the page id
+    static final int SLOT_BITS = 32 - Integer.numberOfLeadingZeros(HeapFile.MAX_RECORDS_PER_PAGE - 1);
+    static final int MAX_PAGE = (int) ((1L << (32 - SLOT_BITS)) - 1);
+
+    // Sorted output, one entry per next()
+    interface Cursor {
+        boolean next() throws IOException;
+        long key();
+        int page();
+        int slot();
+        void included(int[] dst);   // the entry's included columns
+    }
+
+    private final int stride;        // longs per entry
+    private final int includes;
+    private final int entriesPerRunPage;
+    private long[] buf;
+    private final int maxLongs;      // runEntries * stride: buf spills at this size
+    private long[] scratch;          // radix sort ping-pong buffer, allocated on first sort
+    private int n;                   // entries in buf
+
+    private File tmpFile;            // created on first spill
+    private FileManager tmp;
+    private final List<int[]> runs = new ArrayList<>(); // {firstPage, pageCount}
+    private long total;
+
+    // 4-byte keys, no included columns: one long per entry
+    ExternalSort(int runEntries) {
+        this(runEntries, 4, 0);
+    }
+
+    ExternalSort(int runEntries, int keyWidth, int includes) {
+        if (runEntries <= 0) throw new IllegalArgumentException("runEntries must be > 0");
+        this.stride = strideFor(keyWidth, includes);
+        this.includes = includes;
+        this.entriesPerRunPage = (FileManager.PAGE_SIZE - RUN_HEADER_BYTES) / (8 * stride);
+        this.maxLongs = Math.multiplyExact(runEntries, stride);
+        this.buf = new long[Math.min(maxLongs, INITIAL_ENTRIES * stride)];
+    }
+
+    static int strideFor(int keyWidth, int includes) {
+        return keyWidth == 4 && includes == 0 ? 1 : 1 + (1 + includes + 1) / 2;
+    }
+
+    long size() { return total; }
+    int runCount() { return runs.size(); }
+
+    // ---- packing ----
+
+    static long pack(long key, int page, int slot) {
+        if (key != (int) key) throw new IllegalArgumentException("Key " + key + " wider than 4 bytes");
+        return (key << 32) | (packRid(page, slot) & 0xffffffffL);
+    }
+
+    private static int packRid(int page, int slot) {
+        if (page < 0 || page > MAX_PAGE) throw new IllegalStateException("Page id " + page + " too large to pack");
+        return (page << SLOT_BITS) | slot;
+    }
+
+    static long keyOf(long e) { return e >> 32; }
+
+    // Field access on an entry at a[at]; k counts the ints after the key word (0 = RID)
+    private long keyAt(long[] a, int at) { return stride == 1 ? keyOf(a[at]) : a[at]; }
+    private int ridAt(long[] a, int at) { return stride == 1 ? (int) a[at] : intAt(a, at, 0); }
+    private static int intAt(long[] a, int at, int k) {
+        long w = a[at + 1 + k / 2];
+        return (k & 1) == 0 ? (int) (w >>> 32) : (int) w;
+    }
+    private void includedAt(long[] a, int at, int[] dst) {
+        for (int j = 0; j < includes; j++) dst[j] = intAt(a, at, 1 + j);
+    }
+
+    void add(long key, int page, int slot) throws IOException {
+        add(key, page, slot, null);
+    }
+
+    void add(long key, int page, int slot, int[] included) throws IOException {
+        if (n * stride == buf.length) {
+            if (buf.length < maxLongs) buf = Arrays.copyOf(buf, (int) Math.min(maxLongs, 2L * buf.length));
+            else spill();
+        }
+        int at = n * stride;
+        if (stride == 1) {
+            buf[at] = pack(key, page, slot);
+        } else {
+            buf[at] = key;
+            for (int k = 0; k < stride - 1; k++) buf[at + 1 + k] = 0;
+            for (int k = 0; k <= includes; k++) {
+                long v = (k == 0 ? packRid(page, slot) : included[k - 1]) & 0xffffffffL;
+                buf[at + 1 + k / 2] |= (k & 1) == 0 ? v << 32 : v;
+            }
+        }
+        n++;
+        total++;
+    }
+
+    Cursor finish() throws IOException {
+        if (runs.isEmpty()) {          // everything fit in memory
+            sort();
+            return new ArrayCursor();
+        }
+        if (n > 0) spill();
+        return new MergeCursor();
+    }
+
+    @Override public void close() throws IOException {
+        if (tmp != null) tmp.close();
+        if (tmpFile != null) Files.deleteIfExists(tmpFile.toPath());
+    }
+
+    // ---- run generation ----
+
+    private void spill() throws IOException {
+        if (tmp == null) {
+            tmpFile = File.createTempFile("bulkload", ".run");
+            tmp = new FileManager(tmpFile.getPath(), true, 0); // sequential, no point caching
+        }
+        sort();
+        ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+        int first = -1, count = 0;
+        for (int i = 0; i < n; i += entriesPerRunPage) {
+            int m = Math.min(entriesPerRunPage, n - i);
+            b.clear();
+            b.putInt(m);
+            for (int j = i * stride; j < (i + m) * stride; j++) b.putLong(buf[j]);
+            int pid = tmp.allocatePage();
+            if (first < 0) first = pid;
+            tmp.writePage(pid, b);
+            count++;
+        }
+        runs.add(new int[]{first, count});
+        n = 0;
+    }
+
+    // LSD radix sort of the n entries in buf on 8-bit digits of their first word. Digits
+    // that are the same for every entry (common in the key's exponent bits) are skipped;
+    // the top digit is sign-flipped so the result is in signed long order.
+    private void sort() {
+        if (n < 2) return;
+        if (scratch == null || scratch.length < n * stride) scratch = new long[buf.length];
+        long[] src = buf, dst = scratch;
+        int[] count = new int[256];
+        for (int shift = 0; shift < 64; shift += 8) {
+            Arrays.fill(count, 0);
+            int flip = shift == 56 ? 0x80 : 0;
+            for (int i = 0; i < n * stride; i += stride) count[((int) (src[i] >>> shift) & 0xff) ^ flip]++;
+            if (count[((int) (src[0] >>> shift) & 0xff) ^ flip] == n) continue; // one bucket: nothing to do
+
+            for (int d = 0, sum = 0; d < 256; d++) { int c = count[d]; count[d] = sum; sum += c; }
+            if (stride == 1) {
+                for (int i = 0; i < n; i++) {
+                    long e = src[i];
+                    dst[count[((int) (e >>> shift) & 0xff) ^ flip]++] = e;
+                }
+            } else {
+                for (int i = 0; i < n * stride; i += stride) {
+                    int to = count[((int) (src[i] >>> shift) & 0xff) ^ flip]++ * stride;
+                    System.arraycopy(src, i, dst, to, stride);
+                }
+            }
+            long[] t = src; src = dst; dst = t;
+        }
+        if (src != buf) System.arraycopy(src, 0, buf, 0, n * stride);
+    }
+
+    // ---- output ----
+
+    private final class ArrayCursor implements Cursor {
+        private int at = -stride;
+        public boolean next() { at += stride; return at < n * stride; }
+        public long key() { return keyAt(buf, at); }
+        public int page()  { return ridAt(buf, at) >>> SLOT_BITS; }
+        public int slot()  { return ridAt(buf, at) & ((1 << SLOT_BITS) - 1); }
+        public void included(int[] dst) { includedAt(buf, at, dst); }
+    }
+
+    // Reads one run sequentially, one page at a time
+    private final class RunReader {
+        private int nextPage;
+        private final int endPage;
+        private ByteBuffer page;
+        private int left;      // entries left in page
+        final long[] entry = new long[stride];
+
+        RunReader(int[] run) { nextPage = run[0]; endPage = run[0] + run[1]; }
+
+        boolean advance() throws IOException {
+            if (left == 0) {
+                if (nextPage >= endPage) return false;
+                page = tmp.readPage(nextPage++);
+                left = page.getInt();
+            }
+            for (int k = 0; k < stride; k++) entry[k] = page.getLong();
+            left--;
+            return true;
+        }
+    }
+
+    private final class MergeCursor implements Cursor {
+        private final RunReader[] heap;   // binary min-heap on the readers' current entries
+        private int size;
+        private RunReader cur;
+
+        MergeCursor() throws IOException {
+            heap = new RunReader[runs.size()];
+            for (int[] run : runs) {
+                RunReader r = new RunReader(run);
+                if (r.advance()) heap[size++] = r;
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) siftDown(i);
+        }
+
+        // (key, RID) order; with stride 1 both are in the one long
+        private boolean less(RunReader a, RunReader b) {
+            if (a.entry[0] != b.entry[0] || stride == 1) return a.entry[0] < b.entry[0];
+            return Integer.compareUnsigned(ridAt(a.entry, 0), ridAt(b.entry, 0)) < 0;
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int l = 2 * i + 1, r = l + 1, m = i;
+                if (l < size && less(heap[l], heap[m])) m = l;
+                if (r < size && less(heap[r], heap[m])) m = r;
+                if (m == i) return;
+                RunReader t = heap[i]; heap[i] = heap[m]; heap[m] = t;
+                i = m;
+            }
+        }
+
+        public boolean next() throws IOException {
+            // refill the heap with the run that produced the previous entry
+            if (cur != null) {
+                if (cur.advance()) heap[size++] = cur;
+                int i = size - 1;
+                while (i > 0 && less(heap[i], heap[(i - 1) / 2])) {
+                    RunReader t = heap[i]; heap[i] = heap[(i - 1) / 2]; heap[(i - 1) / 2] = t;
+                    i = (i - 1) / 2;
+                }
+            }
+            if (size == 0) { cur = null; return false; }
+            cur = heap[0];
+            heap[0] = heap[--size];
+            siftDown(0);
+            return true;
+        }
+
+        public long key() { return keyAt(cur.entry, 0); }
+        public int page()  { return ridAt(cur.entry, 0) >>> SLOT_BITS; }
+        public int slot()  { return ridAt(cur.entry, 0) & ((1 << SLOT_BITS) - 1); }
+        public void included(int[] dst) { includedAt(cur.entry, 0, dst); }
+    }
+}
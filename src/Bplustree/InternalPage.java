@@ -5,42 +5,260 @@ import IO.FileManager;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+// Separators are stored truncated, in the unsigned form of KeyDescriptor.unsigned: the
+// leading bytes every separator of the node shares are kept once in the header (prefix),
+// and trailing bytes that are zero in all of them are not stored (shortest separators,
+// KeyDescriptor.separator, end in zeros). An entry is the storedBytes in between plus the
+// child, so alike keys give a bigger fanout. A key the encoding cannot hold re-encodes the
+// node, as long as its entries still fit the page.
 public class InternalPage {
     private final FileManager fm;
     private final int pageId;
     private final ByteBuffer buf;
+    private final int width;      // key bytes, from the header
+    private int prefixBytes;      // leading bytes shared by every separator
+    private int storedBytes;      // bytes stored per separator after the prefix
+    private long prefix;          // unsigned key holding the prefix, zero after it
+    private int entryBytes;
 
-    private InternalPage(FileManager fm, int pageId, ByteBuffer buf) {
+    InternalPage(FileManager fm, int pageId, ByteBuffer buf) {
         this.fm = fm; this.pageId = pageId; this.buf = buf;
+        this.width = buf.get(PageLayout.OFF_KEY_WIDTH);
+        this.prefixBytes = buf.get(PageLayout.OFF_PREFIX_BYTES);
+        this.storedBytes = buf.get(PageLayout.OFF_STORED_BYTES);
+        this.prefix = buf.getLong(PageLayout.OFF_PREFIX);
+        this.entryBytes = PageLayout.internalEntryBytes(storedBytes);
     }
 
-    public static InternalPage create(FileManager fm) throws IOException {
-        int pid = fm.allocatePage();
+    public static InternalPage create(FileManager fm, int keyWidth) throws IOException {
+        return create(fm, fm.allocatePage(), keyWidth);
+    }
+
+    // Initialise an already allocated page (e.g. one taken off the free list)
+    public static InternalPage create(FileManager fm, int pid, int keyWidth) throws IOException {
         ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
         b.put(PageLayout.OFF_TYPE, PageLayout.TYPE_INTERNAL);
         b.putShort(PageLayout.OFF_KEYCOUNT, (short) 0);
+        b.put(PageLayout.OFF_KEY_WIDTH, (byte) keyWidth);
+        b.put(PageLayout.OFF_STORED_BYTES, (byte) keyWidth);  // until the first key sets the encoding
         fm.writePage(pid, b);
         return new InternalPage(fm, pid, b);
     }
 
+    public static InternalPage open(FileManager fm, int pageId) throws IOException {
+        ByteBuffer b = fm.readPage(pageId);
+        if (b.get(PageLayout.OFF_TYPE) != PageLayout.TYPE_INTERNAL)
+            throw new IllegalStateException("Page " + pageId + " is not an internal page");
+        return new InternalPage(fm, pageId, b);
+    }
+
     public int pageId() { return pageId; }
     public int keyCount() { return Short.toUnsignedInt(buf.getShort(PageLayout.OFF_KEYCOUNT)); }
-    public int capacity() { return PageLayout.internalCapacity(); }
-    public boolean isFull() { return keyCount() >= capacity(); }
+    public int storedBytes() { return storedBytes; }
+    public int capacity() { return PageLayout.internalCapacity(width, storedBytes); }   // at the current encoding
+    public int minKeys() { return PageLayout.internalCapacity(width) / 2; }   // fewer = underflow after delete
+
+    // Whether keys entries fit once key is among them (insertAt/append: keyCount() + 1,
+    // setKeyAt: keyCount())
+    public boolean fits(long key, int keys) {
+        long u = KeyDescriptor.unsigned(key, width);
+        return keys <= PageLayout.internalCapacity(width, endWith(u) - prefixWith(u));
+    }
+
+    public boolean canInsert(long key) { return fits(key, keyCount() + 1); }
+    // Takes one more key of any value without splitting (room for it at full width)
+    public boolean isSafe() { return keyCount() < PageLayout.internalCapacity(width); }
 
     public void setFirstChild(int childPid) {
         buf.putInt(PageLayout.HEADER_BYTES, childPid);
     }
 
+    private int entryOff(int i) {
+        return PageLayout.HEADER_BYTES + PageLayout.INTERNAL_FIRST_CHILD_BYTES + i * entryBytes;
+    }
+
+    public long keyAt(int i) {
+        int off = entryOff(i);
+        long v = 0;
+        for (int j = 0; j < storedBytes; j++) v = v << 8 | (buf.get(off + j) & 0xff);
+        long u = storedBytes == 0 ? prefix : prefix | v << 64 - 8 * (prefixBytes + storedBytes);
+        return KeyDescriptor.signed(u, width);
+    }
+
+    // child 0 = firstChild, child i (i >= 1) = right child of separator i-1
+    public int childAt(int i) {
+        return i == 0 ? buf.getInt(PageLayout.HEADER_BYTES) : buf.getInt(entryOff(i - 1) + storedBytes);
+    }
+
+    // Binary search for the leftmost child that can hold k. A separator is >= every key to
+    // its left and <= every key to its right, so duplicates of a separator may also end the
+    // child to its left: descend past separators < k only.
+    public int childIndexFor(long k) {
+        int lo = 0, hi = keyCount();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyAt(mid) < k) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Rightmost child that can hold k (insert side: equal keys go after existing ones)
+    public int childIndexAfter(long k) {
+        int lo = 0, hi = keyCount();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyAt(mid) <= k) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private void setKeyCount(int n) { buf.putShort(PageLayout.OFF_KEYCOUNT, (short) n); }
+
+    private void putEntry(int i, long key, int rightChild) {
+        int off = entryOff(i);
+        long u = KeyDescriptor.unsigned(key, width) << 8 * prefixBytes;   // drop the prefix
+        for (int j = 0; j < storedBytes; j++) buf.put(off + j, (byte) (u >>> 56 - 8 * j));
+        buf.putInt(off + storedBytes, rightChild);
+    }
+
+    // ---- encoding ----
+
+    // Bytes of u up to its last non-zero one
+    private static int significant(long u) { return u == 0 ? 0 : 8 - Long.numberOfTrailingZeros(u) / 8; }
+
+    private static int common(long a, long b) { return a == b ? 8 : Long.numberOfLeadingZeros(a ^ b) / 8; }
+
+    // Prefix / end of the stored bytes of the encoding that holds this node's keys and u
+    private int prefixWith(long u) {
+        return keyCount() == 0 ? significant(u) : Math.min(prefixBytes, common(prefix, u));
+    }
+    private int endWith(long u) {
+        return keyCount() == 0 ? significant(u) : Math.max(prefixBytes + storedBytes, significant(u));
+    }
+
+    // Make room for key in the encoding, re-encoding the entries if it needs more bytes
+    private void fit(long key, int keys) {
+        if (!fits(key, keys)) throw new IllegalStateException("Internal page " + pageId + " is full");
+        long u = KeyDescriptor.unsigned(key, width);
+        int p = prefixWith(u), e = endWith(u);
+        if (keyCount() > 0 && p == prefixBytes && e - p == storedBytes) return;
+        int n = keyCount();
+        long[] keys0 = new long[n];
+        int[] children = new int[n + 1];
+        children[0] = childAt(0);
+        for (int i = 0; i < n; i++) { keys0[i] = keyAt(i); children[i + 1] = childAt(i + 1); }
+        setEncoding(p, e - p, u);
+        for (int i = 0; i < n; i++) putEntry(i, keys0[i], children[i + 1]);
+    }
+
+    private void setEncoding(int p, int stored, long u) {
+        prefixBytes = p;
+        storedBytes = stored;
+        prefix = p == 0 ? 0 : u & -1L << 64 - 8 * p;
+        entryBytes = PageLayout.internalEntryBytes(stored);
+        buf.put(PageLayout.OFF_PREFIX_BYTES, (byte) p);
+        buf.put(PageLayout.OFF_STORED_BYTES, (byte) stored);
+        buf.putLong(PageLayout.OFF_PREFIX, prefix);
+    }
+
+    // Rewrite the node as keys [from, to) with first child children[from] and children[j + 1]
+    // right of keys[j], in the tightest encoding for them; false (and no change) if they do
+    // not fit
+    private boolean write(long[] keys, int[] children, int from, int to) {
+        int e = 0;
+        for (int j = from; j < to; j++) e = Math.max(e, significant(KeyDescriptor.unsigned(keys[j], width)));
+        long lo = from < to ? KeyDescriptor.unsigned(keys[from], width) : 0;
+        int p = from < to ? Math.min(e, common(lo, KeyDescriptor.unsigned(keys[to - 1], width))) : 0;   // keys are sorted
+        if (to - from > PageLayout.internalCapacity(width, e - p)) return false;
+        setEncoding(p, e - p, lo);
+        setFirstChild(children[from]);
+        for (int j = from; j < to; j++) putEntry(j - from, keys[j], children[j + 1]);
+        setKeyCount(to - from);
+        return true;
+    }
+
+    // ---- changes ----
+
+    // Child idx was split: add its new right sibling as child idx + 1 with separator sepKey
+    // (the caller checked canInsert)
+    public void insertAt(int idx, long sepKey, int rightChildPid) {
+        int n = keyCount();
+        fit(sepKey, n + 1);
+        buf.put(entryOff(idx + 1), buf, entryOff(idx), (n - idx) * entryBytes);
+        putEntry(idx, sepKey, rightChildPid);
+        setKeyCount(n + 1);
+    }
+
+    // Remove separator i together with its right child (child i + 1)
+    public void removeAt(int i) {
+        int n = keyCount();
+        buf.put(entryOff(i), buf, entryOff(i + 1), (n - i - 1) * entryBytes);
+        setKeyCount(n - 1);
+    }
+
+    // Remove child 0 and separator 0; child 1 becomes the first child
+    public void removeFirst() {
+        int c1 = childAt(1);
+        removeAt(0);
+        setFirstChild(c1);
+    }
+
+    // New first child, with sepKey between it and the old first child
+    public void insertFirst(long sepKey, int childPid) {
+        insertAt(0, sepKey, childAt(0));
+        setFirstChild(childPid);
+    }
+
+    // Replace separator i (the caller checked fits(key, keyCount()))
+    public void setKeyAt(int i, long key) {
+        fit(key, keyCount());
+        putEntry(i, key, childAt(i + 1));
+    }
+
+    // insertAt on a node without room for sepKey: this page keeps the lower keys, right (an
+    // empty new internal page) gets the upper keys, and the middle key is returned to be
+    // pushed to the parent. Each half is re-encoded for its own keys.
+    public long splitInsert(int idx, long sepKey, int rightChildPid, InternalPage right) {
+        int n = keyCount();
+        long[] keys = new long[n + 1];
+        int[] children = new int[n + 2];
+        children[0] = childAt(0);
+        for (int i = 0, j = 0; j <= n; j++) {
+            if (j == idx) { keys[j] = sepKey; children[j + 1] = rightChildPid; continue; }
+            keys[j] = keyAt(i);
+            children[j + 1] = childAt(i + 1);
+            i++;
+        }
+
+        int mid = (n + 1) / 2;
+        if (!write(keys, children, 0, mid) || !right.write(keys, children, mid + 1, n + 1))
+            throw new IllegalStateException("Split halves of internal page " + pageId + " do not fit");
+        return keys[mid];
+    }
+
     // Append (separatorKey, rightChildPid)
-    public void append(float sepKey, int rightChildPid) {
+    public void append(long sepKey, int rightChildPid) {
         int i = keyCount();
-        int off = PageLayout.HEADER_BYTES + PageLayout.INTERNAL_FIRST_CHILD_BYTES + i * PageLayout.INTERNAL_ENTRY_BYTES;
-        buf.putFloat(off, sepKey);
-        buf.putInt(off + 4, rightChildPid);
-        buf.putShort(PageLayout.OFF_KEYCOUNT, (short) (i + 1));
+        fit(sepKey, i + 1);
+        putEntry(i, sepKey, rightChildPid);
+        setKeyCount(i + 1);
+    }
+
+    // Merge: pull sepKey down from the parent and move every entry of the right sibling onto
+    // the end of this node; false (nothing changed) if the result does not fit one page
+    public boolean absorb(long sepKey, InternalPage right) {
+        int n = keyCount(), m = right.keyCount();
+        long[] keys = new long[n + 1 + m];
+        int[] children = new int[n + m + 2];
+        children[0] = childAt(0);
+        for (int i = 0; i < n; i++) { keys[i] = keyAt(i); children[i + 1] = childAt(i + 1); }
+        keys[n] = sepKey;
+        children[n + 1] = right.childAt(0);
+        for (int i = 0; i < m; i++) { keys[n + 1 + i] = right.keyAt(i); children[n + 2 + i] = right.childAt(i + 1); }
+        return write(keys, children, 0, keys.length);
     }
 
     public void flush() throws IOException { fm.writePage(pageId, buf); }
 }
-
@@ -0,0 +1,233 @@
+package Bplustree;
+
+import Util.FixedRecordSize;
+import model.GameRecord;
+import model.GameRecordView;
+
+import java.nio.ByteBuffer;
+import java.time.YearMonth;
+import java.util.Arrays;
+
+// What an index is keyed on, and which columns its leaf entries carry. The tree itself only
+// sees normalized keys: each key column's 4 raw bytes mapped to an int whose signed order is
+// the column's order (ints as they are, floats with their sign/magnitude bits turned into
+// two's complement, as ExternalSort packs them). One column is that int as a long; two are
+// (first << 32 | second with its sign bit flipped), so long order is (first, second) order.
+// Nodes store keys in width bytes; normalized keys are whole numbers, so an exclusive bound
+// k is the inclusive bound k - 1.
+// Included columns are copied raw into every leaf entry after the RID, so queries that only
+// need key and included columns never read a heap page. A postings index instead stores each
+// distinct key once with the list of its RIDs (PostingLeafPage); it includes no columns.
+public final class KeyDescriptor {
+    public static final int MAX_KEY_COLUMNS = 2;     // a normalized key is one long
+
+    public final int[] columns;      // key columns, most significant first
+    public final int[] include;      // columns stored in the leaf entries, in column order
+    public final int width;          // bytes per key in leaf and internal entries
+    public final boolean postings;   // posting-list leaves
+
+    private KeyDescriptor(int[] columns, int[] include, boolean postings) {
+        this.columns = columns;
+        this.include = include;
+        this.width = 4 * columns.length;
+        this.postings = postings;
+    }
+
+    public static KeyDescriptor of(int column) {
+        return of(new int[]{column}, new int[0]);
+    }
+
+    public static KeyDescriptor of(int[] columns, int[] include) {
+        return of(columns, include, false);
+    }
+
+    public static KeyDescriptor of(int[] columns, int[] include, boolean postings) {
+        if (postings && include.length > 0) throw new IllegalArgumentException("A postings index cannot include columns");
+        if (columns.length == 0 || columns.length > MAX_KEY_COLUMNS)
+            throw new IllegalArgumentException("An index key has 1 to " + MAX_KEY_COLUMNS + " columns");
+        for (int c : columns) checkColumn(c);
+        for (int c : include) checkColumn(c);
+        int[] inc = include.clone();
+        Arrays.sort(inc);
+        for (int i = 1; i < inc.length; i++)
+            if (inc[i] == inc[i - 1]) throw new IllegalArgumentException("Column " + inc[i] + " included twice");
+        return new KeyDescriptor(columns.clone(), inc, postings);
+    }
+
+    private static void checkColumn(int c) {
+        if (c < 0 || c >= FixedRecordSize.COLUMN_NAMES.length) throw new IllegalArgumentException("No column " + c);
+    }
+
+    public boolean isComposite() { return columns.length > 1; }
+
+    // Position of col among the included columns, -1 if it is not included
+    public int includeIndex(int col) {
+        for (int j = 0; j < include.length; j++) if (include[j] == col) return j;
+        return -1;
+    }
+
+    // ---- column values -> key ----
+
+    static int normalize(int col, int bits) { return FixedRecordSize.isFloat(col) ? bits ^ ((bits >> 31) & 0x7fffffff) : bits; }
+
+    // Key from the raw bytes of each key column, in key order
+    public long compose(int... bits) {
+        if (bits.length != columns.length) throw new IllegalArgumentException("Key has " + columns.length + " columns");
+        long k = normalize(columns[0], bits[0]);
+        if (columns.length == 2) k = k << 32 | ((normalize(columns[1], bits[1]) ^ Integer.MIN_VALUE) & 0xffffffffL);
+        return k;
+    }
+
+    // Raw bytes of key column i
+    public int keyBits(long key, int i) {
+        int n = columns.length == 1 ? (int) key : i == 0 ? (int) (key >> 32) : (int) key ^ Integer.MIN_VALUE;
+        return normalize(columns[i], n);    // the mapping is its own inverse
+    }
+
+    // Single-column keys from a typed value (query bounds in code)
+    public long ofInt(int v) { return FixedRecordSize.isFloat(single()) ? ofFloat(v) : v; }
+    public long ofFloat(float v) { return FixedRecordSize.isFloat(single()) ? normalize(single(), Float.floatToIntBits(v)) : (long) v; }
+
+    private int single() {
+        if (isComposite()) throw new IllegalStateException("Composite key; use compose()");
+        return columns[0];
+    }
+
+    public long of(GameRecord r) {
+        return columns.length == 1 ? normalize(columns[0], r.getColumnBits(columns[0]))
+                : compose(r.getColumnBits(columns[0]), r.getColumnBits(columns[1]));
+    }
+
+    public long of(GameRecordView r) {
+        return columns.length == 1 ? normalize(columns[0], r.getColumnBits(columns[0]))
+                : compose(r.getColumnBits(columns[0]), r.getColumnBits(columns[1]));
+    }
+
+    // Record in the heap's row encoding (FixedRecordSize.write) at off
+    public long of(byte[] rec, int off) {
+        return columns.length == 1 ? normalize(columns[0], bitsAt(rec, off, columns[0]))
+                : compose(bitsAt(rec, off, columns[0]), bitsAt(rec, off, columns[1]));
+    }
+
+    // Included columns of a record into dst (include.length ints); returns dst
+    public int[] included(GameRecord r, int[] dst) {
+        for (int j = 0; j < include.length; j++) dst[j] = r.getColumnBits(include[j]);
+        return dst;
+    }
+
+    public int[] included(GameRecordView r, int[] dst) {
+        for (int j = 0; j < include.length; j++) dst[j] = r.getColumnBits(include[j]);
+        return dst;
+    }
+
+    public int[] included(byte[] rec, int off, int[] dst) {
+        for (int j = 0; j < include.length; j++) dst[j] = bitsAt(rec, off, include[j]);
+        return dst;
+    }
+
+    private static int bitsAt(byte[] rec, int off, int col) {
+        int at = off + FixedRecordSize.offsetOf(col);
+        return (rec[at] & 0xff) << 24 | (rec[at + 1] & 0xff) << 16 | (rec[at + 2] & 0xff) << 8 | (rec[at + 3] & 0xff);
+    }
+
+    // ---- text ----
+
+    // Query bounds as typed on a command line: one value per key column, comma separated,
+    // dates in any form LoadGames accepts
+    public long parse(String s) {
+        String[] parts = s.split(",", -1);
+        if (parts.length != columns.length)
+            throw new IllegalArgumentException("Key of " + this + " needs " + columns.length + " comma-separated values: " + s);
+        int[] bits = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) bits[i] = parseBits(columns[i], parts[i].trim());
+        return compose(bits);
+    }
+
+    static int parseBits(int col, String s) {
+        if (col == FixedRecordSize.COL_GAME_DATE) return FixedRecordSize.parseDateToInt(s);
+        return FixedRecordSize.isFloat(col) ? Float.floatToIntBits(Float.parseFloat(s)) : Integer.parseInt(s);
+    }
+
+    static String formatBits(int col, int bits) {
+        if (col == FixedRecordSize.COL_GAME_DATE) return FixedRecordSize.formatDateInt(bits);
+        return FixedRecordSize.isFloat(col) ? Float.toString(Float.intBitsToFloat(bits)) : Integer.toString(bits);
+    }
+
+    public String format(long key) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) sb.append(i == 0 ? "" : ",").append(formatBits(columns[i], keyBits(key, i)));
+        return sb.toString();
+    }
+
+    public String format(long[] keys) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < keys.length; i++) sb.append(i == 0 ? "" : ", ").append(format(keys[i]));
+        return sb.append(']').toString();
+    }
+
+    // ---- node pages ----
+
+    static long get(ByteBuffer b, int off, int width) { return width == 4 ? b.getInt(off) : b.getLong(off); }
+
+    static void put(ByteBuffer b, int off, int width, long key) {
+        if (width == 4) b.putInt(off, (int) key);
+        else b.putLong(off, key);
+    }
+
+    // Key as an unsigned long, left-aligned: byte 0 is the most significant, and unsigned
+    // order is key order. Internal nodes truncate separators in this form.
+    static long unsigned(long key, int width) {
+        return width == 4 ? (long) ((int) key ^ Integer.MIN_VALUE) << 32 : key ^ Long.MIN_VALUE;
+    }
+
+    static long signed(long u, int width) {
+        return width == 4 ? (int) (u >>> 32) ^ Integer.MIN_VALUE : u ^ Long.MIN_VALUE;
+    }
+
+    // Shortest separator between adjacent nodes whose keys end at left and start at right:
+    // the s with left < s <= right whose unsigned form ends in the most zero bits (right if
+    // the two are equal), so internal nodes can drop its trailing bytes. A composite key is
+    // only cut between its columns: right's first column with the second left open (all
+    // zero) when the first columns differ, else right itself, so the first column of a
+    // separator is always a real value.
+    public long separator(long left, long right) {
+        if (left >= right) return right;
+        long ul = unsigned(left, width), ur = unsigned(right, width);
+        if (isComposite()) return (ul ^ ur) >>> 32 != 0 ? signed(ur & 0xffffffff00000000L, width) : right;
+        return signed(ur & -Long.highestOneBit(ul ^ ur), width);
+    }
+
+    // A separator for reports. Separators are bounds, not keys: a second column left open
+    // prints as *, and a date cut inside its bits (no calendar date) as ~ and its raw number.
+    public String formatSeparator(long sep) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            sb.append(i == 0 ? "" : ",");
+            int bits = keyBits(sep, i);
+            if (i == 1 && (unsigned(sep, width) & 0xffffffffL) == 0) sb.append('*');
+            else if (columns[i] == FixedRecordSize.COL_GAME_DATE && !isDate(bits)) sb.append('~').append(bits);
+            else sb.append(formatBits(columns[i], bits));
+        }
+        return sb.toString();
+    }
+
+    public String formatSeparators(long[] seps) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < seps.length; i++) sb.append(i == 0 ? "" : ", ").append(formatSeparator(seps[i]));
+        return sb.append(']').toString();
+    }
+
+    // yyyymmdd with a month and day that exist
+    private static boolean isDate(int v) {
+        int y = v / 10000, m = v / 100 % 100, d = v % 100;
+        return v > 0 && m >= 1 && m <= 12 && d >= 1 && d <= YearMonth.of(y, m).lengthOfMonth();
+    }
+
+    @Override public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) sb.append(i == 0 ? "" : ", ").append(FixedRecordSize.COLUMN_NAMES[columns[i]]);
+        for (int j = 0; j < include.length; j++) sb.append(j == 0 ? " include " : ", ").append(FixedRecordSize.COLUMN_NAMES[include[j]]);
+        if (postings) sb.append(" (postings)");
+        return sb.toString();
+    }
+}
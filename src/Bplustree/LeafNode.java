@@ -0,0 +1,9 @@
+package Bplustree;
+
+// What a scan needs from either leaf format (LeafPage, PostingLeafPage)
+interface LeafNode {
+    int keyCount();
+    long keyAt(int i);
+    int lowerBound(long k);   // first i with keyAt(i) >= k
+    int next();               // right sibling, -1 = last leaf
+}
@@ -5,42 +5,187 @@ import storage.HeapFile;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
-public class LeafPage {
+public class LeafPage implements LeafNode {
     private final FileManager fm;
     private final int pageId;
     private final ByteBuffer buf;
+    private final int width;      // key bytes, from the header
+    private final int includes;   // included columns per entry, from the header
+    private final int entryBytes;
 
-    private LeafPage(FileManager fm, int pageId, ByteBuffer buf) {
+    LeafPage(FileManager fm, int pageId, ByteBuffer buf) {
         this.fm = fm; this.pageId = pageId; this.buf = buf;
+        this.width = buf.get(PageLayout.OFF_KEY_WIDTH);
+        this.includes = buf.get(PageLayout.OFF_INCLUDES);
+        this.entryBytes = PageLayout.leafEntryBytes(width, includes);
     }
 
-    public static LeafPage create(FileManager fm) throws IOException {
-        int pid = fm.allocatePage();
+    public static LeafPage create(FileManager fm, KeyDescriptor key) throws IOException {
+        return create(fm, fm.allocatePage(), key);
+    }
+
+    // Initialise an already allocated page (e.g. one taken off the free list)
+    public static LeafPage create(FileManager fm, int pid, KeyDescriptor key) throws IOException {
         ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
         b.put(PageLayout.OFF_TYPE, PageLayout.TYPE_LEAF);
         b.putShort(PageLayout.OFF_KEYCOUNT, (short) 0);
+        b.put(PageLayout.OFF_KEY_WIDTH, (byte) key.width);
+        b.put(PageLayout.OFF_INCLUDES, (byte) key.include.length);
         b.putInt(PageLayout.OFF_NEXT, -1);
         fm.writePage(pid, b);
         return new LeafPage(fm, pid, b);
     }
 
+    public static LeafPage open(FileManager fm, int pageId) throws IOException {
+        ByteBuffer b = fm.readPage(pageId);
+        if (b.get(PageLayout.OFF_TYPE) != PageLayout.TYPE_LEAF)
+            throw new IllegalStateException("Page " + pageId + " is not a leaf page");
+        return new LeafPage(fm, pageId, b);
+    }
+
     public int pageId() { return pageId; }
     public int keyCount() { return Short.toUnsignedInt(buf.getShort(PageLayout.OFF_KEYCOUNT)); }
-    public int capacity() { return PageLayout.leafCapacity(); }
+    public int capacity() { return PageLayout.leafCapacity(width, includes); }
     public boolean isFull() { return keyCount() >= capacity(); }
+    public int minKeys() { return capacity() / 2; }   // fewer = underflow after delete
     public void setNext(int nextPid) { buf.putInt(PageLayout.OFF_NEXT, nextPid); }
+    public int next() { return buf.getInt(PageLayout.OFF_NEXT); } // -1 = last leaf
+
+    private int entryOff(int i) { return PageLayout.HEADER_BYTES + i * entryBytes; }
+
+    // The RID is stored as one int, page << SLOT_BITS | slot, the same packing as the low
+    // half of an ExternalSort entry
+    static int packRid(int page, int slot) {
+        if (page < 0 || page > ExternalSort.MAX_PAGE) throw new IllegalStateException("Page id " + page + " too large to pack");
+        return page << ExternalSort.SLOT_BITS | slot;
+    }
+
+    public long keyAt(int i) { return KeyDescriptor.get(buf, entryOff(i), width); }
+    private int packedRidAt(int i) { return buf.getInt(entryOff(i) + width); }
+    public HeapFile.RecordId ridAt(int i) { return unpackRid(packedRidAt(i)); }
+
+    static HeapFile.RecordId unpackRid(int r) {
+        return new HeapFile.RecordId(r >>> ExternalSort.SLOT_BITS, r & ((1 << ExternalSort.SLOT_BITS) - 1));
+    }
 
-    // Append one (key, RID) — bulk loader feeds these in sorted order
-    public void add(float key, HeapFile.RecordId rid) {
+    // Included column j of entry i (raw 4 bytes, see KeyDescriptor.include)
+    public int includedAt(int i, int j) { return buf.getInt(entryOff(i) + width + PageLayout.RID_BYTES + j * PageLayout.INCLUDE_BYTES); }
+
+    // All included columns of entry i into dst; returns dst
+    public int[] includedAt(int i, int[] dst) {
+        for (int j = 0, at = entryOff(i) + width + PageLayout.RID_BYTES; j < includes; j++, at += PageLayout.INCLUDE_BYTES)
+            dst[j] = buf.getInt(at);
+        return dst;
+    }
+
+    // Binary search: first entry with key >= k (keyCount() if none)
+    public int lowerBound(long k) {
+        int lo = 0, hi = keyCount();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyAt(mid) < k) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Binary search: first entry with key > k, i.e. insert position after equal keys
+    public int upperBound(long k) {
+        int lo = 0, hi = keyCount();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyAt(mid) <= k) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private void setKeyCount(int n) { buf.putShort(PageLayout.OFF_KEYCOUNT, (short) n); }
+
+    private void putEntry(int i, long key, int rid, int[] included) {
+        int off = entryOff(i);
+        KeyDescriptor.put(buf, off, width, key);
+        buf.putInt(off + width, rid);
+        off += width + PageLayout.RID_BYTES;
+        for (int j = 0; j < includes; j++, off += PageLayout.INCLUDE_BYTES) buf.putInt(off, included[j]);
+    }
+
+    // Open a gap for one entry at pos (entries are moved as raw bytes, payload and all)
+    private void shiftRight(int pos) {
+        int n = keyCount();
+        buf.put(entryOff(pos + 1), buf, entryOff(pos), (n - pos) * entryBytes);
+        setKeyCount(n + 1);
+    }
+
+    // Insert at pos, shifting the tail right (caller checks isFull)
+    public void insertAt(int pos, long key, HeapFile.RecordId rid, int[] included) {
+        int packed = packRid(rid.pageId, rid.slot);
+        shiftRight(pos);
+        putEntry(pos, key, packed, included);
+    }
+
+    // Insert a copy of entry i of another leaf of the same index at pos (delete rebalancing)
+    public void insertCopy(int pos, LeafPage from, int i) {
+        shiftRight(pos);
+        buf.put(entryOff(pos), from.buf, from.entryOff(i), entryBytes);
+    }
+
+    public void removeAt(int pos) {
+        int n = keyCount();
+        buf.put(entryOff(pos), buf, entryOff(pos + 1), (n - pos - 1) * entryBytes);
+        setKeyCount(n - 1);
+    }
+
+    // Merge: move every entry of the right sibling onto the end of this leaf and unlink it
+    public void absorb(LeafPage right) {
+        int n = keyCount(), m = right.keyCount();
+        buf.put(entryOff(n), right.buf, right.entryOff(0), m * entryBytes);
+        setKeyCount(n + m);
+        setNext(right.next());
+    }
+
+    // Insert into a full leaf by splitting it: this page keeps the lower half of the
+    // capacity + 1 entries, right (an empty new leaf) gets the upper half and is linked in
+    // after this one. The caller posts right.keyAt(0) to the parent and flushes both.
+    public void splitInsert(int pos, long key, HeapFile.RecordId rid, int[] included, LeafPage right) {
+        int n = keyCount();
+        int mid = (n + 1) / 2;               // entries this page keeps, counting the new one
+        int moved = pos < mid ? mid - 1 : mid;
+        right.buf.put(right.entryOff(0), buf, entryOff(moved), (n - moved) * entryBytes);
+        right.setKeyCount(n - moved);
+        setKeyCount(moved);
+        if (pos < mid) insertAt(pos, key, rid, included);
+        else right.insertAt(pos - mid, key, rid, included);
+
+        right.setNext(next());
+        setNext(right.pageId());
+    }
+
+    // Append one (key, RID, included columns) — bulk loader feeds these in sorted order
+    public void add(long key, int ridPage, int ridSlot, int[] included) {
         int i = keyCount();
-        int off = PageLayout.HEADER_BYTES + i * PageLayout.LEAF_ENTRY_BYTES;
-        buf.putFloat(off, key);
-        buf.putInt(off + 4, rid.pageId);
-        buf.putInt(off + 8, rid.slot);
-        buf.putShort(PageLayout.OFF_KEYCOUNT, (short) (i + 1));
+        putEntry(i, key, packRid(ridPage, ridSlot), included);
+        setKeyCount(i + 1);
+    }
+
+    // Format b as a leaf holding packed ExternalSort entries [from, to) (4-byte keys, no
+    // included columns); no FileManager involved, so parallel bulk-build workers can fill
+    // pages side by side
+    static void format(ByteBuffer b, long[] entries, int from, int to, int next) {
+        Arrays.fill(b.array(), (byte) 0);
+        b.put(PageLayout.OFF_TYPE, PageLayout.TYPE_LEAF);
+        b.putShort(PageLayout.OFF_KEYCOUNT, (short) (to - from));
+        b.put(PageLayout.OFF_KEY_WIDTH, (byte) 4);
+        b.putInt(PageLayout.OFF_NEXT, next);
+        int entryBytes = PageLayout.leafEntryBytes(4, 0);
+        for (int i = from; i < to; i++) {
+            int off = PageLayout.HEADER_BYTES + (i - from) * entryBytes;
+            b.putInt(off, (int) ExternalSort.keyOf(entries[i]));
+            b.putInt(off + 4, (int) entries[i]);       // low half = packed RID
+        }
     }
 
     public void flush() throws IOException { fm.writePage(pageId, buf); }
 }
-
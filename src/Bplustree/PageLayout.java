@@ -8,25 +8,44 @@ public final class PageLayout {
     // Page header
     public static final byte TYPE_LEAF = 1;
     public static final byte TYPE_INTERNAL = 2;
+    public static final byte TYPE_POSTING_LEAF = 9;   // PostingLeafPage
+    public static final byte TYPE_POSTINGS = 10;      // PostingPage, overflow of a hot key's RID list
     public static final int OFF_TYPE = 0;        // byte
     public static final int OFF_KEYCOUNT = 1;    // short (unsigned)
+    public static final int OFF_KEY_WIDTH = 3;   // byte, bytes per key (KeyDescriptor.width)
     public static final int OFF_NEXT = 4;        // int (leaf next pointer)
+    public static final int OFF_INCLUDES = 8;    // byte, leaf only: included columns per entry
+    public static final int OFF_PREFIX_BYTES = 4;  // byte, internal only: key bytes every separator shares
+    public static final int OFF_STORED_BYTES = 5;  // byte, internal only: key bytes stored per separator
+    public static final int OFF_PREFIX = 8;        // long, internal only: the shared bytes (see InternalPage)
     public static final int HEADER_BYTES = 16;
 
     // Entry sizes
-    // Leaf entry: key(float) + rid.page(int) + rid.slot(int)
-    public static final int LEAF_ENTRY_BYTES = 4 + 4 + 4;
+    // Leaf entry: normalized key (width bytes) + rid(int, page << SLOT_BITS | slot, see LeafPage.packRid)
+    //             + one raw 4-byte value per included column
+    public static final int RID_BYTES = 4;
+    public static final int INCLUDE_BYTES = 4;
 
-    // Internal page: [firstChild(int)] then repeating [sepKey(float), rightChild(int)]
+    // Internal page: [firstChild(int)] then repeating [sepKey(stored bytes), rightChild(int)];
+    // a full-width separator is width bytes, truncated ones fewer (InternalPage)
     public static final int INTERNAL_FIRST_CHILD_BYTES = 4;
-    public static final int INTERNAL_ENTRY_BYTES = 4 + 4;
+    public static final int CHILD_BYTES = 4;
 
-    public static int leafCapacity() {
-        return (FileManager.PAGE_SIZE - HEADER_BYTES) / LEAF_ENTRY_BYTES;
+    public static int leafEntryBytes(int keyWidth, int includes) { return keyWidth + RID_BYTES + includes * INCLUDE_BYTES; }
+    public static int internalEntryBytes(int keyWidth) { return keyWidth + CHILD_BYTES; }
+
+    public static int leafCapacity(int keyWidth, int includes) {
+        return (FileManager.PAGE_SIZE - HEADER_BYTES) / leafEntryBytes(keyWidth, includes);
     }
-    public static int internalCapacity() {
+    public static int internalCapacity(int keyWidth) {
         int body = FileManager.PAGE_SIZE - HEADER_BYTES - INTERNAL_FIRST_CHILD_BYTES;
-        return body / INTERNAL_ENTRY_BYTES; // number of keys (children = keys + 1)
+        return body / internalEntryBytes(keyWidth); // number of keys (children = keys + 1)
     }
-}
 
+    // Keys an internal page holds with storedBytes per separator. Capped at twice the
+    // full-width capacity, so either half of a split fits a page whatever its encoding.
+    public static int internalCapacity(int keyWidth, int storedBytes) {
+        int body = FileManager.PAGE_SIZE - HEADER_BYTES - INTERNAL_FIRST_CHILD_BYTES;
+        return Math.min(body / internalEntryBytes(storedBytes), 2 * internalCapacity(keyWidth));
+    }
+}
@@ -0,0 +1,224 @@
+package Bplustree;
+
+import IO.FileManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Leaf of a posting-list index (PageLayout.TYPE_POSTING_LEAF): every distinct key once,
+// with the sorted RIDs of all its rows, so a key never spans two leaves and separators
+// are exact. A fixed-size directory grows up from the header, binary-searchable like
+// LeafPage; the RID lists grow down from the end of the page.
+//   [0] type  [1] key count short  [3] key width  [4] next leaf int
+//   [8] start of the list area int  [12] dead list bytes int (reclaimed by compact)
+//   [16..] directory: key (width bytes) + ref int
+// ref >= 0: offset of an inline list [bytes short][count short][varint gaps, PostingPage]
+// ref < 0:  ~(first page) of an overflow chain of PostingPages, for keys whose list
+//           would grow past INLINE_MAX
+public class PostingLeafPage implements LeafNode {
+    public static final int INLINE_MAX = FileManager.PAGE_SIZE / 8;   // coded bytes of one inline list
+    static final int OFF_DATA = 8;
+    static final int OFF_DEAD = 12;
+    static final int LIST_HEADER = 4;
+    static final int BODY_BYTES = FileManager.PAGE_SIZE - PageLayout.HEADER_BYTES;
+
+    private final FileManager fm;
+    private final int pageId;
+    private final ByteBuffer buf;
+    private final int width;
+    private final int entryBytes;
+
+    PostingLeafPage(FileManager fm, int pageId, ByteBuffer buf) {
+        this.fm = fm; this.pageId = pageId; this.buf = buf;
+        this.width = buf.get(PageLayout.OFF_KEY_WIDTH);
+        this.entryBytes = width + 4;
+    }
+
+    public static PostingLeafPage create(FileManager fm, int pid, KeyDescriptor key) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+        b.put(PageLayout.OFF_TYPE, PageLayout.TYPE_POSTING_LEAF);
+        b.putShort(PageLayout.OFF_KEYCOUNT, (short) 0);
+        b.put(PageLayout.OFF_KEY_WIDTH, (byte) key.width);
+        b.putInt(PageLayout.OFF_NEXT, -1);
+        b.putInt(OFF_DATA, FileManager.PAGE_SIZE);
+        b.putInt(OFF_DEAD, 0);
+        fm.writePage(pid, b);
+        return new PostingLeafPage(fm, pid, b);
+    }
+
+    public static PostingLeafPage open(FileManager fm, int pageId) throws IOException {
+        ByteBuffer b = fm.readPage(pageId);
+        if (b.get(PageLayout.OFF_TYPE) != PageLayout.TYPE_POSTING_LEAF)
+            throw new IllegalStateException("Page " + pageId + " is not a posting leaf page");
+        return new PostingLeafPage(fm, pageId, b);
+    }
+
+    public int pageId() { return pageId; }
+    public int keyCount() { return Short.toUnsignedInt(buf.getShort(PageLayout.OFF_KEYCOUNT)); }
+    public void setNext(int nextPid) { buf.putInt(PageLayout.OFF_NEXT, nextPid); }
+    public int next() { return buf.getInt(PageLayout.OFF_NEXT); } // -1 = last leaf
+
+    private int entryOff(int i) { return PageLayout.HEADER_BYTES + i * entryBytes; }
+    private int dataStart() { return buf.getInt(OFF_DATA); }
+    private int dead() { return buf.getInt(OFF_DEAD); }
+    private void setKeyCount(int n) { buf.putShort(PageLayout.OFF_KEYCOUNT, (short) n); }
+
+    public long keyAt(int i) { return KeyDescriptor.get(buf, entryOff(i), width); }
+    private int refAt(int i) { return buf.getInt(entryOff(i) + width); }
+
+    public boolean isOverflow(int i) { return refAt(i) < 0; }
+    public int overflowHead(int i) { return ~refAt(i); }
+
+    // Inline list of entry i: RID count, and the bytes it takes in the list area
+    public int ridCount(int i) { return Short.toUnsignedInt(buf.getShort(refAt(i) + 2)); }
+    private int listBytes(int i) { return isOverflow(i) ? 0 : LIST_HEADER + Short.toUnsignedInt(buf.getShort(refAt(i))); }
+
+    // Append the RIDs of inline entry i to out
+    void rids(int i, RidList out) {
+        int at = refAt(i);
+        PostingPage.decode(buf, at + LIST_HEADER, ridCount(i), out);
+    }
+
+    // Binary search: first entry with key >= k (keyCount() if none)
+    public int lowerBound(long k) {
+        int lo = 0, hi = keyCount();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyAt(mid) < k) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Directory and live lists, i.e. what a compacted copy of this page would hold
+    public int usedBytes() { return keyCount() * entryBytes + FileManager.PAGE_SIZE - dataStart() - dead(); }
+    public boolean isUnderfull() { return usedBytes() < BODY_BYTES / 4; }
+    private int room() { return BODY_BYTES - usedBytes(); }
+
+    // Bytes entry i takes on the page: directory slot and inline list
+    public int entryBytes(int i) { return entryBytes + listBytes(i); }
+
+    // Bytes an entry holding rids inline needs in the list area
+    static int inlineBytes(RidList rids) { return LIST_HEADER + PostingPage.encodedBytes(rids, 0, rids.size()); }
+
+    // ---- changes; each returns false and leaves the page as it was if there is no room ----
+
+    // New entry at pos with rids inline (caller checks inlineBytes against INLINE_MAX)
+    public boolean insertList(int pos, long key, RidList rids) {
+        int len = inlineBytes(rids);
+        if (room() < entryBytes + len) return false;
+        int at = allocate(len, entryBytes);
+        writeList(at, rids);
+        insertEntry(pos, key, at);
+        return true;
+    }
+
+    // New entry at pos whose list is the overflow chain at head
+    public boolean insertOverflow(int pos, long key, int head) {
+        if (room() < entryBytes) return false;
+        if (dataStart() - entryOff(keyCount()) < entryBytes) compact();
+        insertEntry(pos, key, ~head);
+        return true;
+    }
+
+    // Replace the inline list of entry i
+    public boolean setList(int i, RidList rids) {
+        int len = inlineBytes(rids), old = listBytes(i);
+        if (room() + old < len) return false;
+        buf.putInt(OFF_DEAD, dead() + old);
+        buf.putInt(entryOff(i) + width, -1);   // old list is dead, so compact() must not move it
+        int at = allocate(len, 0);
+        writeList(at, rids);
+        buf.putInt(entryOff(i) + width, at);
+        return true;
+    }
+
+    // Point entry i at an overflow chain instead of its inline list
+    public void setOverflow(int i, int head) {
+        buf.putInt(OFF_DEAD, dead() + listBytes(i));
+        buf.putInt(entryOff(i) + width, ~head);
+    }
+
+    public void removeAt(int pos) {
+        int n = keyCount();
+        buf.putInt(OFF_DEAD, dead() + listBytes(pos));
+        buf.put(entryOff(pos), buf, entryOff(pos + 1), (n - pos - 1) * entryBytes);
+        setKeyCount(n - 1);
+    }
+
+    // Copy entry i of another leaf of the same index to pos (splits and rebalancing)
+    public boolean insertCopy(int pos, PostingLeafPage from, int i) {
+        if (from.isOverflow(i)) return insertOverflow(pos, from.keyAt(i), from.overflowHead(i));
+        int len = from.listBytes(i);
+        if (room() < entryBytes + len) return false;
+        int at = allocate(len, entryBytes);
+        buf.put(at, from.buf, from.refAt(i), len);
+        insertEntry(pos, from.keyAt(i), at);
+        return true;
+    }
+
+    // Move the upper half of the entries (by bytes) to right, an empty new leaf linked in
+    // after this one. The caller posts right.keyAt(0) to the parent and flushes both.
+    public void splitInto(PostingLeafPage right) {
+        int n = keyCount(), half = usedBytes() / 2, keep = 0;
+        for (int bytes = 0; keep < n - 1 && bytes < half; keep++) bytes += entryBytes + listBytes(keep);
+        keep = Math.max(1, keep);
+        for (int i = keep; i < n; i++) right.insertCopy(i - keep, this, i);
+        for (int i = n - 1; i >= keep; i--) removeAt(i);
+        compact();
+        right.setNext(next());
+        setNext(right.pageId());
+    }
+
+    // Merge: move every entry of the right sibling onto the end of this leaf and unlink it
+    // (caller checks that both fit in one page)
+    public void absorb(PostingLeafPage right) {
+        for (int i = 0, n = right.keyCount(); i < n; i++) {
+            if (!insertCopy(keyCount(), right, i)) throw new IllegalStateException("Leaves do not fit one page");
+        }
+        setNext(right.next());
+    }
+
+    private void insertEntry(int pos, long key, int ref) {
+        int n = keyCount();
+        buf.put(entryOff(pos + 1), buf, entryOff(pos), (n - pos) * entryBytes);
+        KeyDescriptor.put(buf, entryOff(pos), width, key);
+        buf.putInt(entryOff(pos) + width, ref);
+        setKeyCount(n + 1);
+    }
+
+    private void writeList(int at, RidList rids) {
+        int end = PostingPage.encode(buf, at + LIST_HEADER, rids, 0, rids.size());
+        buf.putShort(at, (short) (end - at - LIST_HEADER));
+        buf.putShort(at + 2, (short) rids.size());
+    }
+
+    // Take len bytes off the list area, leaving dirGrowth bytes free for the directory;
+    // compacts first if dead lists are in the way (the caller checked room())
+    private int allocate(int len, int dirGrowth) {
+        int dirEnd = entryOff(keyCount()) + dirGrowth;
+        if (dataStart() - dirEnd < len) compact();
+        int at = dataStart() - len;
+        buf.putInt(OFF_DATA, at);
+        return at;
+    }
+
+    // Pack the live inline lists against the end of the page, dropping dead bytes
+    private void compact() {
+        ByteBuffer tmp = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+        int top = FileManager.PAGE_SIZE;
+        for (int i = 0, n = keyCount(); i < n; i++) {
+            int ref = refAt(i);
+            if (ref < 0) continue;
+            int len = listBytes(i);
+            top -= len;
+            tmp.put(top, buf, ref, len);
+            buf.putInt(entryOff(i) + width, top);
+        }
+        buf.put(top, tmp, top, FileManager.PAGE_SIZE - top);
+        buf.putInt(OFF_DATA, top);
+        buf.putInt(OFF_DEAD, 0);
+    }
+
+    public void flush() throws IOException { fm.writePage(pageId, buf); }
+}
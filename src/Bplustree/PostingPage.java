@@ -0,0 +1,191 @@
+package Bplustree;
+
+import IO.FileManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Overflow page of a hot key's posting list (PageLayout.TYPE_POSTINGS). A list too long to
+// stay in its leaf (PostingLeafPage.INLINE_MAX) lives in a chain of these; each page
+// delta-codes its share of the RIDs on its own, so pages can be read and appended alone:
+//   [0] type  [1] RID count short  [4] next page int, -1 = last  [8] data bytes int
+//   [12] last RID int  [16..] varint deltas, the first one from 0
+// Also home of the varint coding shared with the inline lists in PostingLeafPage.
+final class PostingPage {
+    static final int OFF_COUNT = 1;
+    static final int OFF_NEXT = 4;
+    static final int OFF_BYTES = 8;
+    static final int OFF_LAST = 12;
+    static final int DATA_OFF = 16;
+
+    private PostingPage() {}
+
+    // Where chain pages come from and go back to
+    interface Pages {
+        int allocate() throws IOException;
+        void free(int pid) throws IOException;
+    }
+
+    // ---- varints (unsigned LEB128) of the gaps between sorted RIDs ----
+
+    static int varintBytes(int v) { return v == 0 ? 1 : (38 - Integer.numberOfLeadingZeros(v)) / 7; }
+
+    // Returns the offset after the value
+    static int putVarint(ByteBuffer b, int at, int v) {
+        while ((v & ~0x7f) != 0) {
+            b.put(at++, (byte) (v & 0x7f | 0x80));
+            v >>>= 7;
+        }
+        b.put(at++, (byte) v);
+        return at;
+    }
+
+    // Bytes to code rids [from, to), the first gap from 0
+    static int encodedBytes(RidList rids, int from, int to) {
+        int n = 0, prev = 0;
+        for (int i = from; i < to; i++) {
+            n += varintBytes(rids.get(i) - prev);
+            prev = rids.get(i);
+        }
+        return n;
+    }
+
+    // Code rids [from, to) at b[at]; returns the offset after them
+    static int encode(ByteBuffer b, int at, RidList rids, int from, int to) {
+        int prev = 0;
+        for (int i = from; i < to; i++) {
+            at = putVarint(b, at, rids.get(i) - prev);
+            prev = rids.get(i);
+        }
+        return at;
+    }
+
+    // Decode count RIDs coded at b[at] onto out
+    static void decode(ByteBuffer b, int at, int count, RidList out) {
+        int prev = 0;
+        for (int i = 0; i < count; i++) {
+            int v = 0, shift = 0, x;
+            do {
+                x = b.get(at++);
+                v |= (x & 0x7f) << shift;
+                shift += 7;
+            } while (x < 0);
+            prev += v;
+            out.add(prev);
+        }
+    }
+
+    // ---- chains ----
+
+    private static ByteBuffer open(FileManager fm, int pid) throws IOException {
+        ByteBuffer b = fm.readPage(pid);
+        if (b.get(PageLayout.OFF_TYPE) != PageLayout.TYPE_POSTINGS)
+            throw new IllegalStateException("Page " + pid + " is not a posting page");
+        return b;
+    }
+
+    private static int count(ByteBuffer b) { return Short.toUnsignedInt(b.getShort(OFF_COUNT)); }
+
+    // Append the chain's RIDs to out; returns the number of pages read
+    static int read(FileManager fm, int head, RidList out) throws IOException {
+        int pages = 0;
+        for (int pid = head; pid >= 0; pages++) {
+            ByteBuffer b = open(fm, pid);
+            decode(b, DATA_OFF, count(b), out);
+            pid = b.getInt(OFF_NEXT);
+        }
+        return pages;
+    }
+
+    // Number of RIDs in the chain, from the page headers alone; pages read count in st
+    static int size(FileManager fm, int head, BPlusTree.QueryStats st) throws IOException {
+        int n = 0;
+        for (int pid = head; pid >= 0; ) {
+            ByteBuffer b = open(fm, pid);
+            if (st != null) st.indexNodes++;
+            n += count(b);
+            pid = b.getInt(OFF_NEXT);
+        }
+        return n;
+    }
+
+    // Page ids of the chain, in order
+    static int[] pages(FileManager fm, int head) throws IOException {
+        int[] out = new int[4];
+        int n = 0;
+        for (int pid = head; pid >= 0; pid = open(fm, pid).getInt(OFF_NEXT)) {
+            if (n == out.length) out = Arrays.copyOf(out, n * 2);
+            out[n++] = pid;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // Write rids (not empty) as a chain over reuse (an old chain's pages, kept in order),
+    // allocating more from pages and freeing what is left over; returns the head page
+    static int write(FileManager fm, RidList rids, int[] reuse, Pages pages) throws IOException {
+        if (rids.size() == 0) throw new IllegalArgumentException("Empty posting list");
+        ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+        int pid = reuse.length > 0 ? reuse[0] : pages.allocate(), head = pid, used = 1;
+        for (int i = 0, n = rids.size(); ; ) {
+            int at = DATA_OFF, prev = 0, j = i;
+            for (; j < n; j++) {
+                int d = rids.get(j) - prev;
+                if (at + varintBytes(d) > FileManager.PAGE_SIZE) break;
+                at = putVarint(b, at, d);
+                prev = rids.get(j);
+            }
+            int next = -1;
+            if (j < n) next = used < reuse.length ? reuse[used++] : pages.allocate();
+            b.put(PageLayout.OFF_TYPE, PageLayout.TYPE_POSTINGS);
+            b.putShort(OFF_COUNT, (short) (j - i));
+            b.putInt(OFF_NEXT, next);
+            b.putInt(OFF_BYTES, at - DATA_OFF);
+            b.putInt(OFF_LAST, prev);
+            fm.writePage(pid, b);
+            if (next < 0) break;
+            pid = next;
+            i = j;
+        }
+        for (int k = used; k < reuse.length; k++) pages.free(reuse[k]);
+        return head;
+    }
+
+    // Add rid to the chain at head; the head page stays the head. Rows appended to the heap
+    // come after every RID already listed, so the common case appends to the last page.
+    static boolean add(FileManager fm, int head, int rid, Pages pages) throws IOException {
+        int pid = head;
+        ByteBuffer b = open(fm, pid);
+        for (int next; (next = b.getInt(OFF_NEXT)) >= 0; ) b = open(fm, pid = next);
+
+        int last = b.getInt(OFF_LAST);
+        if (Integer.compareUnsigned(rid, last) > 0) {
+            int at = DATA_OFF + b.getInt(OFF_BYTES), d = rid - last;
+            if (at + varintBytes(d) <= FileManager.PAGE_SIZE) {
+                int end = putVarint(b, at, d);
+                b.putShort(OFF_COUNT, (short) (count(b) + 1));
+                b.putInt(OFF_BYTES, end - DATA_OFF);
+                b.putInt(OFF_LAST, rid);
+            } else {                            // last page full: chain a new one
+                ByteBuffer nb = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+                int np = pages.allocate();
+                nb.put(PageLayout.OFF_TYPE, PageLayout.TYPE_POSTINGS);
+                nb.putShort(OFF_COUNT, (short) 1);
+                nb.putInt(OFF_NEXT, -1);
+                nb.putInt(OFF_BYTES, putVarint(nb, DATA_OFF, rid) - DATA_OFF);
+                nb.putInt(OFF_LAST, rid);
+                fm.writePage(np, nb);
+                b.putInt(OFF_NEXT, np);
+            }
+            fm.writePage(pid, b);
+            return true;
+        }
+
+        // anywhere else: decode, insert, rewrite over the same pages
+        RidList all = new RidList();
+        read(fm, head, all);
+        if (!all.insert(rid)) return false;
+        write(fm, all, pages(fm, head), pages);
+        return true;
+    }
+}
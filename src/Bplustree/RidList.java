@@ -0,0 +1,53 @@
+package Bplustree;
+
+import java.util.Arrays;
+
+// Growable list of packed RIDs (LeafPage.packRid) kept in ascending unsigned order, the
+// in-memory form of one posting list
+final class RidList {
+    private int[] a = new int[64];
+    private int n;
+
+    int size() { return n; }
+    int get(int i) { return a[i]; }
+    void clear() { n = 0; }
+
+    // Append a RID not below the last one (decoding, bulk build)
+    void add(int rid) {
+        if (n == a.length) a = Arrays.copyOf(a, n * 2);
+        a[n++] = rid;
+    }
+
+    // Insert in order; false if already present
+    boolean insert(int rid) {
+        int i = search(rid);
+        if (i >= 0) return false;
+        i = -i - 1;
+        if (n == a.length) a = Arrays.copyOf(a, n * 2);
+        System.arraycopy(a, i, a, i + 1, n - i);
+        a[i] = rid;
+        n++;
+        return true;
+    }
+
+    boolean remove(int rid) {
+        int i = search(rid);
+        if (i < 0) return false;
+        System.arraycopy(a, i + 1, a, i, n - i - 1);
+        n--;
+        return true;
+    }
+
+    // Binary search in unsigned order: index, or -(insertion point) - 1
+    private int search(int rid) {
+        int lo = 0, hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = Integer.compareUnsigned(a[mid], rid);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -lo - 1;
+    }
+}
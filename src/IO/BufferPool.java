@@ -0,0 +1,278 @@
+package IO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed-size page cache in front of the FileManager channel.
+// Clock (second-chance) eviction, pin counts, dirty tracking, write-back on evict.
+// Safe to share with a PageWriter thread: every method holds the pool's monitor, and page
+// writes to the channel also hold io, so a page the writer is still writing out is never
+// written again (or re-read) before that write lands.
+public class BufferPool {
+    private final FileManager fm;
+    private final int capacity;
+
+    private final ByteBuffer[] frames;
+    private final int[] pageOf;        // page held by each frame, -1 = free
+    private final int[] pins;
+    private final boolean[] dirty;
+    private final boolean[] ref;       // clock reference bit
+    private final boolean[] seen;      // trickle() passed the frame since its last use
+    private final boolean[] inFlight;  // copied out by trickle(), write not finished: not evictable
+    private final Map<Integer, Integer> table = new HashMap<>(); // pageId -> frame
+    private int hand = 0;
+    private final ReentrantLock io = new ReentrantLock();
+    private ByteBuffer[] trickleCopies = new ByteBuffer[0];
+    private int sweep;                 // trickle() resumes at this page id
+
+    // counters for sizing the pool against the working set; writeBacks are foreground
+    // writes (evictions, flushAll), trickled are pages the background writer wrote
+    private long hits, misses, evictions, writeBacks, trickled, trickleRuns;
+
+    BufferPool(FileManager fm, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Buffer pool needs at least one frame");
+        this.fm = fm;
+        this.capacity = capacity;
+        this.frames = new ByteBuffer[capacity];
+        this.pageOf = new int[capacity];
+        this.pins = new int[capacity];
+        this.dirty = new boolean[capacity];
+        this.ref = new boolean[capacity];
+        this.seen = new boolean[capacity];
+        this.inFlight = new boolean[capacity];
+        for (int i = 0; i < capacity; i++) frames[i] = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+        Arrays.fill(pageOf, -1);
+    }
+
+    public int capacity() { return capacity; }
+
+    // Pin a page and hand out a view of its frame. Caller must unpin when done.
+    public synchronized ByteBuffer pin(int pageId) throws IOException {
+        Integer f = table.get(pageId);
+        if (f != null) {
+            hits++;
+        } else {
+            misses++;
+            f = victim();
+            fm.readRaw(pageId, frames[f]);
+            install(f, pageId, false);
+        }
+        pins[f]++;
+        ref[f] = true;
+        seen[f] = false;
+        return frames[f].duplicate().clear();
+    }
+
+    // Copy a page out in one step, so a concurrent put is seen whole or not at all
+    synchronized void read(int pageId, ByteBuffer dst) throws IOException {
+        ByteBuffer frame = pin(pageId);
+        dst.clear();
+        dst.put(frame).flip();
+        pins[table.get(pageId)]--;
+    }
+
+    public synchronized void unpin(int pageId, boolean isDirty) {
+        Integer f = table.get(pageId);
+        if (f == null || pins[f] == 0) throw new IllegalStateException("Page " + pageId + " is not pinned");
+        pins[f]--;
+        if (isDirty) dirty[f] = true;
+    }
+
+    // Copy a whole page into the cache (no I/O until eviction / flush)
+    synchronized void put(int pageId, ByteBuffer src) throws IOException {
+        Integer f = table.get(pageId);
+        if (f == null) {
+            f = victim();
+            install(f, pageId, true);
+        }
+        ByteBuffer dst = frames[f].clear();
+        dst.put(src.duplicate().rewind());
+        dirty[f] = true;
+        ref[f] = true;
+        seen[f] = false;
+    }
+
+    // Fresh zero page for allocatePage; written out lazily
+    synchronized void putEmpty(int pageId) throws IOException {
+        Integer f = table.get(pageId);
+        if (f == null) {
+            f = victim();
+            install(f, pageId, true);
+        }
+        Arrays.fill(frames[f].array(), (byte) 0);
+        dirty[f] = true;
+        ref[f] = true;
+        seen[f] = false;
+    }
+
+    public synchronized void flushAll() throws IOException {
+        // write back in page order, runs of adjacent pages in one gathering write
+        int[] order = table.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        ByteBuffer[] run = new ByteBuffer[order.length];
+        int n = 0, first = -1;
+        io.lock();
+        try {
+            for (int pid : order) {
+                int f = table.get(pid);
+                if (!dirty[f]) continue;
+                if (n > 0 && pid != first + n) {
+                    fm.writeRawRun(first, run, n);
+                    n = 0;
+                }
+                if (n == 0) first = pid;
+                run[n++] = frames[f];
+                dirty[f] = false;
+                writeBacks++;
+            }
+            if (n > 0) fm.writeRawRun(first, run, n);
+        } finally {
+            io.unlock();
+        }
+    }
+
+    // Background write-back: copy up to max dirty, unpinned, not recently used pages out,
+    // going on in page-id order from where the last call stopped, and write them with
+    // gathering writes while the foreground keeps using the pool. A page used since the
+    // previous call waits for the next one. They count as clean from here on; a change made
+    // meanwhile dirties them again. Returns the pages written.
+    int trickle(int max) throws IOException {
+        int n = 0;
+        int[] pids, fs;
+        synchronized (this) {
+            long[] cand = new long[capacity];
+            int c = 0;
+            for (int f = 0; f < capacity; f++) {
+                if (pageOf[f] < 0 || !dirty[f] || pins[f] > 0 || inFlight[f]) continue;
+                // a page used since the last visit may just be dirtied again: note the visit
+                // and take it next time if nothing touched it meanwhile (the clock bit is
+                // victim()'s, left alone)
+                if (!seen[f]) seen[f] = true;
+                else cand[c++] = (long) pageOf[f] << 32 | f;
+            }
+            if (c == 0) return 0;
+            Arrays.sort(cand, 0, c);
+            int start = 0;
+            while (start < c && (cand[start] >>> 32) < sweep) start++;
+            n = Math.min(max, c);
+            pids = new int[n];
+            fs = new int[n];
+            if (trickleCopies.length < n) {
+                trickleCopies = Arrays.copyOf(trickleCopies, n);
+                for (int i = 0; i < n; i++) if (trickleCopies[i] == null) trickleCopies[i] = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+            }
+            for (int i = 0; i < n; i++) {
+                long e = cand[(start + i) % c];
+                pids[i] = (int) (e >>> 32);
+                fs[i] = (int) e;
+                trickleCopies[i].clear().put(frames[fs[i]].duplicate().clear()).flip();
+                dirty[fs[i]] = false;
+                inFlight[fs[i]] = true;
+            }
+            sweep = pids[n - 1] + 1;
+            io.lock();             // taken before the monitor is let go: no foreground write can slip in first
+        }
+        int runs = 0;
+        try {
+            for (int i = 0; i < n; ) {
+                int j = i + 1;
+                while (j < n && pids[j] == pids[j - 1] + 1) j++;
+                fm.writeRawRun(pids[i], Arrays.copyOfRange(trickleCopies, i, j), j - i);
+                runs++;
+                i = j;
+            }
+        } finally {
+            io.unlock();
+            synchronized (this) {
+                for (int f : fs) inFlight[f] = false;
+                trickled += n;
+                trickleRuns += runs;
+            }
+        }
+        return n;
+    }
+
+    public synchronized int dirtyCount() {
+        int n = 0;
+        for (int f = 0; f < capacity; f++) if (pageOf[f] >= 0 && dirty[f]) n++;
+        return n;
+    }
+
+    // Drop cached pages >= pageCount (used by FileManager.truncateToPages)
+    synchronized void discardFrom(long pageCount) {
+        io.lock();                 // let a background write of these pages finish first
+        try {
+            for (int f = 0; f < capacity; f++) {
+                if (pageOf[f] >= pageCount) {
+                    if (pins[f] > 0) throw new IllegalStateException("Cannot truncate pinned page " + pageOf[f]);
+                    table.remove(pageOf[f]);
+                    pageOf[f] = -1;
+                    dirty[f] = false;
+                    ref[f] = false;
+                    seen[f] = false;
+                    inFlight[f] = false;
+                }
+            }
+        } finally {
+            io.unlock();
+        }
+    }
+
+    private void install(int f, int pageId, boolean zero) {
+        if (zero) Arrays.fill(frames[f].array(), (byte) 0);
+        pageOf[f] = pageId;
+        pins[f] = 0;
+        dirty[f] = false;
+        table.put(pageId, f);
+    }
+
+    // Clock sweep: skip pinned frames, give referenced frames a second chance
+    private int victim() throws IOException {
+        for (int step = 0; step < 2 * capacity; step++) {
+            int f = hand;
+            hand = (hand + 1) % capacity;
+            if (pageOf[f] == -1) return f;
+            if (pins[f] > 0 || inFlight[f]) continue;
+            if (ref[f]) { ref[f] = false; continue; }
+
+            if (dirty[f]) writeBack(f);
+            table.remove(pageOf[f]);
+            pageOf[f] = -1;
+            evictions++;
+            return f;
+        }
+        throw new IllegalStateException("Buffer pool exhausted: all " + capacity + " frames are pinned");
+    }
+
+    private void writeBack(int f) throws IOException {
+        io.lock();
+        try {
+            fm.writeRaw(pageOf[f], frames[f]);
+        } finally {
+            io.unlock();
+        }
+        dirty[f] = false;
+        writeBacks++;
+    }
+
+    // ---- stats ----
+    public synchronized long hits()       { return hits; }
+    public synchronized long misses()     { return misses; }
+    public synchronized long evictions()  { return evictions; }
+    public synchronized long writeBacks() { return writeBacks; }
+    public synchronized long trickled()   { return trickled; }
+    public synchronized double hitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+    public synchronized void resetStats() { hits = misses = evictions = writeBacks = trickled = trickleRuns = 0; }
+
+    @Override public synchronized String toString() {
+        return String.format("frames=%d hits=%d misses=%d evictions=%d writeBacks=%d hitRatio=%.3f",
+                capacity, hits, misses, evictions, writeBacks, hitRatio())
+                + (trickled == 0 ? "" : String.format(" trickled=%d in %d writes", trickled, trickleRuns));
+    }
+}
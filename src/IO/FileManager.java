@@ -1,15 +1,36 @@
 package IO;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.LongAdder;
 
 public class FileManager implements AutoCloseable {
-    public static final int PAGE_SIZE = 4096;
+    // Page size, fixed per process: -Ddb.pageSize=N (a power of two, 4K to 64K). A new file
+    // records it in its superblock and is only opened again with the same size; bigger pages
+    // mean fewer levels and longer sequential reads, smaller ones less read amplification.
+    public static final int PAGE_SIZE = pageSizeProperty();
+    public static final int DEFAULT_POOL_FRAMES = 256; // 1 MB of cached 4K pages
+
+    // How pages reach memory; chosen once at open time
+    public enum Mode {
+        UNBUFFERED,  // every readPage/writePage goes to the channel
+        BUFFERED,    // through the Clock buffer pool
+        MAPPED       // MappedByteBuffer segments, readPage returns zero-copy slices
+    }
 
     private final RandomAccessFile raf;
     private final FileChannel ch;
+    private final BufferPool pool;   // null = unbuffered, every read/write hits the channel
+    private final WriteAheadLog wal; // null = pages are written in place
+    private long checkpointBytes = WriteAheadLog.DEFAULT_CHECKPOINT_BYTES;
+    private PageWriter writer;       // background write-back / checkpoints, null = none
+    private volatile long pages;     // logical page count (pool may hold pages not yet on disk)
+    private final PageLatches latches = new PageLatches();
+    private final PageVersions versions = new PageVersions();
+    private final LongAdder physicalReads = new LongAdder(), physicalWrites = new LongAdder();
 
     // Default: do NOT reset
     public FileManager(String path) throws IOException {
@@ -18,50 +39,278 @@ public class FileManager implements AutoCloseable {
 
     // New: optional reset (truncate to empty)
     public FileManager(String path, boolean reset) throws IOException {
+        this(path, reset, DEFAULT_POOL_FRAMES);
+    }
+
+    // poolFrames = 0 disables the buffer pool
+    public FileManager(String path, boolean reset, int poolFrames) throws IOException {
+        this(path, reset, poolFrames, false);
+    }
+
+    // wal = write through a WriteAheadLog: page writes become log appends, commit() makes
+    // them durable with one log fsync. A log left by a crash is redone on open either way.
+    public FileManager(String path, boolean reset, int poolFrames, boolean wal) throws IOException {
         this.raf = new RandomAccessFile(path, "rw");
         this.ch = raf.getChannel();
 
         if (reset) {
             ch.truncate(0); // start fresh
+            new File(path + WriteAheadLog.SUFFIX).delete();
+        } else {
+            int redone = WriteAheadLog.recover(path, ch);
+            if (redone >= 0) System.err.println("Recovered " + path + " from its log: " + redone + " pages redone");
         }
         if (ch.size() == 0) {
             // (re)create superblock at page 0
             ch.write(ByteBuffer.allocate(PAGE_SIZE), 0);
         }
+        this.pages = ch.size() / PAGE_SIZE;
+        this.pool = poolFrames > 0 ? new BufferPool(this, poolFrames) : null;
+        this.wal = wal ? new WriteAheadLog(path, pages) : null;
+    }
+
+    public static FileManager open(String path, boolean reset, Mode mode) throws IOException {
+        return open(path, reset, mode, false);
     }
 
+    public static FileManager open(String path, boolean reset, Mode mode, boolean wal) throws IOException {
+        switch (mode) {
+            case UNBUFFERED: return new FileManager(path, reset, 0, wal);
+            case MAPPED:
+                // mapped pages are changed in memory and reach the file behind our back
+                if (wal) throw new IllegalArgumentException("The write-ahead log needs a buffered or unbuffered file");
+                return new MappedFileManager(path, reset);
+            default:         return new FileManager(path, reset, DEFAULT_POOL_FRAMES, wal);
+        }
+    }
+
+    private static int pageSizeProperty() {
+        int size = Integer.getInteger("db.pageSize", 4096);
+        if (size < 4096 || size > 65536 || Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("db.pageSize must be a power of two from 4096 to 65536, got " + size);
+        return size;
+    }
+
+    public BufferPool pool() { return pool; }
+
+    public WriteAheadLog wal() { return wal; }
+
+    // Page latches for threads sharing this file's B+ trees and heap pages
+    public PageLatches latches() { return latches; }
+
+    // Before-images of heap pages for snapshot scans (HeapFile.snapshot)
+    public PageVersions versions() { return versions; }
+
+    // Log size at which commit() also checkpoints
+    public void setCheckpointBytes(long bytes) { this.checkpointBytes = bytes; }
+
+    // Start a PageWriter: every periodMillis it trickles dirty pool pages out, and with a log
+    // it checkpoints every checkpointMillis. Stopped by close().
+    public PageWriter startWriter(long periodMillis, long checkpointMillis) {
+        if (writer != null) throw new IllegalStateException("A page writer is already running");
+        if (pool == null && wal == null) throw new IllegalStateException("Nothing to write in the background: no buffer pool and no log");
+        writer = new PageWriter(this, periodMillis, checkpointMillis);
+        return writer;
+    }
+
+    public PageWriter writer() { return writer; }
+
+    protected FileChannel channel() { return ch; }
+
+    // Pages actually read from / written to the channel (pool hits are not counted)
+    public long physicalReads()  { return physicalReads.sum(); }
+    public long physicalWrites() { return physicalWrites.sum(); }
+
     public long pageCount() throws IOException {
-        long size = ch.size();
-        return size == 0 ? 0 : size / PAGE_SIZE;
+        return pages;
     }
 
-    public int allocatePage() throws IOException {
-        int newPageId = (int) pageCount();
-        ch.write(ByteBuffer.allocate(PAGE_SIZE), (long) newPageId * PAGE_SIZE);
+    public synchronized int allocatePage() throws IOException {
+        int newPageId = (int) pages++;
+        if (pool != null) pool.putEmpty(newPageId);
+        else writeRaw(newPageId, ByteBuffer.allocate(PAGE_SIZE));
         return newPageId;
     }
 
+    // Extend the file by n pages without touching them (the caller writes every one);
+    // returns the first new page id
+    public synchronized int reservePages(int n) throws IOException {
+        int first = (int) pages;
+        pages += n;
+        return first;
+    }
+
     public ByteBuffer readPage(int pageId) throws IOException {
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-        ch.read(buf, (long) pageId * PAGE_SIZE);
-        buf.flip();
-        return buf;
+        return readPage(pageId, ByteBuffer.allocate(PAGE_SIZE));
+    }
+
+    // Read into a caller-owned PAGE_SIZE buffer (lets scans reuse one buffer); returns dst
+    public ByteBuffer readPage(int pageId, ByteBuffer dst) throws IOException {
+        if (pool == null) {
+            readRaw(pageId, dst);
+            return dst;
+        }
+        pool.read(pageId, dst);
+        return dst;
+    }
+
+    // n consecutive pages into dst (n * PAGE_SIZE bytes from position 0). Unbuffered this is
+    // one channel read, which is how sequential scans read ahead; returns dst
+    public ByteBuffer readPages(int firstPid, int n, ByteBuffer dst) throws IOException {
+        if (pool == null) return readRawRun(firstPid, n, dst);
+        dst.clear();                   // slice() is bounded by the limit a shorter run left
+        for (int i = 0; i < n; i++) readPage(firstPid + i, dst.slice(i * PAGE_SIZE, PAGE_SIZE));
+        dst.limit(n * PAGE_SIZE);
+        return dst;
     }
 
     public void writePage(int pageId, ByteBuffer buf) throws IOException {
-        buf.rewind();
-        ch.write(buf, (long) pageId * PAGE_SIZE);
+        if (pool != null) pool.put(pageId, buf);
+        else writeRaw(pageId, buf);
+    }
+
+    // Write every dirty cached page back to the channel
+    public void flush() throws IOException {
+        if (pool != null) pool.flushAll();
+    }
+
+    // End of a unit of work (a load, a build). With a log: flush, append a commit frame and
+    // fsync the log (shared with concurrent committers), checkpointing once the log is big;
+    // a crash comes back to the last commit. Without one this is flush(): nothing is forced.
+    public void commit() throws IOException {
+        flush();
+        if (wal == null) return;
+        wal.commit(pages);
+        if (wal.size() >= checkpointBytes) checkpoint();
+    }
+
+    // Flush and fsync the data file in place: durable without a log, but the random page
+    // writes are forced one file at a time and a crash in between can tear the unit
+    public void sync() throws IOException {
+        flush();
+        ch.force(false);
+    }
+
+    // Copy the pages of the last commit from the log into the data file and record the
+    // checkpoint in the superblock (WriteAheadLog.checkpoint); true if the log could also be
+    // emptied. No-op without a log.
+    public boolean checkpoint() throws IOException {
+        return wal != null && wal.checkpoint(ch);
+    }
+
+    // ---- concurrent page I/O for parallel bulk work ----
+    // Positional channel reads/writes are safe from many threads, and so are readPage and
+    // writePage, but the two must not mix: call dropCache() first and don't use
+    // readPage/writePage until the parallel phase ends, so the pool holds no copy that could
+    // go stale or later overwrite these writes.
+
+    public void dropCache() throws IOException {
+        if (pool != null) {
+            pool.flushAll();
+            pool.discardFrom(0);
+        }
     }
 
+    public ByteBuffer readPageConcurrent(int pageId, ByteBuffer dst) throws IOException {
+        readRaw(pageId, dst);
+        return dst;
+    }
+
+    public ByteBuffer readPagesConcurrent(int firstPid, int n, ByteBuffer dst) throws IOException {
+        return readRawRun(firstPid, n, dst);
+    }
+
+    public void writePageConcurrent(int pageId, ByteBuffer src) throws IOException {
+        writeRaw(pageId, src);
+    }
+
+    // With a log, closing commits and checkpoints
     @Override public void close() throws IOException {
-        ch.close();
-        raf.close();
+        try {
+            if (writer != null) writer.close();
+            if (wal != null) {
+                commit();
+                checkpoint();
+            } else {
+                flush();
+            }
+        } finally {
+            if (wal != null) wal.close();
+            ch.close();
+            raf.close();
+        }
     }
 
     public void truncateToPages(long pageCount) throws IOException {
-        ch.truncate(pageCount * (long) PAGE_SIZE);
+        if (pool != null) pool.discardFrom(pageCount);
+        if (wal != null) wal.truncate(pageCount);   // the data file is cut at the next checkpoint
+        else ch.truncate(pageCount * (long) PAGE_SIZE);
+        pages = pageCount;
     }
 
-}
+    // ---- raw channel I/O (used directly when unbuffered, and by the pool on miss / write-back) ----
 
+    void readRaw(int pageId, ByteBuffer dst) throws IOException {
+        physicalReads.increment();
+        if (wal != null && wal.read(pageId, dst)) return;
+        dst.clear();
+        long pos = (long) pageId * PAGE_SIZE;
+        while (dst.hasRemaining()) {
+            int n = ch.read(dst, pos + dst.position());
+            if (n <= 0) break;
+        }
+        while (dst.hasRemaining()) dst.put((byte) 0); // page past EOF reads as zeroes
+        dst.flip();
+    }
+
+    private ByteBuffer readRawRun(int firstPid, int n, ByteBuffer dst) throws IOException {
+        physicalReads.add(n);
+        dst.clear().limit(n * PAGE_SIZE);
+        long pos = (long) firstPid * PAGE_SIZE;
+        while (dst.hasRemaining()) {
+            int r = ch.read(dst, pos + dst.position());
+            if (r <= 0) break;
+        }
+        while (dst.hasRemaining()) dst.put((byte) 0);
+        dst.flip();
+        if (wal != null && !wal.isEmpty()) {
+            // newer images of pages in the run are in the log
+            for (int i = 0; i < n; i++) wal.read(firstPid + i, dst.slice(i * PAGE_SIZE, PAGE_SIZE));
+        }
+        return dst;
+    }
+
+    // n adjacent pages from firstPid in one gathering write (one log frame each with a log)
+    void writeRawRun(int firstPid, ByteBuffer[] src, int n) throws IOException {
+        physicalWrites.add(n);
+        if (wal != null) {
+            for (int i = 0; i < n; i++) wal.append(firstPid + i, src[i]);
+            return;
+        }
+        ByteBuffer[] bufs = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) bufs[i] = src[i].duplicate().rewind();
+        writeRun(ch, (long) firstPid * PAGE_SIZE, bufs);
+    }
+
+    // Gathering write at pos. FileChannel only gathers at its position, so writers of runs
+    // share it under the channel's monitor; positional reads and writes are unaffected.
+    static void writeRun(FileChannel c, long pos, ByteBuffer[] bufs) throws IOException {
+        synchronized (c) {
+            c.position(pos);
+            while (bufs[bufs.length - 1].hasRemaining()) c.write(bufs);
+        }
+    }
 
+    void writeRaw(int pageId, ByteBuffer src) throws IOException {
+        physicalWrites.increment();
+        if (wal != null) {
+            wal.append(pageId, src);
+            return;
+        }
+        ByteBuffer b = src.duplicate();
+        b.rewind();
+        long pos = (long) pageId * PAGE_SIZE;
+        while (b.hasRemaining()) ch.write(b, pos + b.position());
+    }
+
+}
@@ -0,0 +1,113 @@
+package IO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// FileManager over MappedByteBuffer segments. readPage hands out a zero-copy slice of
+// the mapping, so the returned buffer IS the page: writes to it land in the file even
+// without writePage (writePage still works, it just copies onto the same bytes).
+public class MappedFileManager extends FileManager {
+    public static final int SEGMENT_PAGES = (16 << 20) / PAGE_SIZE; // 16 MB per mapping
+
+    // copied on growth under the monitor and republished whole, so readers on other threads
+    // never see a half-grown list; a mapping never moves once it is in
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile long pages;
+
+    public MappedFileManager(String path, boolean reset) throws IOException {
+        super(path, reset, 0);
+        this.pages = super.pageCount();
+        ensureMapped(pages - 1);
+    }
+
+    // Map whole segments up to the one holding pageId. Mapping READ_WRITE past EOF grows
+    // the file; the logical size is restored on close.
+    private synchronized MappedByteBuffer[] ensureMapped(long pageId) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        int have = segs.length, need = pageId < 0 ? 0 : (int) (pageId / SEGMENT_PAGES) + 1;
+        if (have >= need) return segs;
+        segs = Arrays.copyOf(segs, need);
+        for (int i = have; i < need; i++) {
+            long pos = (long) i * SEGMENT_PAGES * PAGE_SIZE;
+            segs[i] = channel().map(FileChannel.MapMode.READ_WRITE, pos, (long) SEGMENT_PAGES * PAGE_SIZE);
+        }
+        segments = segs;
+        return segs;
+    }
+
+    private ByteBuffer slice(int pageId) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        int s = pageId / SEGMENT_PAGES;
+        if (s >= segs.length) segs = ensureMapped(pageId);   // only growth takes the lock
+        return segs[s].slice((pageId % SEGMENT_PAGES) * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    @Override public long pageCount() { return pages; }
+
+    @Override public synchronized int allocatePage() throws IOException {
+        int newPageId = (int) pages++;
+        ByteBuffer b = slice(newPageId);
+        for (int i = 0; i < PAGE_SIZE; i += 8) b.putLong(i, 0L);
+        return newPageId;
+    }
+
+    // Maps the new range up front so concurrent writers never grow the segment list
+    @Override public synchronized int reservePages(int n) throws IOException {
+        int first = (int) pages;
+        pages += n;
+        ensureMapped(pages - 1);
+        return first;
+    }
+
+    @Override public ByteBuffer readPage(int pageId) throws IOException {
+        return slice(pageId);
+    }
+
+    @Override public ByteBuffer readPage(int pageId, ByteBuffer dst) throws IOException {
+        dst.clear();
+        dst.put(slice(pageId)).flip();
+        return dst;
+    }
+
+    @Override public ByteBuffer readPages(int firstPid, int n, ByteBuffer dst) throws IOException {
+        for (int i = 0; i < n; i++) dst.put(i * PAGE_SIZE, slice(firstPid + i), 0, PAGE_SIZE);
+        dst.clear().limit(n * PAGE_SIZE);
+        return dst;
+    }
+
+    @Override public void writePage(int pageId, ByteBuffer buf) throws IOException {
+        slice(pageId).put(buf.duplicate().rewind());
+    }
+
+    // Slices of an already mapped range are independent, so the normal paths are concurrent-safe
+    @Override public ByteBuffer readPageConcurrent(int pageId, ByteBuffer dst) throws IOException {
+        return readPage(pageId, dst);
+    }
+
+    @Override public ByteBuffer readPagesConcurrent(int firstPid, int n, ByteBuffer dst) throws IOException {
+        return readPages(firstPid, n, dst);
+    }
+
+    @Override public void writePageConcurrent(int pageId, ByteBuffer src) throws IOException {
+        writePage(pageId, src);
+    }
+
+    @Override public void flush() {
+        for (MappedByteBuffer seg : segments) seg.force();
+    }
+
+    // Only the logical size changes while mapped; truncating under a live mapping would
+    // fault on the next access to those pages
+    @Override public void truncateToPages(long pageCount) {
+        pages = pageCount;
+    }
+
+    @Override public void close() throws IOException {
+        flush();
+        channel().truncate(pages * PAGE_SIZE);
+        super.close();
+    }
+}
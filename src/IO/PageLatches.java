@@ -0,0 +1,96 @@
+package IO;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Version latches for the pages of one FileManager (FileManager.latches()), for optimistic
+// lock coupling. Page ids hash onto STRIPES words: even = free, odd = a writer holds it, and
+// every release bumps the word, so a reader that saw the same even value before and after
+// reading a page knows no writer touched it in between. Readers never write a word; two
+// pages sharing a stripe only cost the odd needless restart.
+public final class PageLatches {
+    public static final int STRIPES = 1 << 14;
+    private static final int SPINS = 64;   // busy waits before yielding to the writer,
+    private static final int YIELDS = 64;  // then yields before sleeping (a writer that lost its CPU)
+
+    private final AtomicLongArray words = new AtomicLongArray(STRIPES);
+    // Structure changes (splits, merges, root changes) go one at a time; see BPlusTree
+    private final ReentrantLock structure = new ReentrantLock();
+
+    private static int stripe(int pageId) { return pageId & (STRIPES - 1); }
+
+    // Version to validate against after reading pageId; waits while a writer holds it
+    public long readVersion(int pageId) {
+        int s = stripe(pageId);
+        for (int spins = 0; ; spins++) {
+            long v = words.get(s);
+            if ((v & 1) == 0) return v;
+            if (spins < SPINS) Thread.onSpinWait();
+            else if (spins < SPINS + YIELDS) Thread.yield();
+            else LockSupport.parkNanos(50_000);
+        }
+    }
+
+    // True if pageId has not been written since readVersion returned version. The fence
+    // keeps the page reads in front of it (mapped pages are read in place, not copied).
+    public boolean validate(int pageId, long version) {
+        VarHandle.acquireFence();
+        return words.get(stripe(pageId)) == version;
+    }
+
+    // Take the write latch only if the page is still at version; what was read stays valid
+    public boolean tryUpgrade(int pageId, long version) {
+        return words.compareAndSet(stripe(pageId), version, version + 1);
+    }
+
+    public void lock(int pageId) {
+        int s = stripe(pageId);
+        while (true) {
+            long v = readVersion(pageId);
+            if (words.compareAndSet(s, v, v + 1)) return;
+        }
+    }
+
+    public void unlock(int pageId) {
+        words.incrementAndGet(stripe(pageId));
+    }
+
+    public ReentrantLock structureLock() { return structure; }
+
+    // Write latches taken by one structure change as it reads and writes pages, released
+    // together at its end or, crabbing down, all but the page reached once that page is
+    // known to stop whatever the change does below it. Pages sharing a stripe take it once.
+    public final class Held {
+        private final byte[] refs = new byte[STRIPES];   // held pages per stripe
+        private int[] pages = new int[16];
+        private int n;
+
+        public void lock(int pageId) {
+            for (int i = 0; i < n; i++) if (pages[i] == pageId) return;
+            int s = stripe(pageId);
+            if (refs[s]++ == 0) PageLatches.this.lock(pageId);
+            if (n == pages.length) pages = Arrays.copyOf(pages, n * 2);
+            pages[n++] = pageId;
+        }
+
+        public void unlockAllBut(int keep) {
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (pages[i] == keep) {
+                    pages[kept++] = keep;
+                    continue;
+                }
+                int s = stripe(pages[i]);
+                if (--refs[s] == 0) unlock(pages[i]);
+            }
+            n = kept;
+        }
+
+        public void unlockAll() { unlockAllBut(-1); }
+    }
+
+    public Held held() { return new Held(); }
+}
@@ -0,0 +1,97 @@
+package IO;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Old images of pages for snapshot reads (multi-version concurrency control at page
+// granularity), one per FileManager (FileManager.versions()). Before a writer changes a page
+// it saves the page as it was in an Undo entry at the head of that page's chain; the entry
+// is stamped with a commit timestamp when the change commits. A snapshot is the last commit
+// timestamp when it was opened and sees a page as the before-image of the oldest change it
+// must not see (committed later, or not at all yet), or the page itself if there is none.
+// Readers never lock (a page latch only tells them the page and its chain were read as a
+// pair) and writers never wait for readers: they just keep before-images around for as long
+// as an open snapshot is older than them.
+public final class PageVersions {
+    public static final long PENDING = Long.MAX_VALUE;   // not committed: no snapshot sees it
+
+    public static final class Undo {
+        final int pageId;
+        final ByteBuffer before;        // read-only; null = no heap page there yet
+        volatile long ts = PENDING;
+        volatile Undo older;
+        Undo(int pageId, ByteBuffer before) { this.pageId = pageId; this.before = before; }
+    }
+
+    private final ConcurrentHashMap<Integer, Undo> chains = new ConcurrentHashMap<>();
+    // guarded by this: opening a snapshot, committing and pruning see the same timestamps
+    private long committed;
+    private final TreeMap<Long, Integer> open = new TreeMap<>();   // snapshot ts -> how many
+
+    // Record that pageId is about to change; before is the page as it is (copied here), or
+    // null if it is not a heap page yet. Call before the new bytes reach the page, under its
+    // write latch, and pass the result to commit().
+    public Undo save(int pageId, ByteBuffer before) {
+        ByteBuffer copy = null;
+        if (before != null) {
+            copy = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+            copy.put(0, before, 0, FileManager.PAGE_SIZE);
+            copy = copy.asReadOnlyBuffer();
+        }
+        Undo u = new Undo(pageId, copy);
+        chains.compute(pageId, (pid, head) -> { u.older = head; return u; });
+        return u;
+    }
+
+    public void commit(Undo u) { commit(List.of(u)); }
+
+    // Make a unit of changes visible, all at once, to snapshots opened from now on
+    public synchronized void commit(List<Undo> undos) {
+        long ts = ++committed;
+        for (Undo u : undos) u.ts = ts;
+        for (Undo u : undos) prune(u.pageId);
+    }
+
+    // Timestamp of a new snapshot; close it with close(ts) so its before-images can go
+    public synchronized long open() {
+        open.merge(committed, 1, Integer::sum);
+        return committed;
+    }
+
+    public synchronized void close(long ts) {
+        long oldest = open.firstKey();
+        if (open.merge(ts, -1, Integer::sum) == 0) open.remove(ts);
+        if (open.isEmpty() || open.firstKey() != oldest) {
+            for (Integer pid : chains.keySet()) prune(pid);
+        }
+    }
+
+    // Chain head for pageId: read it between reading the page's latch version and
+    // validating it, like the page itself, then pass both to visible()
+    public Undo head(int pageId) { return chains.get(pageId); }
+
+    // What a snapshot at ts sees of a page read together with head: page, or an older image
+    // (read-only, null = no heap page at the time)
+    public static ByteBuffer visible(ByteBuffer page, Undo head, long ts) {
+        for (Undo u = head; u != null && u.ts > ts; u = u.older) page = u.before;
+        return page;
+    }
+
+    // Drop the entries of pageId that every open snapshot (and every later one) sees past:
+    // those committed no later than the oldest snapshot, and all older ones
+    private void prune(int pageId) {
+        long oldest = open.isEmpty() ? committed : open.firstKey();
+        Undo head = chains.get(pageId), prev = null;
+        for (Undo u = head; u != null; prev = u, u = u.older) {
+            if (u.ts > oldest) continue;
+            if (prev == null) chains.remove(pageId, head);
+            else prev.older = null;
+            return;
+        }
+    }
+
+    // Pages with undo entries kept (for reports)
+    public int chainCount() { return chains.size(); }
+}
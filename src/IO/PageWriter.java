@@ -0,0 +1,83 @@
+package IO;
+
+import java.io.IOException;
+
+// Background thread of a FileManager (FileManager.startWriter). Every period it trickles the
+// buffer pool's dirty pages out in page-id order, BATCH at a time, adjacent pages in one
+// gathering write, so evictions mostly find clean frames and flush()/commit()/close() have
+// little left to write. With a write-ahead log it also takes a fuzzy checkpoint every
+// checkpoint period: committed pages go home while work goes on, and the superblock
+// records how far recovery can skip (WriteAheadLog.checkpoint).
+public final class PageWriter implements AutoCloseable {
+    public static final int BATCH = 32;   // pages copied out per pool visit
+
+    private final FileManager fm;
+    private final long periodMillis, checkpointMillis;
+    private final Thread thread;
+    private volatile boolean stopping;
+    private volatile Throwable failure;
+    private volatile long rounds;
+
+    PageWriter(FileManager fm, long periodMillis, long checkpointMillis) {
+        this.fm = fm;
+        this.periodMillis = periodMillis;
+        this.checkpointMillis = checkpointMillis;
+        this.thread = new Thread(this::run, "page-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        long lastCheckpoint = System.nanoTime();
+        try {
+            while (!stopping) {
+                synchronized (this) {
+                    wait(periodMillis);
+                }
+                if (stopping) break;
+                BufferPool pool = fm.pool();
+                if (pool != null) {
+                    // one sweep over what is dirty now; pages dirtied meanwhile wait for the next round
+                    int budget = pool.dirtyCount();
+                    while (budget > 0 && !stopping) {
+                        int n = pool.trickle(Math.min(BATCH, budget));
+                        if (n == 0) break;
+                        budget -= n;
+                    }
+                }
+                rounds++;
+                if (fm.wal() != null && System.nanoTime() - lastCheckpoint >= checkpointMillis * 1_000_000) {
+                    fm.checkpoint();
+                    lastCheckpoint = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;           // reported by close()
+        }
+    }
+
+    // Stop after the current round; rethrows what made the thread give up, if anything
+    @Override public void close() throws IOException {
+        stopping = true;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable f = failure;
+        if (f instanceof RuntimeException) throw (RuntimeException) f;
+        if (f instanceof Error) throw (Error) f;
+        if (f != null) throw new IOException("Page writer failed", f);
+    }
+
+    @Override public String toString() {
+        BufferPool pool = fm.pool();
+        return "rounds=" + rounds + (pool == null ? "" : ", pages trickled=" + pool.trickled())
+                + (fm.wal() == null ? "" : ", checkpoints=" + fm.wal().checkpoints());
+    }
+}
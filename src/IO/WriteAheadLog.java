@@ -0,0 +1,396 @@
+package IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+// Redo log of whole-page images next to the data file (<db>.wal). With a log, FileManager
+// writes a page by appending it here instead of writing it in place; reads look here first.
+// commit() appends a commit frame and fsyncs the log, so a unit of work is durable after one
+// sequential append, however many random pages it touched. Committed pages are copied home
+// by checkpoint(); recover() does the same on open for a log a crash left behind, and drops
+// frames after the last commit, so a crashed build or load leaves the file as it was at
+// its last commit.
+//   header: [0] magic  [4] version  [8] page size  [12] salt (new for every log generation)
+//   frame:  [0] kind  [4] page id (PAGE) / page count (COMMIT)  [8] salt  [12] CRC32C of
+//           bytes 0..11 and the page, then the page image for PAGE frames
+// Concurrent commits share fsyncs (group commit): the first waiter forces the log for
+// every commit frame appended so far, the others wait for it instead of forcing again.
+public final class WriteAheadLog implements AutoCloseable {
+    public static final String SUFFIX = ".wal";
+    public static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;  // log size that triggers a checkpoint at commit
+
+    // Last checkpoint, kept in the data file's own copy of page 0 (Superblock.OFF_CHECKPOINT):
+    //   [0] log salt  [4] log offset every committed frame before it is home  [12] page count
+    public static final int CHECKPOINT_OFFSET = 76;
+    public static final int CHECKPOINT_BYTES = 16;
+
+    static final int MAGIC = 0x4442574c;   // "DBWL"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int FRAME_HEADER = 16;
+    static final int PAGE = 1, COMMIT = 2;
+    static final int COPY_RUN = 64;        // pages per gathering write when copying home
+
+    private final String path;
+    private final RandomAccessFile raf;
+    private final FileChannel ch;
+    private final ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + FileManager.PAGE_SIZE);
+    private final CRC32C crc = new CRC32C();
+    private int salt;
+
+    // Latest frame of every page written since the log was started; read side is lock-free
+    private final Map<Integer, Long> frames = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> committed = new HashMap<>();   // frame of each page as of the last commit
+    private final Set<Integer> pending = new HashSet<>();           // pages written since the last commit
+    private long end;                 // append offset
+    private long committedEnd;        // offset after the last commit frame
+    private long committedPages;      // page count of the last commit
+    private volatile long zeroFrom = Long.MAX_VALUE;   // pages >= this were truncated and read as zeroes
+
+    // group commit
+    private final Object syncLock = new Object();
+    private long durable;             // log bytes known to be on disk
+    private boolean syncing;
+    private int generation;           // bumped by reset(): older commits are home already
+
+    // checkpoints: one at a time; starting a new log waits for readers of the old one
+    private final Object checkpointLock = new Object();
+    private final ReentrantReadWriteLock resetLock = new ReentrantReadWriteLock();
+    private long checkpointedEnd;     // committed frames before this offset are home
+
+    private long pageFrames, commits, syncs, checkpoints, resets;
+
+    WriteAheadLog(String dbPath, long pageCount) throws IOException {
+        this.path = dbPath + SUFFIX;
+        this.raf = new RandomAccessFile(path, "rw");
+        this.ch = raf.getChannel();
+        this.committedPages = pageCount;
+        reset();
+    }
+
+    // ---- write side ----
+
+    synchronized void append(int pageId, ByteBuffer src) throws IOException {
+        ByteBuffer b = frame.clear();
+        b.putInt(PAGE).putInt(pageId).putInt(salt).putInt(0);
+        b.put(src.duplicate().rewind());
+        b.putInt(12, checksum(b, FRAME_HEADER + FileManager.PAGE_SIZE));
+        long at = end;
+        write(b.flip());
+        frames.put(pageId, at);   // only once the image is there for readers
+        pending.add(pageId);
+        pageFrames++;
+    }
+
+    // Append a commit frame for everything logged so far and wait until it is on disk
+    void commit(long pageCount) throws IOException {
+        long upTo;
+        int gen;
+        synchronized (this) {
+            ByteBuffer b = frame.clear();
+            b.putInt(COMMIT).putInt((int) pageCount).putInt(salt).putInt(0);
+            b.putInt(12, checksum(b, FRAME_HEADER));
+            write(b.flip());
+            for (int pid : pending) {
+                Long at = frames.get(pid);
+                if (at != null) committed.put(pid, at);
+            }
+            pending.clear();
+            committedEnd = end;
+            committedPages = pageCount;
+            upTo = end;
+            commits++;
+            synchronized (syncLock) { gen = generation; }
+        }
+        sync(upTo, gen);
+    }
+
+    // Wait until the log is on disk up to upTo. One thread at a time forces it; commits that
+    // arrive meanwhile queue behind it and are all covered by the next force. A checkpoint
+    // that started a new log meanwhile made the commit durable in the data file already.
+    private void sync(long upTo, int gen) throws IOException {
+        while (true) {
+            synchronized (syncLock) {
+                while (syncing && gen == generation && durable < upTo) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted waiting for the log", e);
+                    }
+                }
+                if (gen != generation || durable >= upTo) return;
+                syncing = true;
+            }
+            long target;
+            synchronized (this) { target = end; }   // every frame appended so far
+            boolean done = false;
+            try {
+                ch.force(false);
+                done = true;
+            } finally {
+                synchronized (syncLock) {
+                    if (done) {
+                        syncs++;
+                        if (gen == generation) durable = Math.max(durable, target);
+                    }
+                    syncing = false;
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Pages >= pageCount are gone: drop their frames, and read them as zeroes until rewritten
+    synchronized void truncate(long pageCount) {
+        frames.keySet().removeIf(pid -> pid >= pageCount);
+        committed.keySet().removeIf(pid -> pid >= pageCount);
+        pending.removeIf(pid -> pid >= pageCount);
+        zeroFrom = Math.min(zeroFrom, pageCount);
+    }
+
+    private void write(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) end += ch.write(b, end);
+    }
+
+    private int checksum(ByteBuffer b, int len) {
+        crc.reset();
+        crc.update(b.array(), 0, 12);
+        crc.update(b.array(), FRAME_HEADER, len - FRAME_HEADER);
+        return (int) crc.getValue();
+    }
+
+    // ---- read side ----
+
+    boolean isEmpty() { return frames.isEmpty() && zeroFrom == Long.MAX_VALUE; }
+
+    // Latest image of pageId into dst; false if the log has none (read the data file)
+    boolean read(int pageId, ByteBuffer dst) throws IOException {
+        resetLock.readLock().lock();
+        try {
+            Long at = frames.get(pageId);
+            if (at == null) {
+                if (pageId < zeroFrom) return false;
+                dst.clear();
+                while (dst.hasRemaining()) dst.put((byte) 0);
+                dst.flip();
+                return true;
+            }
+            dst.clear();
+            if (!readFully(ch, dst, at + FRAME_HEADER)) throw new IOException("Log ends inside the frame at " + at);
+            dst.flip();
+            return true;
+        } finally {
+            resetLock.readLock().unlock();
+        }
+    }
+
+    // ---- checkpoint / recovery ----
+
+    // Fuzzy checkpoint: copy every page as of the last commit into the data file, in page
+    // order, while appends and commits go on; force it, and record in page 0 of the data file
+    // that redo can start at that commit. Pages already home from an earlier checkpoint are
+    // skipped. When nothing was appended since, the log is emptied as well (true): the file
+    // gets the committed page count and a new log generation starts.
+    boolean checkpoint(FileChannel data) throws IOException {
+        synchronized (checkpointLock) {
+            long upTo, pageCount, done;
+            int s;
+            int[] pids;
+            long[] at;
+            synchronized (this) {
+                upTo = committedEnd;
+                pageCount = committedPages;
+                s = salt;
+                done = checkpointedEnd;
+                pids = committed.entrySet().stream()
+                        .filter(e -> e.getKey() < pageCount && e.getValue() >= done)
+                        .mapToInt(Map.Entry::getKey).sorted().toArray();
+                at = new long[pids.length];
+                for (int i = 0; i < pids.length; i++) at[i] = committed.get(pids[i]);
+            }
+            if (upTo > done) {
+                copyHome(data, pids, at);
+                data.force(false);
+                ByteBuffer rec = ByteBuffer.allocate(CHECKPOINT_BYTES);
+                rec.putInt(s).putLong(upTo).putInt((int) pageCount).flip();
+                writeFully(data, rec, CHECKPOINT_OFFSET);
+                data.force(false);
+                synchronized (this) {
+                    checkpointedEnd = upTo;
+                    checkpoints++;
+                }
+            }
+            resetLock.writeLock().lock();
+            try {
+                synchronized (this) {
+                    if (end != upTo) return false;      // later work is only in the log
+                    if (end == HEADER_BYTES && zeroFrom == Long.MAX_VALUE) return true;
+                    setSize(data, pageCount);
+                    data.force(true);
+                    reset();
+                    resets++;
+                    return true;
+                }
+            } finally {
+                resetLock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Frames at[i] to pages pids[i] (ascending) of the data file, adjacent pages gathered
+    private void copyHome(FileChannel data, int[] pids, long[] at) throws IOException {
+        ByteBuffer[] run = new ByteBuffer[COPY_RUN];
+        for (int i = 0; i < COPY_RUN; i++) run[i] = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+        for (int i = 0; i < pids.length; ) {
+            int n = 0;
+            do {
+                run[n].clear();
+                if (!readFully(ch, run[n], at[i + n] + FRAME_HEADER)) throw new IOException("Short log frame at " + at[i + n]);
+                run[n].flip();
+                n++;
+            } while (n < COPY_RUN && i + n < pids.length && pids[i + n] == pids[i] + n);
+            FileManager.writeRun(data, (long) pids[i] * FileManager.PAGE_SIZE, Arrays.copyOf(run, n));
+            i += n;
+        }
+    }
+
+    synchronized long size() { return end; }
+
+    private void reset() throws IOException {
+        salt = ThreadLocalRandom.current().nextInt();
+        ch.truncate(0);
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+        h.putInt(MAGIC).putInt(VERSION).putInt(FileManager.PAGE_SIZE).putInt(salt).flip();
+        writeFully(ch, h, 0);
+        ch.force(true);
+        frames.clear();
+        committed.clear();
+        pending.clear();
+        end = committedEnd = checkpointedEnd = HEADER_BYTES;
+        zeroFrom = Long.MAX_VALUE;
+        synchronized (syncLock) {
+            generation++;
+            durable = HEADER_BYTES;
+            syncLock.notifyAll();
+        }
+    }
+
+    // Redo a log left by a crash into the data file: committed frames are copied home and the
+    // file gets the page count of the last commit; frames after it (a torn or unfinished
+    // unit) are ignored. Redo starts at the checkpoint recorded in page 0 when it belongs to
+    // this log. The log is deleted afterwards. Returns the pages redone, -1 if there was no log.
+    static int recover(String dbPath, FileChannel data) throws IOException {
+        File f = new File(dbPath + SUFFIX);
+        if (!f.exists()) return -1;
+        int redone = 0;
+        try (RandomAccessFile in = new RandomAccessFile(f, "r"); FileChannel log = in.getChannel()) {
+            long size = log.size();
+            ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+            if (size >= HEADER_BYTES && readFully(log, h, 0)) {
+                if (h.getInt(0) != MAGIC) throw new IllegalStateException("Bad log file " + f);
+                if (h.getInt(8) != FileManager.PAGE_SIZE)
+                    throw new IllegalStateException("Log page size " + h.getInt(8) + " != " + FileManager.PAGE_SIZE
+                            + "; open it with -Ddb.pageSize=" + h.getInt(8));
+                int salt = h.getInt(12);
+                long start = HEADER_BYTES, pageCount = -1;
+                ByteBuffer rec = ByteBuffer.allocate(CHECKPOINT_BYTES);
+                if (data.size() >= CHECKPOINT_OFFSET + CHECKPOINT_BYTES && readFully(data, rec, CHECKPOINT_OFFSET)
+                        && rec.getInt(0) == salt && rec.getLong(4) > HEADER_BYTES && rec.getLong(4) <= size) {
+                    start = rec.getLong(4);          // everything committed before it is home
+                    pageCount = rec.getInt(12);
+                }
+                Map<Integer, Long> pending = new HashMap<>(), committed = new HashMap<>();
+                ByteBuffer b = ByteBuffer.allocate(FRAME_HEADER + FileManager.PAGE_SIZE);
+                CRC32C crc = new CRC32C();
+                for (long pos = start; ; ) {
+                    b.clear().limit(FRAME_HEADER);
+                    if (pos + FRAME_HEADER > size || !readFully(log, b, pos)) break;
+                    int kind = b.getInt(0), arg = b.getInt(4);
+                    if (b.getInt(8) != salt || (kind != PAGE && kind != COMMIT)) break;
+                    int len = kind == PAGE ? FRAME_HEADER + FileManager.PAGE_SIZE : FRAME_HEADER;
+                    b.limit(len).position(FRAME_HEADER);
+                    if (pos + len > size || !readFully(log, b, pos + FRAME_HEADER)) break;
+                    crc.reset();
+                    crc.update(b.array(), 0, 12);
+                    crc.update(b.array(), FRAME_HEADER, len - FRAME_HEADER);
+                    if ((int) crc.getValue() != b.getInt(12)) break;   // torn write
+                    if (kind == PAGE) {
+                        pending.put(arg, pos);
+                    } else {
+                        committed.putAll(pending);
+                        pending.clear();
+                        pageCount = arg;
+                    }
+                    pos += len;
+                }
+                if (pageCount >= 0) {
+                    int[] pids = committed.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+                    ByteBuffer page = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+                    for (int pid : pids) {
+                        if (pid >= pageCount) continue;
+                        page.clear();
+                        if (!readFully(log, page, committed.get(pid) + FRAME_HEADER)) throw new IOException("Short log frame");
+                        writeFully(data, page.flip(), (long) pid * FileManager.PAGE_SIZE);
+                        redone++;
+                    }
+                    setSize(data, pageCount);
+                    data.force(true);
+                }
+            }
+        }
+        if (!f.delete()) throw new IOException("Cannot remove " + f);
+        return redone;
+    }
+
+    private static void setSize(FileChannel data, long pageCount) throws IOException {
+        long bytes = pageCount * FileManager.PAGE_SIZE;
+        if (data.size() > bytes) data.truncate(bytes);
+        else if (data.size() < bytes) writeFully(data, ByteBuffer.allocate(1), bytes - 1);   // pages never written read as zeroes
+    }
+
+    private static boolean readFully(FileChannel c, ByteBuffer dst, long pos) throws IOException {
+        long start = pos - dst.position();
+        while (dst.hasRemaining()) {
+            if (c.read(dst, start + dst.position()) < 0) return false;
+        }
+        return true;
+    }
+
+    private static void writeFully(FileChannel c, ByteBuffer src, long pos) throws IOException {
+        long start = pos - src.position();
+        while (src.hasRemaining()) c.write(src, start + src.position());
+    }
+
+    // ---- stats ----
+    public synchronized long pageFrames() { return pageFrames; }
+    public synchronized long commits() { return commits; }
+    public long syncs() { synchronized (syncLock) { return syncs; } }
+    public synchronized long checkpoints() { return checkpoints; }
+
+    @Override public synchronized String toString() {
+        return String.format("page frames=%d commits=%d fsyncs=%d checkpoints=%d (log emptied %d times) log=%d KB",
+                pageFrames, commits, syncs(), checkpoints, resets, end / 1024);
+    }
+
+    // Closes the log; after a checkpoint it holds nothing and is deleted
+    @Override public void close() throws IOException {
+        boolean empty;
+        synchronized (this) { empty = end == HEADER_BYTES; }
+        ch.close();
+        raf.close();
+        if (empty) new File(path).delete();
+    }
+}
@@ -8,6 +8,35 @@ public final class FixedRecordSize {
 
     public static final int RECORD_SIZE = 36; // 9 x 4 bytes
 
+    // Column ids in record order; every column is 4 bytes at offset col * 4
+    public static final int COL_GAME_DATE      = 0;
+    public static final int COL_TEAM_ID_HOME   = 1;
+    public static final int COL_PTS_HOME       = 2;
+    public static final int COL_FG_PCT_HOME    = 3;
+    public static final int COL_FT_PCT_HOME    = 4;   // B+ key
+    public static final int COL_FG3_PCT_HOME   = 5;
+    public static final int COL_AST_HOME       = 6;
+    public static final int COL_REB_HOME       = 7;
+    public static final int COL_HOME_TEAM_WINS = 8;
+    public static final String[] COLUMN_NAMES = {
+            "GAME_DATE_EST", "TEAM_ID_home", "PTS_home", "FG_PCT_home", "FT_PCT_home",
+            "FG3_PCT_home", "AST_home", "REB_home", "HOME_TEAM_WINS"
+    };
+
+    public static int offsetOf(int col) { return col * 4; }
+
+    // Column id by name (case-insensitive)
+    public static int columnOf(String name) {
+        for (int c = 0; c < COLUMN_NAMES.length; c++) {
+            if (COLUMN_NAMES[c].equalsIgnoreCase(name)) return c;
+        }
+        throw new IllegalArgumentException("Unknown column " + name + "; one of " + String.join(", ", COLUMN_NAMES));
+    }
+
+    public static boolean isFloat(int col) {
+        return col == COL_FG_PCT_HOME || col == COL_FT_PCT_HOME || col == COL_FG3_PCT_HOME;
+    }
+
     // FAST parser: handles M/D/YYYY, D/M/YYYY, and YYYY-MM-DD
     public static int parseDateToInt(String s) {
         if (s == null || s.isEmpty()) return 0;
@@ -56,9 +85,19 @@ public final class FixedRecordSize {
     }
 
 
+    // yyyymmdd -> "yyyy-mm-dd", digit by digit (String.format was most of the decode cost)
     public static String formatDateInt(int dateInt) {
-        String s = String.format("%08d", dateInt);
-        return s.substring(0,4) + "-" + s.substring(4,6) + "-" + s.substring(6,8);
+        if (dateInt < 0 || dateInt > 99999999) {   // not a packed date; keep the old output
+            String s = String.format("%08d", dateInt);
+            return s.substring(0,4) + "-" + s.substring(4,6) + "-" + s.substring(6,8);
+        }
+        byte[] c = new byte[10];
+        for (int i = 9; i >= 0; i--) {
+            if (i == 4 || i == 7) { c[i] = '-'; continue; }
+            c[i] = (byte) ('0' + dateInt % 10);
+            dateInt /= 10;
+        }
+        return new String(c, java.nio.charset.StandardCharsets.ISO_8859_1);
     }
 
     // Keep/write your existing write/read, but here they are for completeness:
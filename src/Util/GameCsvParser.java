@@ -0,0 +1,182 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Parses games CSV/TSV lines straight from bytes into the 36-byte record layout of
+// FixedRecordSize: no Strings, no GameRecord, nothing allocated per row. One instance per
+// header; parseLine is stateless, so worker threads can share it.
+public final class GameCsvParser {
+
+    // Accepted header names per record column (compared after norm())
+    private static final String[][] HEADER_NAMES = {
+            {"GAME_DATE_EST", "GAME_DATE", "DATE"},
+            {"TEAM_ID_HOME", "HOME_TEAM_ID"},
+            {"PTS_HOME", "HOME_PTS"},
+            {"FG_PCT_HOME", "FGPCT_HOME"},
+            {"FT_PCT_HOME", "FTPCT_HOME"},
+            {"FG3_PCT_HOME", "FG3PCT_HOME"},
+            {"AST_HOME", "ASSISTS_HOME"},
+            {"REB_HOME", "REBOUNDS_HOME"},
+            {"HOME_TEAM_WINS", "HOMEWINS"},
+    };
+
+    private static final float[] POW10F = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private final byte delim;
+    private final int[] colOfField;   // CSV field index -> record column, -1 = not stored
+
+    public GameCsvParser(String header) {
+        this.delim = (byte) (header.contains("\t") ? '\t' : ',');
+        String[] names = header.split(delim == '\t' ? "\t" : ",", -1);
+        colOfField = new int[names.length];
+        Arrays.fill(colOfField, -1);
+        for (int col = 0; col < HEADER_NAMES.length; col++) {
+            int field = -1;
+            for (String c : HEADER_NAMES[col]) {
+                for (int i = 0; i < names.length && field < 0; i++) {
+                    if (norm(names[i]).equals(norm(c))) field = i;
+                }
+            }
+            if (field < 0) {
+                throw new IllegalArgumentException("Missing column. Tried " + Arrays.toString(HEADER_NAMES[col])
+                        + " | Have: " + Arrays.toString(names));
+            }
+            colOfField[field] = col;
+        }
+    }
+
+    private static String norm(String s) {
+        return s.trim().toUpperCase().replaceAll("[^A-Z0-9]", "");
+    }
+
+    // Encode the line in src[start, end) (no line terminator) at dst[off, off + RECORD_SIZE).
+    // Missing or empty fields are stored as 0. Returns false for a blank line.
+    public boolean parseLine(byte[] src, int start, int end, byte[] dst, int off) {
+        while (end > start && isSpace(src[end - 1])) end--;   // '\r', trailing blanks
+        if (end == start) return false;
+
+        Arrays.fill(dst, off, off + FixedRecordSize.RECORD_SIZE, (byte) 0);
+        int field = 0, from = start;
+        for (int i = start; i <= end && field < colOfField.length; i++) {
+            if (i < end && src[i] != delim) continue;
+            int col = colOfField[field++];
+            if (col >= 0) {
+                int bits;
+                if (col == FixedRecordSize.COL_GAME_DATE) bits = parseDate(src, from, i);
+                else if (isFloat(col)) bits = Float.floatToRawIntBits(parseFloat(src, from, i));
+                else bits = parseInt(src, from, i);
+                putInt(dst, off + FixedRecordSize.offsetOf(col), bits);
+            }
+            from = i + 1;
+        }
+        return true;
+    }
+
+    private static boolean isFloat(int col) {
+        return col == FixedRecordSize.COL_FG_PCT_HOME || col == FixedRecordSize.COL_FT_PCT_HOME
+                || col == FixedRecordSize.COL_FG3_PCT_HOME;
+    }
+
+    private static boolean isSpace(byte b) { return b == ' ' || b == '\r' || b == '\t'; }
+
+    // big-endian, same as ByteBuffer.putInt
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24); b[off + 1] = (byte) (v >>> 16); b[off + 2] = (byte) (v >>> 8); b[off + 3] = (byte) v;
+    }
+
+    // ---- number parsing from bytes ----
+
+    static int parseInt(byte[] s, int from, int to) {
+        while (from < to && s[from] == ' ') from++;
+        while (to > from && s[to - 1] == ' ') to--;
+        if (from == to) return 0;
+        boolean neg = s[from] == '-';
+        if (neg || s[from] == '+') from++;
+        if (from == to) throw error("integer", s, from, to);
+        long v = 0;
+        for (int i = from; i < to; i++) {
+            int d = s[i] - '0';
+            if (d < 0 || d > 9) throw error("integer", s, from, to);
+            v = v * 10 + d;
+            if (v > Integer.MAX_VALUE + 1L) throw error("integer", s, from, to);
+        }
+        if (neg) v = -v;
+        if (v > Integer.MAX_VALUE) throw error("integer", s, from, to);
+        return (int) v;
+    }
+
+    // Plain decimals with few digits (all of the games data) are exact: m and 10^e are both
+    // exact floats, so one float division rounds correctly, same as Float.parseFloat.
+    // Anything else (exponents, long mantissas) goes through Float.parseFloat.
+    static float parseFloat(byte[] s, int from, int to) {
+        while (from < to && s[from] == ' ') from++;
+        while (to > from && s[to - 1] == ' ') to--;
+        if (from == to) return 0f;
+        int i = from;
+        boolean neg = s[i] == '-';
+        if (neg || s[i] == '+') i++;
+        long m = 0;
+        int digits = 0, scale = -1;
+        for (; i < to; i++) {
+            byte c = s[i];
+            if (c == '.' && scale < 0) { scale = 0; continue; }
+            int d = c - '0';
+            if (d < 0 || d > 9) return slowFloat(s, from, to);
+            m = m * 10 + d;
+            if (++digits > 9) return slowFloat(s, from, to);
+            if (scale >= 0) scale++;
+        }
+        if (digits == 0) throw error("number", s, from, to);
+        if (scale < 0) scale = 0;
+        if (m >= (1 << 24) || scale >= POW10F.length) return slowFloat(s, from, to);
+        float f = m / POW10F[scale];
+        return neg ? -f : f;
+    }
+
+    private static float slowFloat(byte[] s, int from, int to) {
+        try {
+            return Float.parseFloat(text(s, from, to));
+        } catch (NumberFormatException e) {
+            throw error("number", s, from, to);
+        }
+    }
+
+    // Same rules as FixedRecordSize.parseDateToInt: D/M/YYYY, M/D/YYYY, YYYY/M/D, YYYY-MM-DD, YYYYMMDD
+    static int parseDate(byte[] s, int from, int to) {
+        while (from < to && s[from] == ' ') from++;
+        while (to > from && s[to - 1] == ' ') to--;
+        if (from == to) return 0;
+        int a = 0, b = 0, c = 0, n = 0, digits = 0;
+        byte sep = 0;
+        for (int i = from; i < to; i++) {
+            byte ch = s[i];
+            if (ch >= '0' && ch <= '9') {
+                int d = ch - '0';
+                if (n == 0) a = a * 10 + d; else if (n == 1) b = b * 10 + d; else c = c * 10 + d;
+                if (++digits > 8) throw error("date", s, from, to);
+            } else if ((ch == '/' || ch == '-') && (sep == 0 || sep == ch) && n < 2) {
+                sep = ch;
+                n++;
+            } else {
+                throw error("date", s, from, to);
+            }
+        }
+        if (sep == 0) {                                          // YYYYMMDD
+            if (digits != 8) throw error("date", s, from, to);
+            return a;
+        }
+        if (n != 2) throw error("date", s, from, to);
+        if (sep == '-' || a > 31) return a * 10000 + b * 100 + c; // YYYY-MM-DD, YYYY/M/D
+        if (c > 31 && a > 12) return c * 10000 + b * 100 + a;    // D/M/YYYY
+        return c * 10000 + a * 100 + b;                          // M/D/YYYY
+    }
+
+    private static String text(byte[] s, int from, int to) {
+        return new String(s, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private static IllegalArgumentException error(String what, byte[] s, int from, int to) {
+        return new IllegalArgumentException("Bad " + what + " '" + text(s, from, to) + "'");
+    }
+}
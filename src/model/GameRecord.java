@@ -1,5 +1,7 @@
 package model;
 
+import Util.FixedRecordSize;
+
 public class GameRecord {
     private String gameDate;
     private int teamIdHome;
@@ -23,8 +25,20 @@ public class GameRecord {
         this.homeTeamWins = homeTeamWins;
     }
 
-    public float getKey() {
-        return this.getFtPctHome();
+    // Column col (FixedRecordSize.COL_*) as its 4 stored bytes: the int, or the float's bits
+    public int getColumnBits(int col) {
+        switch (col) {
+            case FixedRecordSize.COL_GAME_DATE: return FixedRecordSize.parseDateToInt(gameDate);
+            case FixedRecordSize.COL_TEAM_ID_HOME: return teamIdHome;
+            case FixedRecordSize.COL_PTS_HOME: return ptsHome;
+            case FixedRecordSize.COL_FG_PCT_HOME: return Float.floatToIntBits(fgPctHome);
+            case FixedRecordSize.COL_FT_PCT_HOME: return Float.floatToIntBits(ftPctHome);
+            case FixedRecordSize.COL_FG3_PCT_HOME: return Float.floatToIntBits(fg3PctHome);
+            case FixedRecordSize.COL_AST_HOME: return astHome;
+            case FixedRecordSize.COL_REB_HOME: return rebHome;
+            case FixedRecordSize.COL_HOME_TEAM_WINS: return homeTeamWins;
+            default: throw new IllegalArgumentException("No column " + col);
+        }
     }
 
     public String getGameDate() {
@@ -0,0 +1,50 @@
+package model;
+
+import Util.FixedRecordSize;
+
+import java.nio.ByteBuffer;
+
+// Zero-copy GameRecord: reads each field at its fixed offset from the page it was wrapped
+// on, so a scan or lookup can touch one column without decoding the other eight. The date
+// stays the packed yyyymmdd int; getGameDate() only builds the String when asked.
+// Column c is at off + c * stride: stride 4 for row pages, the column array length for PAX.
+// One view is reused per cursor/query, so it is only valid until it is wrapped again.
+public final class GameRecordView {
+    private ByteBuffer page;
+    private int off;
+    private int stride;
+
+    public GameRecordView wrap(ByteBuffer page, int off, int stride) {
+        this.page = page;
+        this.off = off;
+        this.stride = stride;
+        return this;
+    }
+
+    private int at(int col) { return off + col * stride; }
+
+    public int getGameDateInt()   { return page.getInt(at(FixedRecordSize.COL_GAME_DATE)); }
+    public String getGameDate()   { return FixedRecordSize.formatDateInt(getGameDateInt()); }
+    public int getTeamIdHome()    { return page.getInt(at(FixedRecordSize.COL_TEAM_ID_HOME)); }
+    public int getPtsHome()       { return page.getInt(at(FixedRecordSize.COL_PTS_HOME)); }
+    public float getFgPctHome()   { return page.getFloat(at(FixedRecordSize.COL_FG_PCT_HOME)); }
+    public float getFtPctHome()   { return page.getFloat(at(FixedRecordSize.COL_FT_PCT_HOME)); }
+    public float getFg3PctHome()  { return page.getFloat(at(FixedRecordSize.COL_FG3_PCT_HOME)); }
+    public int getAstHome()       { return page.getInt(at(FixedRecordSize.COL_AST_HOME)); }
+    public int getRebHome()       { return page.getInt(at(FixedRecordSize.COL_REB_HOME)); }
+    public int getHomeTeamWins()  { return page.getInt(at(FixedRecordSize.COL_HOME_TEAM_WINS)); }
+
+    // Column col (FixedRecordSize.COL_*) as its 4 stored bytes: the int, or the float's bits
+    public int getColumnBits(int col) { return page.getInt(at(col)); }
+
+    // Owned copy, for callers that keep the record past the next wrap()
+    public GameRecord toRecord() {
+        return new GameRecord(getGameDate(), getTeamIdHome(), getPtsHome(), getFgPctHome(), getFtPctHome(),
+                getFg3PctHome(), getAstHome(), getRebHome(), getHomeTeamWins());
+    }
+
+    @Override
+    public String toString() {
+        return toRecord().toString();
+    }
+}
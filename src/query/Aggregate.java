@@ -0,0 +1,249 @@
+package query;
+
+import Util.FixedRecordSize;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// End of a plan: drains its child and folds the rows in play into COUNT / SUM / AVG / MIN /
+// MAX, over all of them or per value of one int column (GROUP BY). Each batch first maps
+// its rows to group numbers, then every function runs down its column in one loop.
+public final class Aggregate {
+    public enum Fn { COUNT, SUM, AVG, MIN, MAX }
+
+    public static final class Spec {
+        final Fn fn;
+        final int col;   // -1 for COUNT
+        private Spec(Fn fn, int col) { this.fn = fn; this.col = col; }
+        @Override public String toString() {
+            return fn + "(" + (col < 0 ? "*" : FixedRecordSize.COLUMN_NAMES[col]) + ")";
+        }
+    }
+
+    public static Spec count()       { return new Spec(Fn.COUNT, -1); }
+    public static Spec sum(int col)  { return new Spec(Fn.SUM, col); }
+    public static Spec avg(int col)  { return new Spec(Fn.AVG, col); }
+    public static Spec min(int col)  { return new Spec(Fn.MIN, col); }
+    public static Spec max(int col)  { return new Spec(Fn.MAX, col); }
+
+    private final Operator child;
+    private final int groupCol;      // -1 = one group
+    private final Spec[] specs;
+
+    // groups: open addressing from key to group number, grown at half full
+    private int[] slotKeys = new int[64], slotGroups = new int[64];
+    private int groups;
+    private Result acc;
+    private final int[] gid = new int[Batch.CAPACITY];
+
+    public Aggregate(Operator child, int groupCol, Spec... specs) {
+        if (groupCol >= 0 && FixedRecordSize.isFloat(groupCol))
+            throw new IllegalArgumentException("GROUP BY needs an int column, not " + FixedRecordSize.COLUMN_NAMES[groupCol]);
+        this.child = child;
+        this.groupCol = groupCol;
+        this.specs = specs.clone();
+    }
+
+    public Result run() throws IOException {
+        Arrays.fill(slotGroups, -1);
+        groups = 0;
+        acc = new Result(groupCol, specs, 16);
+        if (groupCol < 0) acc.addGroup(0);
+        Batch b;
+        while ((b = child.next()) != null) {
+            int n = b.rows();
+            if (n == 0) continue;
+            if (groupCol >= 0) assignGroups(b, n);
+            for (int s = 0; s < specs.length; s++) fold(b, n, s);
+            if (groupCol < 0) acc.counts[0] += n;
+            else for (int i = 0; i < n; i++) acc.counts[gid[i]]++;
+        }
+        return acc.sorted();
+    }
+
+    private void assignGroups(Batch b, int n) {
+        int[] keys = b.intColumn(groupCol);
+        int[] sel = b.sel;
+        for (int i = 0; i < n; i++) gid[i] = group(keys[sel == null ? i : sel[i]]);
+    }
+
+    private int group(int key) {
+        int mask = slotKeys.length - 1;
+        for (int h = mix(key) & mask; ; h = (h + 1) & mask) {
+            int g = slotGroups[h];
+            if (g < 0) {
+                g = groups++;
+                slotKeys[h] = key;
+                slotGroups[h] = g;
+                acc.addGroup(key);
+                if (groups * 2 > slotKeys.length) rehash();
+                return g;
+            }
+            if (slotKeys[h] == key) return g;
+        }
+    }
+
+    private static int mix(int key) { return key * 0x9E3779B9 >>> 7; }
+
+    private void rehash() {
+        int[] keys = slotKeys, gs = slotGroups;
+        slotKeys = new int[keys.length * 2];
+        slotGroups = new int[keys.length * 2];
+        Arrays.fill(slotGroups, -1);
+        int mask = slotKeys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (gs[i] < 0) continue;
+            int h = mix(keys[i]) & mask;
+            while (slotGroups[h] >= 0) h = (h + 1) & mask;
+            slotKeys[h] = keys[i];
+            slotGroups[h] = gs[i];
+        }
+    }
+
+    // One function over the batch; acc.values[g * specs.length + s] holds group g's sum
+    // (SUM, AVG), min or max
+    private void fold(Batch b, int n, int s) {
+        Spec spec = specs[s];
+        if (spec.fn == Fn.COUNT) return;   // from counts
+        int w = specs.length;
+        double[] vals = acc.values;
+        int[] sel = b.sel;
+        boolean grouped = groupCol >= 0;
+        if (!grouped) {
+            // one group: keep the running value in a local
+            double v = vals[s];
+            if (FixedRecordSize.isFloat(spec.col)) {
+                float[] x = b.floatColumn(spec.col);
+                for (int i = 0; i < n; i++) v = step(spec.fn, v, x[sel == null ? i : sel[i]]);
+            } else {
+                int[] x = b.intColumn(spec.col);
+                if (spec.fn != Fn.MIN && spec.fn != Fn.MAX) {
+                    long sum = 0;
+                    for (int i = 0; i < n; i++) sum += x[sel == null ? i : sel[i]];
+                    v += sum;
+                } else {
+                    for (int i = 0; i < n; i++) v = step(spec.fn, v, x[sel == null ? i : sel[i]]);
+                }
+            }
+            vals[s] = v;
+            return;
+        }
+        if (FixedRecordSize.isFloat(spec.col)) {
+            float[] x = b.floatColumn(spec.col);
+            for (int i = 0; i < n; i++) {
+                int at = gid[i] * w + s;
+                vals[at] = step(spec.fn, vals[at], x[sel == null ? i : sel[i]]);
+            }
+        } else {
+            int[] x = b.intColumn(spec.col);
+            for (int i = 0; i < n; i++) {
+                int at = gid[i] * w + s;
+                vals[at] = step(spec.fn, vals[at], x[sel == null ? i : sel[i]]);
+            }
+        }
+    }
+
+    private static double step(Fn fn, double acc, double x) {
+        switch (fn) {
+            case MIN: return Math.min(acc, x);
+            case MAX: return Math.max(acc, x);
+            default:  return acc + x;
+        }
+    }
+
+    // One row per group, in key order (a single row without GROUP BY)
+    public static final class Result {
+        private final int groupCol;
+        private final Spec[] specs;
+        private int[] keys;
+        private long[] counts;
+        private double[] values;
+        private int n;
+
+        private Result(int groupCol, Spec[] specs, int capacity) {
+            this.groupCol = groupCol;
+            this.specs = specs;
+            this.keys = new int[capacity];
+            this.counts = new long[capacity];
+            this.values = new double[capacity * specs.length];
+        }
+
+        private void addGroup(int key) {
+            if (n == keys.length) {
+                keys = Arrays.copyOf(keys, n * 2);
+                counts = Arrays.copyOf(counts, n * 2);
+                values = Arrays.copyOf(values, n * 2 * specs.length);
+            }
+            keys[n] = key;
+            for (int s = 0; s < specs.length; s++) {
+                values[n * specs.length + s] = specs[s].fn == Fn.MIN ? Double.POSITIVE_INFINITY
+                        : specs[s].fn == Fn.MAX ? Double.NEGATIVE_INFINITY : 0;
+            }
+            n++;
+        }
+
+        private Result sorted() {
+            Integer[] order = new Integer[n];
+            for (int g = 0; g < n; g++) order[g] = g;
+            Arrays.sort(order, (a, b) -> Integer.compare(keys[a], keys[b]));
+            Result r = new Result(groupCol, specs, Math.max(1, n));
+            for (int g : order) {
+                r.addGroup(keys[g]);
+                r.counts[r.n - 1] = counts[g];
+                System.arraycopy(values, g * specs.length, r.values, (r.n - 1) * specs.length, specs.length);
+            }
+            return r;
+        }
+
+        // Combine with the result of the same aggregate over other rows (e.g. another
+        // thread's page range)
+        public Result merge(Result o) {
+            Result r = new Result(groupCol, specs, Math.max(1, n + o.n));
+            int i = 0, j = 0, w = specs.length;
+            while (i < n || j < o.n) {
+                boolean mine = j == o.n || (i < n && keys[i] <= o.keys[j]);
+                boolean theirs = i == n || (j < o.n && o.keys[j] <= keys[i]);
+                r.addGroup(mine ? keys[i] : o.keys[j]);
+                int at = (r.n - 1) * w;
+                if (mine) {
+                    r.counts[r.n - 1] += counts[i];
+                    for (int s = 0; s < w; s++) r.values[at + s] = step(specs[s].fn, r.values[at + s], values[i * w + s]);
+                    i++;
+                }
+                if (theirs) {
+                    r.counts[r.n - 1] += o.counts[j];
+                    for (int s = 0; s < w; s++) r.values[at + s] = step(specs[s].fn, r.values[at + s], o.values[j * w + s]);
+                    j++;
+                }
+            }
+            return r;
+        }
+
+        public int groups() { return n; }
+        public int key(int g) { return keys[g]; }
+        public long count(int g) { return counts[g]; }
+
+        // Value of the s-th function for group g (NaN for AVG/MIN/MAX of no rows)
+        public double value(int g, int s) {
+            switch (specs[s].fn) {
+                case COUNT: return counts[g];
+                case AVG:   return counts[g] == 0 ? Double.NaN : values[g * specs.length + s] / counts[g];
+                default:    return counts[g] == 0 && specs[s].fn != Fn.SUM ? Double.NaN : values[g * specs.length + s];
+            }
+        }
+
+        // Header line and one line per group (up to limit)
+        public String format(int limit) {
+            StringBuilder sb = new StringBuilder();
+            if (groupCol >= 0) sb.append(String.format("%14s", FixedRecordSize.COLUMN_NAMES[groupCol]));
+            for (Spec s : specs) sb.append(String.format(" %20s", s));
+            for (int g = 0; g < Math.min(n, limit); g++) {
+                sb.append('\n');
+                if (groupCol >= 0) sb.append(String.format("%14d", keys[g]));
+                for (int s = 0; s < specs.length; s++) sb.append(String.format(specs[s].fn == Fn.COUNT ? " %20.0f" : " %20.4f", value(g, s)));
+            }
+            if (n > limit) sb.append("\n... ").append(n - limit).append(" more groups");
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package query;
+
+import Util.FixedRecordSize;
+
+// Up to CAPACITY rows of a plan, a column at a time: column c (FixedRecordSize.COL_*) is
+// ints[c] or floats[c] (FixedRecordSize.isFloat), null if the plan does not carry it.
+// Rows 0..size-1 are in the arrays; those still in play after filters are the row numbers
+// sel[0..selected-1] (ascending), or all of them while sel is null. Each operator hands on
+// one batch and refills it on the next call, so consumers use it before asking again.
+public final class Batch {
+    public static final int CAPACITY = 1024;
+    static final int NCOLS = FixedRecordSize.RECORD_SIZE / 4;
+
+    public final int[][] ints = new int[NCOLS][];
+    public final float[][] floats = new float[NCOLS][];
+    public int size;
+    public int[] sel;
+    public int selected;
+    private final int[] selection = new int[CAPACITY];   // what sel points to once set
+
+    Batch(int[] cols) {
+        for (int c : cols) {
+            if (c < 0 || c >= NCOLS) throw new IllegalArgumentException("No column " + c);
+            if (FixedRecordSize.isFloat(c)) floats[c] = new float[CAPACITY];
+            else ints[c] = new int[CAPACITY];
+        }
+    }
+
+    // Rows in play
+    public int rows() { return sel == null ? size : selected; }
+
+    // i-th row in play
+    public int row(int i) { return sel == null ? i : sel[i]; }
+
+    void reset() {
+        size = 0;
+        sel = null;
+        selected = 0;
+    }
+
+    // Buffer a filter writes the surviving row numbers to (it may be sel itself: rows are
+    // only ever dropped, so writing in place never overtakes reading), then select(n)
+    int[] selection() { return selection; }
+
+    void select(int n) {
+        sel = selection;
+        selected = n;
+    }
+
+    int[] intColumn(int col) {
+        if (ints[col] == null) throw missing(col);
+        return ints[col];
+    }
+
+    float[] floatColumn(int col) {
+        if (floats[col] == null) throw missing(col);
+        return floats[col];
+    }
+
+    private static IllegalStateException missing(int col) {
+        return new IllegalStateException(FixedRecordSize.COLUMN_NAMES[col] + " is not read by this plan; add it to the Scan");
+    }
+}
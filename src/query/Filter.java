@@ -0,0 +1,25 @@
+package query;
+
+import java.io.IOException;
+
+// Keeps the rows in play that pass a predicate, by narrowing the batch's selection; the
+// column arrays are not touched. Batches with nothing left are skipped.
+public final class Filter implements Operator {
+    private final Operator child;
+    private final Predicate predicate;
+
+    public Filter(Operator child, Predicate predicate) {
+        this.child = child;
+        this.predicate = predicate;
+    }
+
+    @Override public Batch next() throws IOException {
+        Batch b;
+        while ((b = child.next()) != null) {
+            int n = predicate.select(b, b.sel, b.rows(), b.selection());
+            b.select(n);
+            if (n > 0) return b;
+        }
+        return null;
+    }
+}
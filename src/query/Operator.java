@@ -0,0 +1,9 @@
+package query;
+
+import java.io.IOException;
+
+// One stage of a pull-based plan: each call returns the next batch (see Batch), or null
+// once the input is used up
+public interface Operator {
+    Batch next() throws IOException;
+}
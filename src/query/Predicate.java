@@ -0,0 +1,178 @@
+package query;
+
+import Util.FixedRecordSize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A condition on the rows of a batch, tested a column array at a time. Every comparison
+// becomes an inclusive range lo <= v <= hi on the column's own type (x > 120 on an int
+// column is 121..MAX_VALUE) or a != test, so there are few, branch-free loops; AND runs
+// its terms one after the other on the rows the previous ones kept.
+public abstract class Predicate {
+
+    // Rows that pass, taken from in[0..n-1] (rows 0..n-1 if in is null), into out in the
+    // same order; returns how many. out may be in.
+    public abstract int select(Batch b, int[] in, int n, int[] out);
+
+    // ---- building ----
+
+    private static final Pattern TERM = Pattern.compile("\\s*(\\w+)\\s*(<=|>=|!=|<>|==|=|<|>)\\s*(\\S+)\\s*");
+    private static final Pattern AND = Pattern.compile("\\s+AND\\s+", Pattern.CASE_INSENSITIVE);
+
+    // Comparisons of a column with a constant, joined by AND, e.g.
+    // "PTS_home > 120 AND HOME_TEAM_WINS = 1"; columns by name (case-insensitive), dates
+    // as in the CSV (GAME_DATE_EST >= 2010-10-01)
+    public static Predicate parse(String text) {
+        List<Predicate> terms = new ArrayList<>();
+        for (String part : AND.split(text.trim())) {
+            Matcher m = TERM.matcher(part);
+            if (!m.matches()) throw new IllegalArgumentException("Cannot parse \"" + part + "\"; expected <column> <op> <number>");
+            int col = FixedRecordSize.columnOf(m.group(1));
+            String v = m.group(3);
+            double value = col == FixedRecordSize.COL_GAME_DATE && (v.indexOf('-') > 0 || v.indexOf('/') > 0)
+                    ? FixedRecordSize.parseDateToInt(v) : Double.parseDouble(v);
+            terms.add(compare(col, m.group(2), value));
+        }
+        return terms.size() == 1 ? terms.get(0) : and(terms.toArray(new Predicate[0]));
+    }
+
+    public static Predicate and(Predicate... terms) {
+        if (terms.length == 0) throw new IllegalArgumentException("AND of no terms");
+        return new And(terms.clone());
+    }
+
+    // col op value, op one of = == != <> < <= > >=
+    public static Predicate compare(int col, String op, double value) {
+        if (FixedRecordSize.isFloat(col)) {
+            float v = (float) value;
+            switch (op) {
+                case "=": case "==": return new FloatRange(col, v, v);
+                case "!=": case "<>": return new FloatNot(col, v);
+                case "<":  return new FloatRange(col, Float.NEGATIVE_INFINITY, Math.nextDown(v));
+                case "<=": return new FloatRange(col, Float.NEGATIVE_INFINITY, v);
+                case ">":  return new FloatRange(col, Math.nextUp(v), Float.POSITIVE_INFINITY);
+                case ">=": return new FloatRange(col, v, Float.POSITIVE_INFINITY);
+            }
+        } else {
+            boolean whole = value == Math.rint(value);
+            long floor = (long) Math.floor(value), ceil = (long) Math.ceil(value);
+            switch (op) {
+                case "=": case "==": return whole ? intRange(col, floor, floor) : intRange(col, 1, 0);
+                case "!=": case "<>": return whole ? new IntNot(col, (int) floor) : intRange(col, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                case "<":  return intRange(col, Integer.MIN_VALUE, ceil - 1);
+                case "<=": return intRange(col, Integer.MIN_VALUE, floor);
+                case ">":  return intRange(col, floor + 1, Integer.MAX_VALUE);
+                case ">=": return intRange(col, ceil, Integer.MAX_VALUE);
+            }
+        }
+        throw new IllegalArgumentException("Unknown operator " + op);
+    }
+
+    // Bounds clamped to the int range; lo > hi matches nothing
+    private static Predicate intRange(int col, long lo, long hi) {
+        lo = Math.max(lo, Integer.MIN_VALUE);
+        hi = Math.min(hi, Integer.MAX_VALUE);
+        return lo > hi ? new IntRange(col, 1, 0) : new IntRange(col, (int) lo, (int) hi);
+    }
+
+    // ---- terms ----
+    // Each loop writes every candidate row and only advances past it if it passes, which
+    // keeps the loop free of unpredictable branches whatever the selectivity.
+
+    private static final class IntRange extends Predicate {
+        private final int col, lo, hi;
+        IntRange(int col, int lo, int hi) { this.col = col; this.lo = lo; this.hi = hi; }
+
+        @Override public int select(Batch b, int[] in, int n, int[] out) {
+            int[] v = b.intColumn(col);
+            int k = 0;
+            if (in == null) {
+                for (int r = 0; r < n; r++) {
+                    out[k] = r;
+                    k += v[r] >= lo & v[r] <= hi ? 1 : 0;
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    int r = in[i];
+                    out[k] = r;
+                    k += v[r] >= lo & v[r] <= hi ? 1 : 0;
+                }
+            }
+            return k;
+        }
+    }
+
+    private static final class IntNot extends Predicate {
+        private final int col, value;
+        IntNot(int col, int value) { this.col = col; this.value = value; }
+
+        @Override public int select(Batch b, int[] in, int n, int[] out) {
+            int[] v = b.intColumn(col);
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int r = in == null ? i : in[i];
+                out[k] = r;
+                k += v[r] != value ? 1 : 0;
+            }
+            return k;
+        }
+    }
+
+    private static final class FloatRange extends Predicate {
+        private final int col;
+        private final float lo, hi;
+        FloatRange(int col, float lo, float hi) { this.col = col; this.lo = lo; this.hi = hi; }
+
+        @Override public int select(Batch b, int[] in, int n, int[] out) {
+            float[] v = b.floatColumn(col);
+            int k = 0;
+            if (in == null) {
+                for (int r = 0; r < n; r++) {
+                    out[k] = r;
+                    k += v[r] >= lo & v[r] <= hi ? 1 : 0;
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    int r = in[i];
+                    out[k] = r;
+                    k += v[r] >= lo & v[r] <= hi ? 1 : 0;
+                }
+            }
+            return k;
+        }
+    }
+
+    private static final class FloatNot extends Predicate {
+        private final int col;
+        private final float value;
+        FloatNot(int col, float value) { this.col = col; this.value = value; }
+
+        @Override public int select(Batch b, int[] in, int n, int[] out) {
+            float[] v = b.floatColumn(col);
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int r = in == null ? i : in[i];
+                out[k] = r;
+                k += v[r] != value ? 1 : 0;
+            }
+            return k;
+        }
+    }
+
+    private static final class And extends Predicate {
+        private final Predicate[] terms;
+        And(Predicate[] terms) { this.terms = terms; }
+
+        @Override public int select(Batch b, int[] in, int n, int[] out) {
+            for (Predicate t : terms) {
+                n = t.select(b, in, n, out);
+                in = out;
+                if (n == 0) break;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package query;
+
+import java.io.IOException;
+
+// Narrows a plan to some of its columns and packs the rows in play together: the output
+// batch is dense (no selection) and carries only cols, so later operators read them
+// sequentially and anything else is an error.
+public final class Project implements Operator {
+    private final Operator child;
+    private final int[] cols;
+    private final Batch out;
+
+    public Project(Operator child, int... cols) {
+        this.child = child;
+        this.cols = cols.clone();
+        this.out = new Batch(cols);
+    }
+
+    @Override public Batch next() throws IOException {
+        Batch b = child.next();
+        if (b == null) return null;
+        out.reset();
+        int n = b.rows();
+        int[] sel = b.sel;
+        for (int c : cols) {
+            if (out.ints[c] != null) gather(b.intColumn(c), sel, n, out.ints[c]);
+            else gather(b.floatColumn(c), sel, n, out.floats[c]);
+        }
+        out.size = n;
+        return out;
+    }
+
+    private static void gather(int[] src, int[] sel, int n, int[] dst) {
+        if (sel == null) System.arraycopy(src, 0, dst, 0, n);
+        else for (int i = 0; i < n; i++) dst[i] = src[sel[i]];
+    }
+
+    private static void gather(float[] src, int[] sel, int n, float[] dst) {
+        if (sel == null) System.arraycopy(src, 0, dst, 0, n);
+        else for (int i = 0; i < n; i++) dst[i] = src[sel[i]];
+    }
+}
@@ -0,0 +1,85 @@
+package query;
+
+import Util.FixedRecordSize;
+import storage.HeapCursor;
+import storage.HeapFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Leaf of a plan: the live records of the heap pages a cursor walks (HeapFile.cursor(),
+// a Snapshot's, or a page range for one thread of a parallel plan), decoded a page at a
+// time straight into column arrays, and only the columns the plan names. A packed page
+// decodes just those (HeapFile.readIntColumn); other pages are walked once for their live
+// records (HeapFile.liveOffsets) and each column is picked out of those. A page with more
+// rows than are left in the batch carries the rest over to the next one.
+public final class Scan implements Operator {
+    private final HeapCursor cursor;
+    private final int[] cols;
+    private final Batch batch;
+    private final int[][] pageInts = new int[Batch.NCOLS][];        // the current page, decoded
+    private final float[][] pageFloats = new float[Batch.NCOLS][];
+    private final int[] offsets = new int[HeapFile.MAX_RECORDS_PER_PAGE];
+    private int pageRows, pageTaken;
+    private long rows;
+
+    public Scan(HeapCursor cursor, int... cols) {
+        this.cursor = cursor;
+        this.cols = cols.clone();
+        this.batch = new Batch(cols);
+        for (int c : cols) {
+            if (FixedRecordSize.isFloat(c)) pageFloats[c] = new float[HeapFile.MAX_RECORDS_PER_PAGE];
+            else pageInts[c] = new int[HeapFile.MAX_RECORDS_PER_PAGE];
+        }
+    }
+
+    // Records produced so far
+    public long rows() { return rows; }
+
+    @Override public Batch next() throws IOException {
+        Batch b = batch;
+        b.reset();
+        while (b.size < Batch.CAPACITY) {
+            if (pageTaken == pageRows) {
+                if (!cursor.nextPage()) break;
+                decodePage();
+                continue;
+            }
+            int n = Math.min(Batch.CAPACITY - b.size, pageRows - pageTaken);
+            for (int c : cols) {
+                if (pageInts[c] != null) System.arraycopy(pageInts[c], pageTaken, b.ints[c], b.size, n);
+                else System.arraycopy(pageFloats[c], pageTaken, b.floats[c], b.size, n);
+            }
+            b.size += n;
+            pageTaken += n;
+        }
+        rows += b.size;
+        return b.size == 0 ? null : b;
+    }
+
+    private void decodePage() {
+        ByteBuffer page = cursor.page();
+        pageTaken = 0;
+        if (HeapFile.isPacked(page)) {
+            pageRows = HeapFile.liveCount(page);   // no columns at all: COUNT(*) only
+            for (int c : cols) {
+                pageRows = pageInts[c] != null ? HeapFile.readIntColumn(page, c, pageInts[c])
+                        : HeapFile.readFloatColumn(page, c, pageFloats[c]);
+            }
+            return;
+        }
+        // row and PAX pages: find the live records once, then pick each column out of them
+        int n = HeapFile.liveOffsets(page, offsets), stride = HeapFile.columnStride(page);
+        for (int c : cols) {
+            int at = c * stride;
+            if (pageInts[c] != null) {
+                int[] dst = pageInts[c];
+                for (int i = 0; i < n; i++) dst[i] = page.getInt(offsets[i] + at);
+            } else {
+                float[] dst = pageFloats[c];
+                for (int i = 0; i < n; i++) dst[i] = page.getFloat(offsets[i] + at);
+            }
+        }
+        pageRows = n;
+    }
+}
@@ -0,0 +1,151 @@
+package storage;
+
+import IO.FileManager;
+import Util.FixedRecordSize;
+import Util.GameCsvParser;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Parallel games CSV loader. The input is memory-mapped one window at a time; each window
+// is cut into line-aligned chunks that workers parse straight into encoded records
+// (GameCsvParser), then the records are appended chunk by chunk, so heap order matches
+// file order and every heap page is written once, full. Per-chunk output buffers are
+// reused across windows: steady state allocates only per heap page, not per row.
+public final class CsvIngest {
+    public static final int WINDOW_BYTES = 64 << 20;
+
+    private CsvIngest() {}
+
+    // One worker's share of a window. The slice is bulk-copied out of the mapping into a
+    // reused byte[] first: one memcpy is far cheaper than a bounds-checked get() per byte.
+    private static final class Chunk implements Callable<Void> {
+        final GameCsvParser parser;
+        MappedByteBuffer src;
+        long base;               // file offset of src[0], for error messages
+        int from, to;
+        byte[] text = new byte[1 << 20];
+        byte[] out = new byte[64 * 1024 * FixedRecordSize.RECORD_SIZE];
+        int rows;
+
+        Chunk(GameCsvParser parser) { this.parser = parser; }
+
+        @Override public Void call() {
+            int len = to - from;
+            if (text.length < len) text = new byte[len];
+            src.get(from, text, 0, len);
+            rows = 0;
+            int line = 0;
+            for (int i = 0; i < len; i++) {
+                if (text[i] != '\n') continue;
+                parse(line, i);
+                line = i + 1;
+            }
+            if (line < len) parse(line, len);   // last line without '\n'
+            return null;
+        }
+
+        private void parse(int start, int end) {
+            int off = rows * FixedRecordSize.RECORD_SIZE;
+            if (off + FixedRecordSize.RECORD_SIZE > out.length) out = Arrays.copyOf(out, out.length * 2);
+            try {
+                if (parser.parseLine(text, start, end, out, off)) rows++;
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Parse error at byte " + (base + from + start) + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    // Append every row of csv to the heap; onRow (may be null) sees each new record and its
+    // RID, e.g. to maintain indexes. Returns the number of rows loaded.
+    public static long load(FileManager fm, String csv, int threads, HeapFile.RowVisitor onRow) throws IOException {
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1");
+        long count = 0;
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (FileChannel ch = FileChannel.open(Path.of(csv), StandardOpenOption.READ);
+             HeapFile.Appender app = new HeapFile.Appender(fm)) {
+            long size = ch.size();
+            if (size == 0) throw new IllegalStateException("Empty file: " + csv);
+
+            // header
+            MappedByteBuffer win = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, WINDOW_BYTES));
+            int nl = nextLine(win, 0, win.limit());
+            byte[] h = new byte[nl == win.limit() ? nl : nl - 1];
+            win.get(0, h);
+            GameCsvParser parser = new GameCsvParser(new String(h, StandardCharsets.UTF_8).replace("\r", ""));
+            long pos = nl;
+
+            Chunk[] chunks = new Chunk[threads];
+            for (int t = 0; t < threads; t++) chunks[t] = new Chunk(parser);
+
+            while (pos < size) {
+                if (win == null) win = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(size - pos, WINDOW_BYTES));
+                int start = pos == nl ? nl : 0;        // the first window still holds the header
+                int limit = win.limit();
+                if (pos - start + limit < size) {      // not the last window: stop after the last '\n'
+                    while (limit > start && win.get(limit - 1) != '\n') limit--;
+                    if (limit == start) throw new IllegalStateException("Line longer than " + WINDOW_BYTES + " bytes at byte " + pos);
+                }
+
+                // line-aligned chunks
+                List<Chunk> work = new ArrayList<>(threads);
+                int from = start;
+                for (int t = 0; t < threads && from < limit; t++) {
+                    int cut = start + (int) ((long) (limit - start) * (t + 1) / threads);
+                    int to = t == threads - 1 ? limit : nextLine(win, Math.max(from, cut), limit);
+                    Chunk c = chunks[t];
+                    c.src = win; c.base = pos - start; c.from = from; c.to = to;
+                    work.add(c);
+                    from = to;
+                }
+                for (Future<Void> f : pool.invokeAll(work)) get(f);
+
+                // append in file order
+                for (Chunk c : work) {
+                    for (int r = 0; r < c.rows; r++) {
+                        int off = r * FixedRecordSize.RECORD_SIZE;
+                        int slot = app.addEncoded(c.out, off);
+                        if (onRow != null) onRow.accept(c.out, off, app.pageId(), slot);
+                    }
+                    count += c.rows;
+                }
+
+                pos += limit - start;
+                win = null;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return count;
+    }
+
+    // Index just past the next '\n' at or after i (limit if none)
+    private static int nextLine(MappedByteBuffer b, int i, int limit) {
+        while (i < limit && b.get(i) != '\n') i++;
+        return Math.min(i + 1, limit);
+    }
+
+    private static void get(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during load", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package storage;
+
+import IO.FileManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// One bit per page of the file: set = heap page with at least one free slot.
+// FSM pages are chained from Superblock.fsmHead; page k of the chain covers page ids
+// [k * BITS_PER_PAGE, (k + 1) * BITS_PER_PAGE). Superblock.fsmHint is a lower bound on
+// the first set bit, so finding a page with room starts where the last search ended
+// instead of at page 1; freeing a slot below the hint moves it back down.
+public final class FreeSpaceMap {
+    public static final byte TYPE_FSM = 5;
+    public static final int OFF_NEXT = 4;          // int, next FSM page, 0 = last
+    public static final int BITMAP_OFF = 8;
+    public static final int BITS_PER_PAGE = (FileManager.PAGE_SIZE - BITMAP_OFF) * 8;
+
+    private FreeSpaceMap() {}
+
+    public static void setHasRoom(FileManager fm, int pid, boolean room) throws IOException {
+        int fsmPid = fsmPageFor(fm, pid, room);
+        if (fsmPid == 0) return;                   // no map page yet and nothing to set
+        ByteBuffer b = fm.readPage(fsmPid);
+        int bit = pid % BITS_PER_PAGE;
+        int off = BITMAP_OFF + (bit >>> 3);
+        byte old = b.get(off);
+        byte now = (byte) (room ? old | (1 << (bit & 7)) : old & ~(1 << (bit & 7)));
+        if (now == old) return;
+        b.put(off, now);
+        fm.writePage(fsmPid, b);
+        if (room) {
+            Superblock sb = Superblock.read(fm);
+            if (pid < sb.fsmHint) {
+                sb.fsmHint = pid;
+                sb.write(fm);
+            }
+        }
+    }
+
+    // Lowest page id with room, or 0 if every heap page is full
+    public static int findPageWithRoom(FileManager fm) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        int base = 0;
+        for (int fsmPid = sb.fsmHead; fsmPid != 0; base += BITS_PER_PAGE) {
+            ByteBuffer b = fm.readPage(fsmPid);
+            if (sb.fsmHint < base + BITS_PER_PAGE) {
+                int from = Math.max(0, sb.fsmHint - base);
+                for (int byteIdx = from >>> 3; BITMAP_OFF + byteIdx < FileManager.PAGE_SIZE; byteIdx++) {
+                    int bits = b.get(BITMAP_OFF + byteIdx) & 0xff;
+                    if (byteIdx == from >>> 3) bits &= 0xff << (from & 7);
+                    if (bits == 0) continue;
+                    int pid = base + byteIdx * 8 + Integer.numberOfTrailingZeros(bits);
+                    if (pid != sb.fsmHint) {
+                        sb.fsmHint = pid;
+                        sb.write(fm);
+                    }
+                    return pid;
+                }
+            }
+            fsmPid = b.getInt(OFF_NEXT);
+        }
+        if (sb.fsmHint != base) {      // nothing below here has room
+            sb.fsmHint = base;
+            sb.write(fm);
+        }
+        return 0;
+    }
+
+    // Map page covering pid; missing pages are chained on only when create is set
+    private static int fsmPageFor(FileManager fm, int pid, boolean create) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        int k = pid / BITS_PER_PAGE;
+        int prev = 0, cur = sb.fsmHead;
+        for (int i = 0; i <= k; i++) {
+            if (cur == 0) {
+                if (!create) return 0;
+                cur = Superblock.allocatePage(fm);
+                ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+                b.put(0, TYPE_FSM);
+                fm.writePage(cur, b);
+                int added = cur;
+                if (prev == 0) Superblock.update(fm, s -> s.fsmHead = added);
+                else fm.writePage(prev, fm.readPage(prev).putInt(OFF_NEXT, added));
+            }
+            prev = cur;
+            if (i < k) cur = fm.readPage(cur).getInt(OFF_NEXT);
+        }
+        return cur;
+    }
+
+    // Map pages in the chain (they sit inside or after the heap extent; scans skip them)
+    public static int pageCount(FileManager fm) throws IOException {
+        int n = 0;
+        for (int pid = Superblock.read(fm).fsmHead; pid != 0; pid = fm.readPage(pid).getInt(OFF_NEXT)) n++;
+        return n;
+    }
+}
@@ -0,0 +1,216 @@
+package storage;
+
+import IO.FileManager;
+import IO.PageLatches;
+import IO.PageVersions;
+import Util.FixedRecordSize;
+import model.GameRecord;
+import model.GameRecordView;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+// Forward-only scan over the live records of heap pages [fromPid, toPid). Pages are read
+// READAHEAD_PAGES at a time into one reused buffer, so memory stays constant however big
+// the heap is. The cursor is also the current record: a flyweight over the page bytes
+// that moves on every next(), so copy out anything you keep (rid(), toRecord()).
+// A cursor of a HeapFile.Snapshot sees each page as of the snapshot (PageVersions).
+public final class HeapCursor {
+    public static final int READAHEAD_PAGES = 32;
+    static final long LATEST = PageVersions.PENDING;   // no snapshot: pages as they are now
+
+    private final FileManager fm;
+    private final boolean concurrent;    // read around the buffer pool (parallel scans)
+    private final int endPid;
+    private final BitSet only;           // pages to read, null = all
+    private long pagesRead;
+    private final ByteBuffer batch;
+    private final ByteBuffer[] views;    // one fixed view per page of batch
+    private int batchFirst, batchCount;  // pages currently in batch
+    private int nextPid;                 // first page not yet read
+    private final long asOf;             // snapshot timestamp, or LATEST
+    private final long[] latchVersions;  // per page of batch, taken before reading it
+
+    private int pid = -1, slot, slotCount, off = -1, stride;
+    private ByteBuffer page;
+    private ByteBuffer data;             // page, or its decoded form for a packed page (null until next())
+    private ByteBuffer decodeBuf;        // allocated on the first packed page
+    private final GameRecordView view = new GameRecordView();
+
+    HeapCursor(FileManager fm, int fromPid, int toPid, boolean concurrent, BitSet only) {
+        this(fm, fromPid, toPid, concurrent, only, LATEST);
+    }
+
+    // A snapshot's cursor reads through the buffer pool (concurrent = false): around it,
+    // pages written since the last flush would not be seen at all
+    HeapCursor(FileManager fm, int fromPid, int toPid, boolean concurrent, BitSet only, long asOf) {
+        this.fm = fm;
+        this.asOf = asOf;
+        this.concurrent = concurrent;
+        this.nextPid = fromPid;
+        this.endPid = toPid;
+        this.only = only;
+        int n = Math.max(1, Math.min(READAHEAD_PAGES, toPid - fromPid));
+        this.batch = ByteBuffer.allocate(n * FileManager.PAGE_SIZE);
+        this.views = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) views[i] = batch.slice(i * FileManager.PAGE_SIZE, FileManager.PAGE_SIZE);
+        this.latchVersions = asOf == LATEST ? null : new long[n];
+    }
+
+    // Advance to the next live record; false at the end of the range
+    public boolean next() throws IOException {
+        while (true) {
+            if (page != null) {
+                if (data == null) data = HeapFile.decoded(page, decodeBuf);   // packed, first record
+                while (++slot < slotCount) {
+                    off = HeapFile.recordOffset(page, slot);
+                    if (off >= 0) return true;
+                }
+            }
+            if (!nextPage()) {
+                off = -1;
+                return false;
+            }
+        }
+    }
+
+    // Move to the start of the next heap page, skipping the rest of this one; its records
+    // then come from next(). For page-at-a-time scans (page() + HeapFile.readIntColumn)
+    public boolean nextPage() throws IOException {
+        while (true) {
+            int i = pid + 1 - batchFirst;
+            if (pid < 0 || i >= batchCount) {
+                if (only != null) {              // skip pruned pages, then read a run of wanted ones
+                    int p = only.nextSetBit(nextPid);
+                    nextPid = p < 0 ? endPid : p;
+                }
+                if (nextPid >= endPid) return false;
+                batchFirst = nextPid;
+                batchCount = Math.min(views.length, endPid - nextPid);
+                if (only != null) {
+                    int gap = only.nextClearBit(nextPid);
+                    batchCount = Math.min(batchCount, gap - nextPid);
+                }
+                if (latchVersions != null) {
+                    for (int j = 0; j < batchCount; j++) latchVersions[j] = fm.latches().readVersion(batchFirst + j);
+                }
+                if (concurrent) fm.readPagesConcurrent(batchFirst, batchCount, batch);
+                else fm.readPages(batchFirst, batchCount, batch);
+                nextPid += batchCount;
+                pagesRead += batchCount;
+                i = 0;
+            }
+            pid = batchFirst + i;
+            page = latchVersions == null ? views[i] : snapshotPage(i);
+            if (page == null || !HeapFile.isHeapPage(page)) continue;   // index, free or FSM page inside the extent (or none yet at the snapshot)
+            slot = -1;
+            slotCount = HeapFile.slotCount(page);
+            stride = HeapFile.columnStride(page);
+            if (HeapFile.isPacked(page) && decodeBuf == null) decodeBuf = HeapFile.newDecodeBuffer();
+            data = HeapFile.isPacked(page) ? null : page;   // decoded by next(), if it is called
+            return true;
+        }
+    }
+
+    // Page i of batch as the snapshot sees it. The bytes and the page's undo chain must be
+    // from the same moment, which the latch version taken before the batch read confirms;
+    // if a writer got in between, the page is read again on its own.
+    private ByteBuffer snapshotPage(int i) throws IOException {
+        PageLatches latches = fm.latches();
+        PageVersions.Undo head = fm.versions().head(pid);
+        if (!latches.validate(pid, latchVersions[i])) return readAsOf(fm, pid, views[i], asOf);
+        return PageVersions.visible(views[i], head, asOf);
+    }
+
+    // One page as a snapshot at asOf sees it: dst, or a read-only older image, or null if
+    // it was not a heap page then. Takes no latch; retries while writers get in the way.
+    static ByteBuffer readAsOf(FileManager fm, int pageId, ByteBuffer dst, long asOf) throws IOException {
+        PageLatches latches = fm.latches();
+        while (true) {
+            long version = latches.readVersion(pageId);
+            fm.readPage(pageId, dst);
+            PageVersions.Undo head = fm.versions().head(pageId);
+            if (latches.validate(pageId, version)) return PageVersions.visible(dst, head, asOf);
+        }
+    }
+
+    // ---- current record ----
+
+    // Pages fetched so far, heap or not (pruned pages are not counted)
+    public long pagesRead() { return pagesRead; }
+
+    public int pageId() { return pid; }
+    public int slot() { return slot; }
+    public HeapFile.RecordId rid() { return new HeapFile.RecordId(pid, slot); }
+
+    // Page holding the current record as stored (e.g. for HeapFile.readIntColumn)
+    public ByteBuffer page() { return page; }
+
+    // Column c of the current record is at recordOffset() + c * columnStride() in data(),
+    // which is page() unless the page is packed
+    public ByteBuffer data() { return data; }
+    public int recordOffset() { return off; }
+    public int columnStride() { return stride; }
+
+    public int getInt(int col) { return data.getInt(off + col * stride); }
+    public float getFloat(int col) { return data.getFloat(off + col * stride); }
+
+    // Row-encoded RECORD_SIZE bytes, e.g. for HeapFile.Appender.addEncoded
+    public void copyRecord(byte[] dst, int dstOff) {
+        if (stride == 4) {
+            data.get(off, dst, dstOff, FixedRecordSize.RECORD_SIZE);
+            return;
+        }
+        for (int c = 0, o = dstOff; c < FixedRecordSize.RECORD_SIZE / 4; c++, o += 4) {
+            int v = data.getInt(off + c * stride);
+            dst[o] = (byte) (v >>> 24); dst[o + 1] = (byte) (v >>> 16); dst[o + 2] = (byte) (v >>> 8); dst[o + 3] = (byte) v;
+        }
+    }
+
+    // Typed view of the current record; the same view object is rewrapped on each call
+    public GameRecordView view() { return view.wrap(data, off, stride); }
+
+    public GameRecord toRecord() { return HeapFile.recordAt(page, slot); }
+
+    // Stream source: splits by page range, each half scanning with its own cursor
+    static final class Split implements Spliterator<HeapCursor> {
+        private final FileManager fm;
+        private final boolean concurrent;
+        private int from;
+        private final int to;
+        private HeapCursor cursor;       // created on first advance; no splitting after that
+
+        Split(FileManager fm, int from, int to, boolean concurrent) {
+            this.fm = fm; this.from = from; this.to = to; this.concurrent = concurrent;
+        }
+
+        @Override public boolean tryAdvance(Consumer<? super HeapCursor> action) {
+            try {
+                if (cursor == null) cursor = new HeapCursor(fm, from, to, concurrent, null);
+                if (!cursor.next()) return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            action.accept(cursor);
+            return true;
+        }
+
+        @Override public Spliterator<HeapCursor> trySplit() {
+            if (cursor != null || to - from < 2 * READAHEAD_PAGES) return null;
+            int mid = from + (to - from) / 2;
+            Split prefix = new Split(fm, from, mid, concurrent);
+            from = mid;
+            return prefix;
+        }
+
+        @Override public long estimateSize() {
+            return (long) (to - from) * HeapFile.MAX_RECORDS_PER_PAGE;
+        }
+
+        @Override public int characteristics() { return ORDERED | NONNULL; }
+    }
+}
@@ -1,83 +1,479 @@
 package storage;
 
 import IO.FileManager;
+import IO.PageLatches;
+import IO.PageVersions;
 import Util.FixedRecordSize;
 import model.GameRecord;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class HeapFile {
-    public static final int HEADER_BYTES = 4; // usedCount at offset 0
+    // Slotted page layout (big-endian):
+    //   [0] type byte  [2] slotCount short  [4] liveCount short  [6] freeEnd short
+    //   [8..] slot directory, one short per slot: record offset, TOMBSTONE bit = deleted
+    //   records packed from the end of the page downwards
+    // Offsets (freeEnd and slots) are in OFFSET_UNIT bytes so they fit below TOMBSTONE on
+    // pages up to 64K; records are a multiple of that unit long.
+    // Records are fixed-size, so a tombstoned slot's bytes are reused as-is by the next
+    // insert on the page; slots never move, so RIDs held by the index stay valid.
+    public static final byte TYPE_HEAP = 4;
+    public static final int OFF_SLOT_COUNT = 2;
+    public static final int OFF_LIVE_COUNT = 4;
+    public static final int OFF_FREE_END = 6;
+    public static final int HEADER_BYTES = 8;
+    public static final int SLOT_BYTES = 2;
+    private static final int TOMBSTONE = 0x8000;
+    private static final int OFFSET_UNIT = 4;
+
+    public static final int ROW_RECORDS_PER_PAGE =
+            (FileManager.PAGE_SIZE - HEADER_BYTES) / (SLOT_BYTES + FixedRecordSize.RECORD_SIZE);
+
+    // PAX page layout: same header ([6] unused), then
+    //   [8..] deleted bitmap, one bit per slot
+    //   [PAX_DATA_OFF..] one mini-array per column; column c of slot s is the 4 bytes at
+    //   PAX_DATA_OFF + (c * PAX_RECORDS_PER_PAGE + s) * 4
+    // A scan of one column reads a dense int/float array per page instead of picking 4
+    // bytes out of every record. Slots are positions in the arrays, so no slot directory.
+    public static final byte TYPE_HEAP_PAX = 6;
+    private static final int PAX_BITMAP_OFF = HEADER_BYTES;
+    private static final int PAX_SLOTS_UPPER =
+            (FileManager.PAGE_SIZE - HEADER_BYTES) * 8 / (FixedRecordSize.RECORD_SIZE * 8 + 1);
+    public static final int PAX_DATA_OFF = PAX_BITMAP_OFF + (PAX_SLOTS_UPPER + 31) / 32 * 4;
+    public static final int PAX_RECORDS_PER_PAGE =
+            Math.min(PAX_SLOTS_UPPER, (FileManager.PAGE_SIZE - PAX_DATA_OFF) / FixedRecordSize.RECORD_SIZE);
+
+    // Compressed, write-once pages; format in PackedPage
+    public static final byte TYPE_HEAP_PACKED = 7;
+
+    // Upper bound over all layouts (sizing buffers, RID packing)
+    public static final int MAX_RECORDS_PER_PAGE =
+            Math.max(Math.max(ROW_RECORDS_PER_PAGE, PAX_RECORDS_PER_PAGE), PackedPage.MAX_RECORDS);
+
+    // Page format for new heap pages, chosen when the table is created (Superblock.heapLayout).
+    // PACKED applies to pages the Appender fills; single-row inserts add ROW pages, and
+    // recordsPerPage is the most a packed page can hold (it depends on the values).
+    public enum Layout {
+        ROW(TYPE_HEAP, ROW_RECORDS_PER_PAGE),
+        PAX(TYPE_HEAP_PAX, PAX_RECORDS_PER_PAGE),
+        PACKED(TYPE_HEAP_PACKED, PackedPage.MAX_RECORDS);
+
+        public final byte pageType;
+        public final int recordsPerPage;
+        Layout(byte pageType, int recordsPerPage) { this.pageType = pageType; this.recordsPerPage = recordsPerPage; }
+    }
 
     private final FileManager fm;
-    private final int recordsPerPage;
 
     public static final class RecordId {
         public final int pageId;
         public final int slot; // 0-based
         public RecordId(int pageId, int slot) { this.pageId = pageId; this.slot = slot; }
         @Override public String toString() { return "(" + pageId + "," + slot + ")"; }
+        @Override public boolean equals(Object o) {
+            return o instanceof RecordId && ((RecordId) o).pageId == pageId && ((RecordId) o).slot == slot;
+        }
+        @Override public int hashCode() { return 31 * pageId + slot; }
     }
 
     public HeapFile(FileManager fm) {
         this.fm = fm;
-        this.recordsPerPage = (FileManager.PAGE_SIZE - HEADER_BYTES) / FixedRecordSize.RECORD_SIZE;
     }
 
-    public int getRecordsPerPage() { return recordsPerPage; }
+    public int getRecordsPerPage() throws IOException { return Superblock.read(fm).heapLayout.recordsPerPage; }
+
+    // ---- page format ----
+
+    public static boolean isHeapPage(ByteBuffer page) {
+        byte t = page.get(0);
+        return t == TYPE_HEAP || t == TYPE_HEAP_PAX || t == TYPE_HEAP_PACKED;
+    }
+    public static boolean isPax(ByteBuffer page) { return page.get(0) == TYPE_HEAP_PAX; }
+    public static boolean isPacked(ByteBuffer page) { return page.get(0) == TYPE_HEAP_PACKED; }
+    public static int slotCount(ByteBuffer page) { return page.getShort(OFF_SLOT_COUNT); }
+    public static int liveCount(ByteBuffer page) { return page.getShort(OFF_LIVE_COUNT); }
+    public static int capacity(ByteBuffer page) {
+        return isPacked(page) ? slotCount(page) : isPax(page) ? PAX_RECORDS_PER_PAGE : ROW_RECORDS_PER_PAGE;
+    }
+    public static boolean hasRoom(ByteBuffer page) { return !isPacked(page) && liveCount(page) < capacity(page); }
+
+    static void initPage(ByteBuffer page, Layout layout) {
+        page.put(0, layout.pageType);
+        page.putShort(OFF_SLOT_COUNT, (short) 0);
+        page.putShort(OFF_LIVE_COUNT, (short) 0);
+        if (layout == Layout.PAX) {
+            for (int i = PAX_BITMAP_OFF; i < PAX_DATA_OFF; i++) page.put(i, (byte) 0);
+        } else if (layout == Layout.ROW) {
+            page.putShort(OFF_FREE_END, (short) (FileManager.PAGE_SIZE / OFFSET_UNIT));
+        }
+    }
+
+    private static int slotEntry(ByteBuffer page, int slot) {
+        return page.getShort(HEADER_BYTES + slot * SLOT_BYTES) & 0xffff;
+    }
+
+    private static boolean paxDeleted(ByteBuffer page, int slot) {
+        return (page.get(PAX_BITMAP_OFF + (slot >>> 3)) & (1 << (slot & 7))) != 0;
+    }
+
+    private static void setPaxDeleted(ByteBuffer page, int slot, boolean deleted) {
+        int at = PAX_BITMAP_OFF + (slot >>> 3);
+        byte b = page.get(at);
+        page.put(at, (byte) (deleted ? b | (1 << (slot & 7)) : b & ~(1 << (slot & 7))));
+    }
+
+    // Byte offset of the record's first column in slot, or -1 if the slot is unused or
+    // deleted. Column c is at recordOffset + c * columnStride(page) in every layout; for a
+    // packed page both address its decoded form (see decoded()), not the page itself.
+    public static int recordOffset(ByteBuffer page, int slot) {
+        if (slot < 0 || slot >= slotCount(page)) return -1;
+        if (isPax(page)) return paxDeleted(page, slot) ? -1 : PAX_DATA_OFF + slot * 4;
+        if (isPacked(page)) return PackedPage.isDeleted(page, slot) ? -1 : slot * 4;
+        int e = slotEntry(page, slot);
+        return (e & TOMBSTONE) != 0 ? -1 : e * OFFSET_UNIT;
+    }
+
+    // Distance between consecutive columns of one record
+    public static int columnStride(ByteBuffer page) {
+        return isPax(page) ? PAX_RECORDS_PER_PAGE * 4 : isPacked(page) ? PackedPage.UNPACKED_STRIDE : 4;
+    }
+
+    // Buffer for decoded()
+    public static ByteBuffer newDecodeBuffer() { return ByteBuffer.allocate(PackedPage.UNPACKED_BYTES); }
+
+    // What recordOffset/columnStride address: the page itself, or a packed page's columns
+    // decoded into scratch (from newDecodeBuffer()). Decode once per page, then read many.
+    public static ByteBuffer decoded(ByteBuffer page, ByteBuffer scratch) {
+        if (!isPacked(page)) return page;
+        PackedPage.unpack(page, scratch);
+        return scratch;
+    }
+
+    public static boolean isDeleted(ByteBuffer page, int slot) { return recordOffset(page, slot) < 0; }
+
+    // Claim a slot for one new record: the first deleted slot, else a new one. Returns the
+    // slot (record at recordOffset) or -1 if the page is full.
+    static int claimSlot(ByteBuffer page) {
+        if (isPacked(page)) return -1;                     // written once by the Appender
+        int n = slotCount(page);
+        int cap = capacity(page);
+        boolean pax = isPax(page);
+        int slot = -1, off;
+        if (n < cap && liveCount(page) == n) {
+            slot = n;                                      // no holes: skip the directory walk
+        } else {
+            for (int i = 0; i < n && slot < 0; i++) {
+                if (pax ? paxDeleted(page, i) : (slotEntry(page, i) & TOMBSTONE) != 0) slot = i;
+            }
+            if (slot < 0 && n < cap) slot = n;
+            if (slot < 0) return -1;
+        }
+        if (slot == n) page.putShort(OFF_SLOT_COUNT, (short) (n + 1));
+        if (pax) {
+            setPaxDeleted(page, slot, false);
+        } else {
+            if (slot == n) {
+                off = (page.getShort(OFF_FREE_END) & 0xffff) - FixedRecordSize.RECORD_SIZE / OFFSET_UNIT;
+                page.putShort(OFF_FREE_END, (short) off);
+            } else {
+                off = slotEntry(page, slot) & ~TOMBSTONE;
+            }
+            page.putShort(HEADER_BYTES + slot * SLOT_BYTES, (short) off);
+        }
+        page.putShort(OFF_LIVE_COUNT, (short) (liveCount(page) + 1));
+        return slot;
+    }
+
+    private static void markDeleted(ByteBuffer page, int slot) {
+        if (isPax(page)) {
+            setPaxDeleted(page, slot, true);
+        } else if (isPacked(page)) {
+            PackedPage.markDeleted(page, slot);
+        } else {
+            int at = HEADER_BYTES + slot * SLOT_BYTES;
+            page.putShort(at, (short) (page.getShort(at) | TOMBSTONE));
+        }
+        page.putShort(OFF_LIVE_COUNT, (short) (liveCount(page) - 1));
+    }
 
-    public RecordId append(GameRecord r) throws IOException {
-        int totalPages = (int) fm.pageCount();
-        if (totalPages == 0) {
-            fm.allocatePage();     // superblock page 0
-            totalPages = 1;
+    // Store one record given in the row (RECORD_SIZE) encoding at src[srcOff..] in a
+    // claimed slot; PAX pages scatter it over the column arrays
+    public static void putEncoded(ByteBuffer page, int slot, byte[] src, int srcOff) {
+        if (isPacked(page)) throw new IllegalStateException("Packed heap pages are written whole by the Appender");
+        int off = recordOffset(page, slot);
+        if (!isPax(page)) {
+            page.put(off, src, srcOff, FixedRecordSize.RECORD_SIZE);
+            return;
         }
+        int stride = columnStride(page);
+        for (int c = 0, o = srcOff; c < FixedRecordSize.RECORD_SIZE / 4; c++, o += 4, off += stride) {
+            page.putInt(off, (src[o] & 0xff) << 24 | (src[o + 1] & 0xff) << 16 | (src[o + 2] & 0xff) << 8 | (src[o + 3] & 0xff));
+        }
+    }
 
-        // ensure we have at least one data page
-        int pageId = totalPages - 1;
-        if (pageId == 0) {
-            pageId = fm.allocatePage();
+    // Inverse of putEncoded: the record in slot, in the row encoding, at dst[dstOff..]
+    public static void getEncoded(ByteBuffer page, int slot, byte[] dst, int dstOff) {
+        if (isPacked(page)) {
+            for (int c = 0, o = dstOff; c < PackedPage.NCOLS; c++, o += 4) {
+                int v = PackedPage.get(page, slot, c);
+                dst[o] = (byte) (v >>> 24); dst[o + 1] = (byte) (v >>> 16); dst[o + 2] = (byte) (v >>> 8); dst[o + 3] = (byte) v;
+            }
+            return;
+        }
+        int off = recordOffset(page, slot);
+        if (!isPax(page)) {
+            page.get(off, dst, dstOff, FixedRecordSize.RECORD_SIZE);
+            return;
         }
+        int stride = columnStride(page);
+        for (int c = 0, o = dstOff; c < FixedRecordSize.RECORD_SIZE / 4; c++, o += 4, off += stride) {
+            int v = page.getInt(off);
+            dst[o] = (byte) (v >>> 24); dst[o + 1] = (byte) (v >>> 16); dst[o + 2] = (byte) (v >>> 8); dst[o + 3] = (byte) v;
+        }
+    }
 
-        ByteBuffer page = fm.readPage(pageId);
-        int used = page.getInt(0);
-        if (used >= recordsPerPage) {
-            pageId = fm.allocatePage();
-            page = fm.readPage(pageId);
-            used = 0;
-            page.putInt(0, 0);
+    // Offsets of the live records of a heap page that is not packed into dst, in slot order;
+    // returns how many. Column c of the i-th is at dst[i] + c * columnStride(page), so a
+    // scan of several columns walks the slot directory once, not once per column.
+    public static int liveOffsets(ByteBuffer page, int[] dst) {
+        if (isPacked(page)) throw new IllegalArgumentException("Packed pages are read by column (readIntColumn)");
+        int n = slotCount(page), k = 0;
+        if (isPax(page) && liveCount(page) == n) {
+            for (int s = 0; s < n; s++) dst[s] = PAX_DATA_OFF + s * 4;
+            return n;
         }
+        for (int s = 0; s < n; s++) {
+            int off = recordOffset(page, s);
+            if (off >= 0) dst[k++] = off;
+        }
+        return k;
+    }
 
-        int offset = HEADER_BYTES + used * FixedRecordSize.RECORD_SIZE;
-        page.position(offset);
-        FixedRecordSize.write(r, page);
-        page.putInt(0, used + 1);
-        fm.writePage(pageId, page);
-        return new RecordId(pageId, used);
+    // Live values of one column of a heap page into dst (deleted slots skipped); returns how
+    // many. A PAX page without holes is one dense array, a row page is read at a stride and
+    // a packed page decodes only this column.
+    public static int readIntColumn(ByteBuffer page, int col, int[] dst) {
+        if (isPacked(page)) return PackedPage.readColumn(page, col, dst);
+        int n = slotCount(page), stride = columnStride(page), k = 0;
+        if (isPax(page) && liveCount(page) == n) {
+            for (int s = 0, at = PAX_DATA_OFF + col * stride; s < n; s++, at += 4) dst[s] = page.getInt(at);
+            return n;
+        }
+        for (int s = 0; s < n; s++) {
+            int off = recordOffset(page, s);
+            if (off >= 0) dst[k++] = page.getInt(off + col * stride);
+        }
+        return k;
     }
 
-    public List<RecordWithId> scanAll() throws IOException {
-        List<RecordWithId> out = new ArrayList<>();
-        int rpb = this.recordsPerPage; // max records per heap page
-        long pages = fm.pageCount();
+    public static int readFloatColumn(ByteBuffer page, int col, float[] dst) {
+        if (isPacked(page)) return PackedPage.readFloatColumn(page, col, dst);
+        int n = slotCount(page), stride = columnStride(page), k = 0;
+        if (isPax(page) && liveCount(page) == n) {
+            for (int s = 0, at = PAX_DATA_OFF + col * stride; s < n; s++, at += 4) dst[s] = page.getFloat(at);
+            return n;
+        }
+        for (int s = 0; s < n; s++) {
+            int off = recordOffset(page, s);
+            if (off >= 0) dst[k++] = page.getFloat(off + col * stride);
+        }
+        return k;
+    }
 
-        for (int pid = 1; pid < pages; pid++) {
-            ByteBuffer page = fm.readPage(pid);
-            int used = page.getInt(0);
+    private static void putRecord(ByteBuffer page, int slot, GameRecord r) {
+        if (isPax(page)) {
+            byte[] enc = new byte[FixedRecordSize.RECORD_SIZE];
+            FixedRecordSize.write(r, ByteBuffer.wrap(enc));
+            putEncoded(page, slot, enc, 0);
+        } else {
+            page.position(recordOffset(page, slot));
+            FixedRecordSize.write(r, page);
+        }
+    }
+
+    // Set the layout of a table that has no heap pages yet (new file or after --reset)
+    public static void createTable(FileManager fm, Layout layout) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        if (sb.heapLayout == layout) return;
+        if (sb.heapFirstPid != 0)
+            throw new IllegalStateException("Table already has " + sb.heapLayout + " heap pages; cannot switch to " + layout);
+        sb.heapLayout = layout;
+        sb.write(fm);
+    }
+
+    // ---- single-record operations ----
+
+    // Insert into the first page with a free slot (FreeSpaceMap), else a new page
+    public RecordId insert(GameRecord r) throws IOException {
+        int pageId = FreeSpaceMap.findPageWithRoom(fm);
+        ByteBuffer page = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+        boolean fresh = pageId == 0;
+        if (!fresh) fm.readPage(pageId, page);   // a copy: snapshots may need the page as it is
+        else pageId = newHeapPage(fm, page, false);
+
+        int slot = claimSlot(page);
+        putRecord(page, slot, r);
+        PageVersions.Undo undo = writeVersioned(fm, pageId, page, fresh);
+        ZoneMap.summarize(fm, pageId, page);
+        if (!hasRoom(page)) FreeSpaceMap.setHasRoom(fm, pageId, false);
 
-            if (used < 0 || used > rpb) break;
+        Superblock.update(fm, sb -> sb.recordCount++);
+        fm.versions().commit(undo);
+        return new RecordId(pageId, slot);
+    }
+
+    // Write a changed heap page, first saving the page it replaces for open snapshots
+    // (fresh = it was not a heap page before). page must be the caller's own copy, not a
+    // mapped slice: the change is only seen through the write. Commit the result with
+    // fm.versions().commit once the change is complete.
+    private static PageVersions.Undo writeVersioned(FileManager fm, int pageId, ByteBuffer page, boolean fresh) throws IOException {
+        PageLatches latches = fm.latches();
+        latches.lock(pageId);
+        try {
+            PageVersions.Undo undo = fm.versions().save(pageId, fresh ? null : fm.readPage(pageId));
+            fm.writePage(pageId, page);
+            return undo;
+        } finally {
+            latches.unlock(pageId);
+        }
+    }
+
+    // Allocate the next heap page (a freed page if any, else at the end of the file; index
+    // pages may sit in between, scans skip them), extend the heap extent, mark it in the
+    // free-space map and format page for it in the table's layout (packed pages only for
+    // the Appender: bulk is false for single-row inserts, which get a ROW page instead)
+    private static int newHeapPage(FileManager fm, ByteBuffer page, boolean bulk) throws IOException {
+        int pid = Superblock.allocatePage(fm);
+        Superblock sb = Superblock.update(fm, s -> {
+            if (s.heapFirstPid == 0 || pid < s.heapFirstPid) s.heapFirstPid = pid;
+            if (pid > s.heapLastPid) s.heapLastPid = pid;
+        });
+        initPage(page, sb.heapLayout == Layout.PACKED && !bulk ? Layout.ROW : sb.heapLayout);
+        FreeSpaceMap.setHasRoom(fm, pid, true);
+        return pid;
+    }
+
+    // Decode the record in a given slot of an already-read heap page
+    public static GameRecord recordAt(ByteBuffer page, int slot) {
+        if (page.get(0) != TYPE_HEAP) {
+            byte[] enc = new byte[FixedRecordSize.RECORD_SIZE];
+            getEncoded(page, slot, enc, 0);
+            return FixedRecordSize.read(ByteBuffer.wrap(enc));
+        }
+        ByteBuffer b = page.duplicate();
+        b.position(recordOffset(page, slot));
+        return FixedRecordSize.read(b);
+    }
+
+    public GameRecord read(RecordId rid) throws IOException {
+        ByteBuffer page = fm.readPage(rid.pageId);
+        if (!isHeapPage(page) || isDeleted(page, rid.slot))
+            throw new IllegalArgumentException("No record at " + rid);
+        return recordAt(page, rid.slot);
+    }
+
+    // Tombstone the slot; returns false if there was no live record there. The slot may be
+    // reused by the next insert, so the caller removes the index entry as well.
+    public boolean delete(RecordId rid) throws IOException {
+        ByteBuffer page = fm.readPage(rid.pageId, ByteBuffer.allocate(FileManager.PAGE_SIZE));
+        if (!isHeapPage(page) || isDeleted(page, rid.slot)) return false;
+
+        boolean wasFull = !hasRoom(page) && !isPacked(page);   // packed pages are never refilled
+        markDeleted(page, rid.slot);
+        PageVersions.Undo undo = writeVersioned(fm, rid.pageId, page, false);
+        if (wasFull) FreeSpaceMap.setHasRoom(fm, rid.pageId, true);
+        Superblock.update(fm, sb -> sb.recordCount--);
+        fm.versions().commit(undo);
+        return true;
+    }
+
+    // ---- scans ----
+
+    // One column of each live record as its 4 raw bytes (the int, or the float's bits)
+    public interface ColumnVisitor {
+        void accept(int bits, int pageId, int slot) throws IOException;
+    }
+
+    // A record as it is appended, in the row encoding at off (see FixedRecordSize.write)
+    public interface RowVisitor {
+        void accept(byte[] rec, int off, int pageId, int slot) throws IOException;
+    }
+
+    public void scanColumn(int col, ColumnVisitor v) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        if (sb.heapFirstPid == 0) return;
+        scanColumn(col, sb.heapFirstPid, sb.heapLastPid + 1, false, v);
+    }
+
+    // Pages [fromPid, toPid) only. concurrent = read around the buffer pool, so several
+    // threads can scan disjoint ranges at once (see FileManager.readPageConcurrent)
+    public void scanColumn(int col, int fromPid, int toPid, boolean concurrent, ColumnVisitor v) throws IOException {
+        HeapCursor c = cursor(fromPid, toPid, concurrent);
+        while (c.next()) v.accept(c.getInt(col), c.pageId(), c.slot());
+    }
+
+    // Streaming scan of the whole heap in (page, slot) order
+    public HeapCursor cursor() throws IOException {
+        Superblock sb = Superblock.read(fm);
+        return sb.heapFirstPid == 0 ? cursor(0, 0, false) : cursor(sb.heapFirstPid, sb.heapLastPid + 1, false);
+    }
+
+    public HeapCursor cursor(int fromPid, int toPid, boolean concurrent) {
+        return new HeapCursor(fm, fromPid, toPid, concurrent, null);
+    }
+
+    // Scan of only the heap pages set in pages (e.g. from ZoneMap.candidates, possibly
+    // and-ed over several columns); the others are never read
+    public HeapCursor cursor(BitSet pages) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        return sb.heapFirstPid == 0 ? cursor(0, 0, false)
+                : new HeapCursor(fm, sb.heapFirstPid, sb.heapLastPid + 1, false, pages);
+    }
+
+    // Pages whose zone map entry says they may hold lo <= col <= hi. Records are not
+    // filtered: the caller still tests each one.
+    public HeapCursor cursor(int col, double lo, double hi) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        if (sb.heapFirstPid == 0) return cursor(0, 0, false);
+        return cursor(ZoneMap.candidates(fm, col, lo, hi, sb.heapFirstPid, sb.heapLastPid + 1));
+    }
 
-            for (int s = 0; s < used; s++) {
-                int offset = HEADER_BYTES + s * FixedRecordSize.RECORD_SIZE;
+    // Every live record as a Stream of the (reused) cursor; map to values before collecting.
+    // A parallel stream splits by page range and reads around the buffer pool, so the pool
+    // is flushed first and nothing may write to the file until the stream is consumed.
+    public Stream<HeapCursor> stream(boolean parallel) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        if (parallel) fm.flush();
+        int from = sb.heapFirstPid == 0 ? 0 : sb.heapFirstPid;
+        int to = sb.heapFirstPid == 0 ? 0 : sb.heapLastPid + 1;
+        return StreamSupport.stream(new HeapCursor.Split(fm, from, to, parallel), parallel);
+    }
+
+    // Consistent view of the heap for long-running scans; close it when done
+    public Snapshot snapshot() throws IOException {
+        return new Snapshot(fm);
+    }
+
+    // Materializes every record; prefer cursor()/stream() unless the whole table is needed
+    public List<RecordWithId> scanAll() throws IOException {
+        List<RecordWithId> out = new ArrayList<>();
+        Superblock sb = Superblock.read(fm);
+        if (sb.heapFirstPid == 0) return out;
 
-                // extra safety: don't read past page end
-                if (offset + FixedRecordSize.RECORD_SIZE > FileManager.PAGE_SIZE) break;
+        for (int pid = sb.heapFirstPid; pid <= sb.heapLastPid; pid++) {
+            ByteBuffer page = fm.readPage(pid);
+            if (!isHeapPage(page)) continue; // index, free or FSM page inside the heap extent
 
-                page.position(offset);
-                GameRecord r = FixedRecordSize.read(page);
+            int n = slotCount(page);
+            for (int s = 0; s < n; s++) {
+                if (isDeleted(page, s)) continue;
+                GameRecord r = recordAt(page, s);
                 out.add(new RecordWithId(r, new RecordId(pid, s)));
             }
         }
@@ -90,58 +486,133 @@ public class HeapFile {
         public RecordWithId(GameRecord rec, RecordId rid) { this.rec = rec; this.rid = rid; }
     }
 
+    // The heap as of the last commit when it was opened (an Appender's close, an insert or a
+    // delete): later commits are not seen, nor is a batch still being appended, however long
+    // scans over it run. Nothing is locked: writers go on meanwhile, saving each page they
+    // change for as long as a snapshot older than the change is open (PageVersions).
+    public static final class Snapshot implements AutoCloseable {
+        private final FileManager fm;
+        private final long ts;
+        private final int firstPid, endPid;   // heap extent [firstPid, endPid)
+        private boolean closed;
+
+        private Snapshot(FileManager fm) throws IOException {
+            this.fm = fm;
+            this.ts = fm.versions().open();
+            // read after ts, so the extent covers every page that held records then (pages
+            // added since are skipped as not being heap pages at ts)
+            Superblock sb;
+            synchronized (fm) { sb = Superblock.read(fm); }
+            this.firstPid = sb.heapFirstPid;
+            this.endPid = sb.heapFirstPid == 0 ? 0 : sb.heapLastPid + 1;
+        }
+
+        public long timestamp() { return ts; }
+        public int firstPid() { return firstPid; }
+        public int endPid() { return endPid; }
+
+        public HeapCursor cursor() { return cursor(firstPid, endPid); }
+
+        // Pages [fromPid, toPid) only, e.g. one share of a scan split over threads
+        public HeapCursor cursor(int fromPid, int toPid) {
+            return new HeapCursor(fm, fromPid, toPid, false, null, ts);
+        }
+
+        public GameRecord read(RecordId rid) throws IOException {
+            ByteBuffer page = HeapCursor.readAsOf(fm, rid.pageId, ByteBuffer.allocate(FileManager.PAGE_SIZE), ts);
+            if (page == null || !isHeapPage(page) || isDeleted(page, rid.slot))
+                throw new IllegalArgumentException("No record at " + rid + " in snapshot " + ts);
+            return recordAt(page, rid.slot);
+        }
+
+        @Override public void close() {
+            if (closed) return;
+            closed = true;
+            fm.versions().close(ts);
+        }
+    }
+
+    // Bulk loader: fills one page in memory at a time and writes it once. Starts on the
+    // first page with room and, when that fills, moves to the next one the free-space map
+    // knows of before growing the heap, so holes left by deletes are refilled first.
+    // New pages of a PACKED table collect records in a PackedPage.Builder until the next
+    // record would not fit, and are encoded when written. The batch commits as one unit on
+    // close: snapshots opened before then see none of it (see snapshot()).
     public static final class Appender implements AutoCloseable {
         private final IO.FileManager fm;
-        private final int recordsPerPage;
         private int pageId = -1;
         private java.nio.ByteBuffer page;
-        private int used;
+        private PackedPage.Builder packed;   // set while page is a new packed page
+        private final byte[] enc = new byte[Util.FixedRecordSize.RECORD_SIZE];
+        private int added;               // records appended by this appender
+        private boolean fresh;           // page was not a heap page before this appender
+        private final List<PageVersions.Undo> undos = new ArrayList<>();   // committed on close
 
         public Appender(IO.FileManager fm) throws java.io.IOException {
             this.fm = fm;
-            this.recordsPerPage = (IO.FileManager.PAGE_SIZE - HEADER_BYTES) / Util.FixedRecordSize.RECORD_SIZE;
 
             // ensure superblock
             if (fm.pageCount() == 0) fm.allocatePage();
+            nextPage();
+        }
 
-            // open last page if exists, else create new data page
-            int last = (int) fm.pageCount() - 1;
-            if (last <= 0) {
-                pageId = fm.allocatePage();
-                page = java.nio.ByteBuffer.allocate(IO.FileManager.PAGE_SIZE);
-                used = 0;
-                page.putInt(0, 0);
+        private void nextPage() throws java.io.IOException {
+            pageId = FreeSpaceMap.findPageWithRoom(fm);
+            fresh = pageId == 0;
+            if (!fresh) {
+                // one read per reused page, into a copy of our own so that it changes for
+                // scans only when written (a mapped file would hand out the page itself)
+                page = fm.readPage(pageId, java.nio.ByteBuffer.allocate(IO.FileManager.PAGE_SIZE));
+                packed = null;
             } else {
-                pageId = last;
-                page = fm.readPage(pageId);      // one read total
-                used = page.getInt(0);
-                if (used < 0 || used > recordsPerPage) { // uninitialized page safeguard
-                    used = 0;
-                    page.clear();
-                    page.putInt(0, 0);
+                page = java.nio.ByteBuffer.allocate(IO.FileManager.PAGE_SIZE);
+                pageId = newHeapPage(fm, page, true);
+                if (isPacked(page)) {
+                    if (packed == null) packed = new PackedPage.Builder();
+                    packed.reset();
+                } else {
+                    packed = null;
                 }
             }
         }
 
+        // One write per page; a packed page is encoded first and is never refilled
+        private void writePage() throws java.io.IOException {
+            if (packed != null) packed.encode(page);
+            undos.add(writeVersioned(fm, pageId, page, fresh));
+            FreeSpaceMap.setHasRoom(fm, pageId, hasRoom(page));
+            ZoneMap.summarize(fm, pageId, page);
+        }
+
         public RecordId add(model.GameRecord r) throws java.io.IOException {
-            if (used >= recordsPerPage) {
-                fm.writePage(pageId, page);      // one write per full page
-                pageId = fm.allocatePage();
-                page = java.nio.ByteBuffer.allocate(IO.FileManager.PAGE_SIZE);
-                used = 0;
-                page.putInt(0, 0);
+            Util.FixedRecordSize.write(r, java.nio.ByteBuffer.wrap(enc));
+            int slot = addEncoded(enc, 0);
+            return new RecordId(pageId, slot);
+        }
+
+        // Append one record already encoded in the RECORD_SIZE layout at src[off..];
+        // returns its slot on the current page (see pageId())
+        public int addEncoded(byte[] src, int off) throws java.io.IOException {
+            while (true) {
+                int slot = packed != null ? packed.add(src, off) : claimSlot(page);
+                if (slot >= 0) {
+                    if (packed == null) putEncoded(page, slot, src, off);
+                    added++;
+                    return slot;
+                }
+                writePage();                     // full
+                nextPage();
             }
-            int offset = HEADER_BYTES + used * Util.FixedRecordSize.RECORD_SIZE;
-            page.position(offset);
-            Util.FixedRecordSize.write(r, page);
-            page.putInt(0, ++used);
-            return new RecordId(pageId, used - 1);
         }
 
+        public int pageId() { return pageId; }
+
         @Override public void close() throws java.io.IOException {
-            if (page != null) fm.writePage(pageId, page); // final flush once
+            writePage(); // final flush once
+            Superblock.update(fm, sb -> sb.recordCount += added);
+            fm.commit();  // the whole batch is one unit: with a log, a crash before here loses all of it
+            fm.versions().commit(undos);
         }
     }
 
 }
-
@@ -0,0 +1,275 @@
+package storage;
+
+import IO.FileManager;
+import Util.FixedRecordSize;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Compressed heap page (HeapFile.TYPE_HEAP_PACKED), written once by HeapFile.Appender for
+// tables created with Layout.PACKED. Columns are stored PAX-style, each one frame-of-
+// reference coded: a per-page base plus a fixed bit width per value, so any (slot, column)
+// is still one shift away and RIDs stay (page, slot).
+//   [0] type  [2] slotCount short  [4] liveCount short
+//   [8..]  deleted bitmap, one bit per slot
+//   [COLS_OFF..] per column: encoding byte, bit width byte, base int
+//   [DATA_OFF..] column 0's values for every slot, then column 1's, ... bit-packed
+// Encodings: INT codes the stored 4 bytes as-is (floats by their bits, so it always works);
+// DECIMAL codes a float that is exactly k / 1000 as k (the CSV percentages); DAYS codes a
+// yyyymmdd date as days since 1970, so a page of consecutive game dates needs a few bits.
+// Booleans (HOME_TEAM_WINS) and the 30 team ids come out at 1 and 5 bits by the same FOR.
+// Packed pages are never reused for inserts; deletes only set the bitmap bit.
+final class PackedPage {
+    static final int MAX_RECORDS = FileManager.PAGE_SIZE / 8;
+    static final int NCOLS = FixedRecordSize.RECORD_SIZE / 4;
+
+    private static final int BITMAP_OFF = HeapFile.HEADER_BYTES;
+    private static final int COLS_OFF = BITMAP_OFF + MAX_RECORDS / 8;
+    private static final int COL_HEADER_BYTES = 6;
+    static final int DATA_OFF = (COLS_OFF + NCOLS * COL_HEADER_BYTES + 7) & ~7;
+    private static final long DATA_BITS = (FileManager.PAGE_SIZE - DATA_OFF - 8) * 8L;   // 8 bytes slack for long reads
+
+    static final byte ENC_INT = 0;
+    static final byte ENC_DECIMAL = 1;
+    static final byte ENC_DAYS = 2;
+
+    // Unpacked form (unpack()): column c of slot s at (c * MAX_RECORDS + s) * 4
+    static final int UNPACKED_STRIDE = MAX_RECORDS * 4;
+    static final int UNPACKED_BYTES = NCOLS * UNPACKED_STRIDE;
+
+    private PackedPage() {}
+
+    // ---- header ----
+
+    static boolean isDeleted(ByteBuffer page, int slot) {
+        return (page.get(BITMAP_OFF + (slot >>> 3)) & (1 << (slot & 7))) != 0;
+    }
+
+    static void markDeleted(ByteBuffer page, int slot) {
+        int at = BITMAP_OFF + (slot >>> 3);
+        page.put(at, (byte) (page.get(at) | (1 << (slot & 7))));
+    }
+
+    private static byte encoding(ByteBuffer page, int col) { return page.get(COLS_OFF + col * COL_HEADER_BYTES); }
+    private static int width(ByteBuffer page, int col) { return page.get(COLS_OFF + col * COL_HEADER_BYTES + 1); }
+    private static int base(ByteBuffer page, int col) { return page.getInt(COLS_OFF + col * COL_HEADER_BYTES + 2); }
+
+    // First bit of column col's values
+    private static long columnStart(ByteBuffer page, int col) {
+        int n = HeapFile.slotCount(page);
+        long bit = DATA_OFF * 8L;
+        for (int c = 0; c < col; c++) bit += (long) width(page, c) * n;
+        return bit;
+    }
+
+    // ---- bit access (big-endian bit order, w <= 32) ----
+
+    private static long getBits(ByteBuffer page, long bit, int w) {
+        if (w == 0) return 0;
+        return (page.getLong((int) (bit >>> 3)) << (bit & 7)) >>> (64 - w);
+    }
+
+    private static void putBits(ByteBuffer page, long bit, int w, long v) {
+        if (w == 0) return;
+        int at = (int) (bit >>> 3);
+        int shift = 64 - (int) (bit & 7) - w;
+        long mask = ((1L << w) - 1) << shift;
+        page.putLong(at, (page.getLong(at) & ~mask) | ((v << shift) & mask));
+    }
+
+    // ---- value coding ----
+
+    // Stored row-layout int for a coded value
+    private static int decode(byte enc, int base, long bits) {
+        int v = base + (int) bits;
+        switch (enc) {
+            case ENC_DECIMAL: return Float.floatToRawIntBits((float) (v / 1000.0));
+            case ENC_DAYS:    return civilFromDays(v);
+            default:          return v;
+        }
+    }
+
+    // Returned by decimalOf/daysOf when the value has no exact code in that encoding
+    private static final long NOT_CODABLE = Long.MIN_VALUE;
+
+    // k if the float with these bits is exactly (float) (k / 1000.0)
+    private static long decimalOf(int floatBits) {
+        float f = Float.intBitsToFloat(floatBits);
+        if (!(Math.abs(f) < 1e6f)) return NOT_CODABLE;
+        long k = Math.round(f * 1000.0);
+        return Float.floatToRawIntBits((float) (k / 1000.0)) == floatBits ? k : NOT_CODABLE;
+    }
+
+    // Days since 1970-01-01 if yyyymmdd is a valid date
+    private static long daysOf(int yyyymmdd) {
+        int y = yyyymmdd / 10000, m = yyyymmdd / 100 % 100, d = yyyymmdd % 100;
+        if (yyyymmdd <= 0 || m < 1 || m > 12 || d < 1 || d > 31) return NOT_CODABLE;
+        int days = daysFromCivil(y, m, d);
+        return civilFromDays(days) == yyyymmdd ? days : NOT_CODABLE;
+    }
+
+    // Proleptic Gregorian day numbers (H. Hinnant's civil-date algorithms)
+    static int daysFromCivil(int y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    static int civilFromDays(int z) {
+        z += 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = z - era * 146097;
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int d = doy - (153 * mp + 2) / 5 + 1;
+        int m = mp + (mp < 10 ? 3 : -9);
+        int y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+        return y * 10000 + m * 100 + d;
+    }
+
+    private static int bitsFor(long range) { return 64 - Long.numberOfLeadingZeros(range); }
+
+    // ---- reads ----
+
+    // Row-layout int of one column of one slot (deleted or not)
+    static int get(ByteBuffer page, int slot, int col) {
+        int w = width(page, col);
+        return decode(encoding(page, col), base(page, col), getBits(page, columnStart(page, col) + (long) slot * w, w));
+    }
+
+    // Every slot's columns into dst in the unpacked form
+    static void unpack(ByteBuffer page, ByteBuffer dst) {
+        int n = HeapFile.slotCount(page);
+        long bit = DATA_OFF * 8L;
+        for (int c = 0; c < NCOLS; c++) {
+            byte enc = encoding(page, c);
+            int w = width(page, c), base = base(page, c);
+            for (int s = 0, at = c * UNPACKED_STRIDE; s < n; s++, at += 4, bit += w) {
+                dst.putInt(at, decode(enc, base, getBits(page, bit, w)));
+            }
+        }
+    }
+
+    // Live values of one column (row-layout ints); see HeapFile.readIntColumn
+    static int readColumn(ByteBuffer page, int col, int[] dst) {
+        int n = HeapFile.slotCount(page), k = 0;
+        byte enc = encoding(page, col);
+        int w = width(page, col), base = base(page, col);
+        long bit = columnStart(page, col);
+        boolean holes = HeapFile.liveCount(page) != n;
+        for (int s = 0; s < n; s++, bit += w) {
+            if (holes && isDeleted(page, s)) continue;
+            dst[k++] = decode(enc, base, getBits(page, bit, w));
+        }
+        return k;
+    }
+
+    static int readFloatColumn(ByteBuffer page, int col, float[] dst) {
+        int n = HeapFile.slotCount(page), k = 0;
+        byte enc = encoding(page, col);
+        int w = width(page, col), base = base(page, col);
+        long bit = columnStart(page, col);
+        boolean holes = HeapFile.liveCount(page) != n;
+        for (int s = 0; s < n; s++, bit += w) {
+            if (holes && isDeleted(page, s)) continue;
+            long bits = getBits(page, bit, w);
+            dst[k++] = enc == ENC_DECIMAL ? (float) ((base + (int) bits) / 1000.0) : Float.intBitsToFloat(decode(enc, base, bits));
+        }
+        return k;
+    }
+
+    // ---- writes ----
+
+    // Collects row-encoded records for one page and tracks, per column, the value range
+    // under each encoding, so add() knows when the page is full before encoding it.
+    static final class Builder {
+        private final byte[] rows = new byte[MAX_RECORDS * FixedRecordSize.RECORD_SIZE];
+        private int n;
+        private final long[] min = new long[NCOLS * 3], max = new long[NCOLS * 3];   // [col * 3 + enc]
+        private final boolean[] ok = new boolean[NCOLS * 3];
+        private final long[] v = new long[NCOLS * 3];                                 // scratch for add()
+
+        Builder() { reset(); }
+
+        void reset() {
+            n = 0;
+            for (int c = 0; c < NCOLS; c++) {
+                ok[c * 3 + ENC_INT] = true;
+                ok[c * 3 + ENC_DECIMAL] = FixedRecordSize.isFloat(c);
+                ok[c * 3 + ENC_DAYS] = c == FixedRecordSize.COL_GAME_DATE;
+            }
+        }
+
+        int size() { return n; }
+
+        private static int intAt(byte[] b, int o) {
+            return (b[o] & 0xff) << 24 | (b[o + 1] & 0xff) << 16 | (b[o + 2] & 0xff) << 8 | (b[o + 3] & 0xff);
+        }
+
+        // Encoding column c would use now (the narrowest one still valid)
+        private int choose(int c, long[] mn, long[] mx, boolean[] valid) {
+            int best = ENC_INT;
+            for (int e = 1; e < 3; e++) {
+                if (valid[c * 3 + e] && mx[c * 3 + e] - mn[c * 3 + e] < mx[c * 3 + best] - mn[c * 3 + best]) best = e;
+            }
+            return best;
+        }
+
+        // Add one record in the row encoding; returns its slot, or -1 if it does not fit
+        int add(byte[] src, int off) {
+            if (n == MAX_RECORDS) return -1;
+            long bits = 0;
+            for (int c = 0; c < NCOLS; c++) {
+                int raw = intAt(src, off + c * 4);
+                v[c * 3 + ENC_INT] = raw;
+                v[c * 3 + ENC_DECIMAL] = ok[c * 3 + ENC_DECIMAL] ? decimalOf(raw) : NOT_CODABLE;
+                v[c * 3 + ENC_DAYS] = ok[c * 3 + ENC_DAYS] ? daysOf(raw) : NOT_CODABLE;
+                long range = Long.MAX_VALUE;
+                for (int e = 0; e < 3; e++) {
+                    int i = c * 3 + e;
+                    if (!ok[i] || v[i] == NOT_CODABLE) continue;
+                    long lo = n == 0 ? v[i] : Math.min(min[i], v[i]), hi = n == 0 ? v[i] : Math.max(max[i], v[i]);
+                    range = Math.min(range, hi - lo);
+                }
+                bits += bitsFor(range);
+            }
+            if (bits * (n + 1) > DATA_BITS) return -1;
+
+            for (int i = 0; i < NCOLS * 3; i++) {
+                if (!ok[i]) continue;
+                if (v[i] == NOT_CODABLE) { ok[i] = false; continue; }
+                min[i] = n == 0 ? v[i] : Math.min(min[i], v[i]);
+                max[i] = n == 0 ? v[i] : Math.max(max[i], v[i]);
+            }
+            System.arraycopy(src, off, rows, n * FixedRecordSize.RECORD_SIZE, FixedRecordSize.RECORD_SIZE);
+            return n++;
+        }
+
+        // Write the collected records into page (already carrying the packed page type)
+        void encode(ByteBuffer page) {
+            Arrays.fill(page.array(), 1, FileManager.PAGE_SIZE, (byte) 0);
+            page.putShort(HeapFile.OFF_SLOT_COUNT, (short) n);
+            page.putShort(HeapFile.OFF_LIVE_COUNT, (short) n);
+            long bit = DATA_OFF * 8L;
+            for (int c = 0; c < NCOLS; c++) {
+                int enc = choose(c, min, max, ok);
+                int i = c * 3 + enc;
+                int base = n == 0 ? 0 : (int) min[i];
+                int w = n == 0 ? 0 : bitsFor(max[i] - min[i]);
+                int h = COLS_OFF + c * COL_HEADER_BYTES;
+                page.put(h, (byte) enc);
+                page.put(h + 1, (byte) w);
+                page.putInt(h + 2, base);
+                for (int s = 0; s < n; s++, bit += w) {
+                    int raw = intAt(rows, s * FixedRecordSize.RECORD_SIZE + c * 4);
+                    long coded = enc == ENC_DECIMAL ? decimalOf(raw) : enc == ENC_DAYS ? daysOf(raw) : raw;
+                    putBits(page, bit, w, coded - base);
+                }
+            }
+        }
+    }
+}
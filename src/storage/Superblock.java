@@ -0,0 +1,295 @@
+package storage;
+
+import IO.FileManager;
+import IO.WriteAheadLog;
+import Util.FixedRecordSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Page 0: file format + heap extent + index metadata, so a process can reopen the
+// indexes without rescanning the heap.
+public final class Superblock {
+    public static final int MAGIC = 0x44425350;  // "DBSP"
+    public static final int VERSION = 7;       // v3: slotted heap pages + free-space map, v4: 8-byte leaf entries, v5: named indexes, v6: posting-list indexes, v7: page sizes to 64K, truncated separators
+
+    // Layout (big-endian, byte offsets in page 0)
+    public static final int OFF_MAGIC          = 0;   // int
+    public static final int OFF_VERSION        = 4;   // int
+    public static final int OFF_PAGE_SIZE      = 8;   // int
+    public static final int OFF_HEAP_FIRST     = 12;  // int, 0 = no heap pages yet
+    public static final int OFF_HEAP_LAST      = 16;  // int
+    public static final int OFF_RECORD_COUNT   = 20;  // long
+    public static final int OFF_INDEX_COUNT    = 28;  // int, entries at OFF_INDEXES (32..55 held the single v4 index)
+    public static final int OFF_FREE_HEAD      = 56;  // int, first free page, 0 = none
+    public static final int OFF_FSM_HEAD       = 60;  // int, first FreeSpaceMap page, 0 = none
+    public static final int OFF_FSM_HINT       = 64;  // int, no page below this has room
+    public static final int OFF_HEAP_LAYOUT    = 68;  // int, HeapFile.Layout ordinal (0 = ROW)
+    public static final int OFF_ZONE_HEAD      = 72;  // int, first ZoneMap page, 0 = none
+    public static final int OFF_CHECKPOINT     = WriteAheadLog.CHECKPOINT_OFFSET;  // 16 bytes, last fuzzy checkpoint (only in the data file's copy)
+
+    // Index directory: one fixed entry per B+ tree from OFF_INDEXES to the end of the page
+    //   [0] name (ASCII, zero padded)  [32] key column (byte)  [33] second key column + 1 (byte, 0 = none)
+    //   [34] height (byte)  [35] flags (byte, FLAG_POSTINGS)  [36] root  [40] posting pages
+    //   [44] leaves  [48] internal nodes  [52] indexed entries (long)
+    //   [60] included columns (short, bit per column)
+    public static final int OFF_INDEXES        = 128;
+    public static final int INDEX_ENTRY_BYTES  = 64;
+    public static final int INDEX_NAME_BYTES   = 32;
+    public static final int MAX_INDEXES = (FileManager.PAGE_SIZE - OFF_INDEXES) / INDEX_ENTRY_BYTES;
+    public static final int FLAG_POSTINGS = 1;   // leaves hold one posting list per distinct key
+
+    // Free pages are chained through their OFF_NEXT_FREE int. Byte 0 marks them so heap
+    // scans skip them (heap pages are HeapFile.TYPE_HEAP / TYPE_HEAP_PAX, B+ tree pages use PageLayout.TYPE_*).
+    public static final byte TYPE_FREE = 3;
+    public static final int OFF_NEXT_FREE = 4;
+
+    public int heapFirstPid;
+    public int heapLastPid;
+    public long recordCount;
+    public final List<IndexMeta> indexes = new ArrayList<>();
+    public int freeHead;
+    public int fsmHead;
+    public int fsmHint;
+    public HeapFile.Layout heapLayout = HeapFile.Layout.ROW;
+    public int zoneHead;
+
+    // One B+ tree: what it is keyed on and the shape BPlusTree / BulkLoader keep up to date
+    public static final class IndexMeta {
+        public final String name;
+        public int[] keyColumns;       // most significant first
+        public int[] includeColumns;   // copied into the leaf entries, in column order
+        public boolean postings;       // posting-list leaves (PostingLeafPage)
+        public int rootPid = -1;
+        public int height;
+        public int leafCount;
+        public int internalCount;
+        public int postingCount;       // overflow posting pages
+        public long indexedCount;
+
+        public IndexMeta(String name, int[] keyColumns, int[] includeColumns) {
+            byte[] b = name.getBytes(StandardCharsets.US_ASCII);
+            if (b.length == 0 || b.length > INDEX_NAME_BYTES || !name.equals(new String(b, StandardCharsets.US_ASCII)))
+                throw new IllegalArgumentException("Index name must be 1.." + INDEX_NAME_BYTES + " ASCII characters: " + name);
+            this.name = name;
+            this.keyColumns = keyColumns;
+            this.includeColumns = includeColumns;
+        }
+
+        public int pageCount() { return leafCount + internalCount + postingCount; }
+
+        @Override public String toString() {
+            return String.format("%s on %s%s: root=%d, height=%d, leaves=%d, internal=%d%s, indexed=%d",
+                    name, names(keyColumns), includeColumns.length == 0 ? "" : " include " + names(includeColumns),
+                    rootPid, height, leafCount, internalCount, postings ? ", posting pages=" + postingCount : "", indexedCount);
+        }
+
+        private static String names(int[] cols) {
+            StringBuilder sb = new StringBuilder();
+            for (int c : cols) sb.append(sb.length() == 0 ? "" : "+").append(FixedRecordSize.COLUMN_NAMES[c]);
+            return sb.toString();
+        }
+    }
+
+    public IndexMeta index(String name) {
+        for (IndexMeta m : indexes) if (m.name.equals(name)) return m;
+        return null;
+    }
+
+    // First index keyed on col alone, null if none
+    public IndexMeta indexOn(int col) {
+        for (IndexMeta m : indexes) if (m.keyColumns.length == 1 && m.keyColumns[0] == col) return m;
+        return null;
+    }
+
+    public IndexMeta addIndex(String name, int[] keyColumns, int[] includeColumns) {
+        if (index(name) != null) throw new IllegalStateException("Index " + name + " already exists");
+        if (indexes.size() == MAX_INDEXES) throw new IllegalStateException("No room for more than " + MAX_INDEXES + " indexes");
+        IndexMeta m = new IndexMeta(name, keyColumns, includeColumns);
+        indexes.add(m);
+        return m;
+    }
+
+    // Rows appended without going through BPlusTree.insert are missing from the index
+    public boolean isStale(IndexMeta m) { return m.indexedCount != recordCount; }
+
+    public int indexPageCount() {
+        int n = 0;
+        for (IndexMeta m : indexes) n += m.pageCount();
+        return n;
+    }
+
+    public static Superblock read(FileManager fm) throws IOException {
+        ByteBuffer b = fm.readPage(0);
+        int magic = b.getInt(OFF_MAGIC);
+        if (magic == 0) return fromLegacy(fm);
+        if (magic != MAGIC) throw new IllegalStateException("Not a database file (bad superblock magic)");
+
+        int version = b.getInt(OFF_VERSION);
+        if (version < VERSION) throw new IllegalStateException("File version " + version + " predates the current page formats; reload it with LoadGames");
+        if (version > VERSION) throw new IllegalStateException("Unsupported file version " + version);
+        int pageSize = b.getInt(OFF_PAGE_SIZE);
+        if (pageSize != FileManager.PAGE_SIZE)
+            throw new IllegalStateException("File page size " + pageSize + " != " + FileManager.PAGE_SIZE
+                    + "; open it with -Ddb.pageSize=" + pageSize);
+
+        Superblock sb = new Superblock();
+        sb.heapFirstPid  = b.getInt(OFF_HEAP_FIRST);
+        sb.heapLastPid   = b.getInt(OFF_HEAP_LAST);
+        sb.recordCount   = b.getLong(OFF_RECORD_COUNT);
+        sb.freeHead      = b.getInt(OFF_FREE_HEAD);
+        sb.fsmHead       = b.getInt(OFF_FSM_HEAD);
+        sb.fsmHint       = b.getInt(OFF_FSM_HINT);
+        int layout       = b.getInt(OFF_HEAP_LAYOUT);
+        if (layout < 0 || layout >= HeapFile.Layout.values().length)
+            throw new IllegalStateException("Unknown heap layout " + layout);
+        sb.heapLayout    = HeapFile.Layout.values()[layout];
+        sb.zoneHead      = b.getInt(OFF_ZONE_HEAD);
+        int indexCount   = b.getInt(OFF_INDEX_COUNT);
+        for (int i = 0, at = OFF_INDEXES; i < indexCount; i++, at += INDEX_ENTRY_BYTES) {
+            int len = 0;
+            while (len < INDEX_NAME_BYTES && b.get(at + len) != 0) len++;
+            byte[] name = new byte[len];
+            b.get(at, name);
+            int first = b.get(at + 32), second = b.get(at + 33) - 1, mask = Short.toUnsignedInt(b.getShort(at + 60));
+            int[] include = new int[Integer.bitCount(mask)];
+            for (int c = 0, j = 0; c < 16; c++) if ((mask & 1 << c) != 0) include[j++] = c;
+            IndexMeta m = new IndexMeta(new String(name, StandardCharsets.US_ASCII),
+                    second < 0 ? new int[]{first} : new int[]{first, second}, include);
+            m.height        = b.get(at + 34);
+            m.postings      = (b.get(at + 35) & FLAG_POSTINGS) != 0;
+            m.rootPid       = b.getInt(at + 36);
+            m.postingCount  = b.getInt(at + 40);
+            m.leafCount     = b.getInt(at + 44);
+            m.internalCount = b.getInt(at + 48);
+            m.indexedCount  = b.getLong(at + 52);
+            sb.indexes.add(m);
+        }
+        return sb;
+    }
+
+    public void write(FileManager fm) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+        b.putInt(OFF_MAGIC, MAGIC);
+        b.putInt(OFF_VERSION, VERSION);
+        b.putInt(OFF_PAGE_SIZE, FileManager.PAGE_SIZE);
+        b.putInt(OFF_HEAP_FIRST, heapFirstPid);
+        b.putInt(OFF_HEAP_LAST, heapLastPid);
+        b.putLong(OFF_RECORD_COUNT, recordCount);
+        b.putInt(OFF_FREE_HEAD, freeHead);
+        b.putInt(OFF_FSM_HEAD, fsmHead);
+        b.putInt(OFF_FSM_HINT, fsmHint);
+        b.putInt(OFF_HEAP_LAYOUT, heapLayout.ordinal());
+        b.putInt(OFF_ZONE_HEAD, zoneHead);
+        b.putInt(OFF_INDEX_COUNT, indexes.size());
+        int at = OFF_INDEXES;
+        for (IndexMeta m : indexes) {
+            b.put(at, m.name.getBytes(StandardCharsets.US_ASCII));
+            b.put(at + 32, (byte) m.keyColumns[0]);
+            b.put(at + 33, (byte) (m.keyColumns.length > 1 ? m.keyColumns[1] + 1 : 0));
+            b.put(at + 34, (byte) m.height);
+            b.put(at + 35, (byte) (m.postings ? FLAG_POSTINGS : 0));
+            int mask = 0;
+            for (int c : m.includeColumns) mask |= 1 << c;
+            b.putShort(at + 60, (short) mask);
+            b.putInt(at + 36, m.rootPid);
+            b.putInt(at + 40, m.postingCount);
+            b.putInt(at + 44, m.leafCount);
+            b.putInt(at + 48, m.internalCount);
+            b.putLong(at + 52, m.indexedCount);
+            at += INDEX_ENTRY_BYTES;
+        }
+        fm.writePage(0, b);
+    }
+
+    // Read-modify-write. Heap, index and free list each own different fields, so edits go
+    // through here instead of writing back a copy that may be stale. Page 0 edits hold the
+    // FileManager's monitor, so threads sharing the file (e.g. B+ tree writers) take turns.
+    public static Superblock update(FileManager fm, Consumer<Superblock> edit) throws IOException {
+        synchronized (fm) {
+            Superblock sb = read(fm);
+            edit.accept(sb);
+            sb.write(fm);
+            return sb;
+        }
+    }
+
+    // ---- free page list ----
+
+    // Reuse a freed page if there is one, else grow the file
+    public static int allocatePage(FileManager fm) throws IOException {
+        synchronized (fm) {
+            Superblock sb = read(fm);
+            if (sb.freeHead == 0) return fm.allocatePage();
+            int pid = sb.freeHead;
+            sb.freeHead = fm.readPage(pid).getInt(OFF_NEXT_FREE);
+            sb.write(fm);
+            return pid;
+        }
+    }
+
+    public static void freePage(FileManager fm, int pageId) throws IOException {
+        synchronized (fm) {
+            Superblock sb = read(fm);
+            ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+            b.put(0, TYPE_FREE);
+            b.putInt(OFF_NEXT_FREE, sb.freeHead);
+            fm.writePage(pageId, b);
+            sb.freeHead = pageId;
+            sb.write(fm);
+        }
+    }
+
+    // Blank page 0: a new file, which gets its superblock now. Anything past page 0 was
+    // written before the superblock existed, in a heap format this version no longer reads.
+    private static Superblock fromLegacy(FileManager fm) throws IOException {
+        if (fm.pageCount() > 1) throw new IllegalStateException("File has no superblock; reload it with LoadGames");
+        Superblock sb = new Superblock();
+        sb.write(fm);
+        return sb;
+    }
+
+    // Bulk variants for BulkLoader: one superblock update instead of one per page
+
+    // Detach the whole free list and return its pages (in list order)
+    public static int[] takeFreeList(FileManager fm) throws IOException {
+        synchronized (fm) {
+            Superblock sb = read(fm);
+            int[] out = new int[16];
+            int n = 0;
+            ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+            for (int pid = sb.freeHead; pid != 0; pid = fm.readPage(pid, b).getInt(OFF_NEXT_FREE)) {
+                if (n == out.length) out = Arrays.copyOf(out, n * 2);
+                out[n++] = pid;
+            }
+            sb.freeHead = 0;
+            sb.write(fm);
+            return Arrays.copyOf(out, n);
+        }
+    }
+
+    public static void freePages(FileManager fm, int[] pids, int from, int to) throws IOException {
+        synchronized (fm) {
+            if (from >= to) return;
+            Superblock sb = read(fm);
+            ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+            b.put(0, TYPE_FREE);
+            for (int i = from; i < to; i++) {
+                b.putInt(OFF_NEXT_FREE, sb.freeHead);
+                fm.writePage(pids[i], b);
+                sb.freeHead = pids[i];
+            }
+            sb.write(fm);
+        }
+    }
+
+    @Override public String toString() {
+        return String.format("heap pages [%d..%d], records=%d, fsmHint=%d, layout=%s, indexes=%s",
+                heapFirstPid, heapLastPid, recordCount, fsmHint, heapLayout, indexes);
+    }
+}
@@ -0,0 +1,134 @@
+package storage;
+
+import IO.FileManager;
+import Util.FixedRecordSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+// Per heap page min/max of every column, so a range scan can skip pages that cannot hold
+// a match. Zone map pages are chained from Superblock.zoneHead; page k of the chain holds
+// the entries of page ids [k * ENTRIES_PER_PAGE, (k + 1) * ENTRIES_PER_PAGE):
+//   [0] type  [4] next zone page (0 = last)  [8..] valid bitmap, one bit per entry
+//   [ENTRIES_OFF..] per entry and column: min, max (4 bytes each, int or float as stored)
+// An entry is written from the whole page each time the heap writes that page (Appender
+// page flush, insert), so it is exact then; deletes leave it as is, which only makes it
+// wider than needed. A page without a valid entry is always read.
+public final class ZoneMap {
+    public static final byte TYPE_ZONE = 8;
+    public static final int OFF_NEXT = 4;
+    private static final int BITMAP_OFF = 8;
+    private static final int NCOLS = FixedRecordSize.RECORD_SIZE / 4;
+    private static final int ENTRY_BYTES = NCOLS * 8;
+    private static final int ENTRIES_UPPER = (FileManager.PAGE_SIZE - BITMAP_OFF) * 8 / (ENTRY_BYTES * 8 + 1);
+    private static final int ENTRIES_OFF = BITMAP_OFF + (ENTRIES_UPPER + 31) / 32 * 4;
+    public static final int ENTRIES_PER_PAGE = Math.min(ENTRIES_UPPER, (FileManager.PAGE_SIZE - ENTRIES_OFF) / ENTRY_BYTES);
+
+    private ZoneMap() {}
+
+    // Recompute pid's entry from its current contents (page as it is being written)
+    public static void summarize(FileManager fm, int pid, ByteBuffer page) throws IOException {
+        int live = HeapFile.liveCount(page);
+        int zonePid = zonePageFor(fm, pid, live > 0);
+        if (zonePid == 0) return;
+        ByteBuffer z = fm.readPage(zonePid);
+        int e = pid % ENTRIES_PER_PAGE;
+        if (live == 0) {
+            setValid(z, e, false);            // nothing to summarize; read it if asked
+        } else {
+            int[] ints = new int[HeapFile.MAX_RECORDS_PER_PAGE];
+            float[] floats = new float[HeapFile.MAX_RECORDS_PER_PAGE];
+            int at = ENTRIES_OFF + e * ENTRY_BYTES;
+            for (int c = 0; c < NCOLS; c++, at += 8) {
+                if (FixedRecordSize.isFloat(c)) {
+                    int n = HeapFile.readFloatColumn(page, c, floats);
+                    float lo = Float.POSITIVE_INFINITY, hi = Float.NEGATIVE_INFINITY;
+                    for (int i = 0; i < n; i++) { lo = Math.min(lo, floats[i]); hi = Math.max(hi, floats[i]); }
+                    z.putFloat(at, lo);
+                    z.putFloat(at + 4, hi);
+                } else {
+                    int n = HeapFile.readIntColumn(page, c, ints);
+                    int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+                    for (int i = 0; i < n; i++) { lo = Math.min(lo, ints[i]); hi = Math.max(hi, ints[i]); }
+                    z.putInt(at, lo);
+                    z.putInt(at + 4, hi);
+                }
+            }
+            setValid(z, e, true);
+        }
+        fm.writePage(zonePid, z);
+    }
+
+    // Heap pages in [fromPid, toPid) that may hold a record with lo <= col <= hi: pages with
+    // a valid entry whose [min, max] misses the range are left out
+    public static BitSet candidates(FileManager fm, int col, double lo, double hi, int fromPid, int toPid) throws IOException {
+        BitSet out = new BitSet(toPid);
+        out.set(fromPid, toPid);
+        boolean isFloat = FixedRecordSize.isFloat(col);
+        int base = 0;
+        for (int zonePid = Superblock.read(fm).zoneHead; zonePid != 0 && base < toPid; base += ENTRIES_PER_PAGE) {
+            ByteBuffer z = fm.readPage(zonePid);
+            int first = Math.max(fromPid, base), last = Math.min(toPid, base + ENTRIES_PER_PAGE);
+            for (int pid = first; pid < last; pid++) {
+                int e = pid - base;
+                if (!isValid(z, e)) continue;
+                int at = ENTRIES_OFF + e * ENTRY_BYTES + col * 8;
+                double min = isFloat ? z.getFloat(at) : z.getInt(at);
+                double max = isFloat ? z.getFloat(at + 4) : z.getInt(at + 4);
+                if (max < lo || min > hi) out.clear(pid);
+            }
+            zonePid = z.getInt(OFF_NEXT);
+        }
+        return out;
+    }
+
+    // Summarize every heap page (files loaded before zone maps, or to tighten after deletes)
+    public static void rebuild(FileManager fm) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        if (sb.heapFirstPid == 0) return;
+        for (int pid = sb.heapFirstPid; pid <= sb.heapLastPid; pid++) {
+            ByteBuffer page = fm.readPage(pid);
+            if (HeapFile.isHeapPage(page)) summarize(fm, pid, page);
+        }
+    }
+
+    private static boolean isValid(ByteBuffer z, int e) {
+        return (z.get(BITMAP_OFF + (e >>> 3)) & (1 << (e & 7))) != 0;
+    }
+
+    private static void setValid(ByteBuffer z, int e, boolean valid) {
+        int at = BITMAP_OFF + (e >>> 3);
+        byte b = z.get(at);
+        z.put(at, (byte) (valid ? b | (1 << (e & 7)) : b & ~(1 << (e & 7))));
+    }
+
+    // Zone page covering pid; missing pages are chained on only when create is set
+    private static int zonePageFor(FileManager fm, int pid, boolean create) throws IOException {
+        Superblock sb = Superblock.read(fm);
+        int k = pid / ENTRIES_PER_PAGE;
+        int prev = 0, cur = sb.zoneHead;
+        for (int i = 0; i <= k; i++) {
+            if (cur == 0) {
+                if (!create) return 0;
+                cur = Superblock.allocatePage(fm);
+                ByteBuffer b = ByteBuffer.allocate(FileManager.PAGE_SIZE);
+                b.put(0, TYPE_ZONE);
+                fm.writePage(cur, b);
+                int added = cur;
+                if (prev == 0) Superblock.update(fm, s -> s.zoneHead = added);
+                else fm.writePage(prev, fm.readPage(prev).putInt(OFF_NEXT, added));
+            }
+            prev = cur;
+            if (i < k) cur = fm.readPage(cur).getInt(OFF_NEXT);
+        }
+        return cur;
+    }
+
+    // Zone map pages in the chain (inside or after the heap extent; scans skip them)
+    public static int pageCount(FileManager fm) throws IOException {
+        int n = 0;
+        for (int pid = Superblock.read(fm).zoneHead; pid != 0; pid = fm.readPage(pid).getInt(OFF_NEXT)) n++;
+        return n;
+    }
+}